@@ -14,9 +14,12 @@ import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import com.pradeep.rtspplayer.parser.AccessUnitAssembler;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class FBoxCCTVPlay extends Thread {
     private final String TAG = "FBoxCCTVPlay";
@@ -28,7 +31,10 @@ public class FBoxCCTVPlay extends Thread {
     private int width;
     public ArrayList<DecoderData> mAccessUnits = new ArrayList<>();
     public ArrayList<Integer> mAvailableDecoderInputBuffer = new ArrayList<>();
-    private int captureRate = 1;
+    // Maps decoder presentation times to System.nanoTime() for render scheduling
+    private static final long MAX_RENDER_DRIFT_NS = 500_000_000L;
+    private long renderBaseTimeNs = -1;
+    private long renderBasePtsUs;
 
     public Handler mHandler = null;
     private void createHandler() {
@@ -61,20 +67,34 @@ public class FBoxCCTVPlay extends Thread {
 
     public class DecoderData {
         private byte [] mData;
+        private long mPresentationTimeUs;
+        private int mFlags;
 
-        public DecoderData(byte [] data) {
+        public DecoderData(byte [] data, long presentationTimeUs, int flags) {
             this.mData = data;
+            this.mPresentationTimeUs = presentationTimeUs;
+            this.mFlags = flags;
         }
 
         public byte[] getData() {
             return mData;
         }
+
+        public long getPresentationTimeUs() {
+            return mPresentationTimeUs;
+        }
+
+        public int getFlags() {
+            return mFlags;
+        }
     }
 
 
-    public void putData(final byte[] data,int size){
+    // Copies the data, the RTSP client reuses its buffers. One call per access unit.
+    public void putData(final byte[] data, int offset, int size, long presentationTimeUs, int flags){
         if(data != null) {
-            DecoderData frame = new DecoderData(data);
+            int codecFlags = (flags & AccessUnitAssembler.FLAG_KEY_FRAME) != 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            DecoderData frame = new DecoderData(Arrays.copyOfRange(data, offset, offset + size), presentationTimeUs, codecFlags);
             mAccessUnits.add(frame);
         }
     }
@@ -105,7 +125,7 @@ public class FBoxCCTVPlay extends Thread {
                         if (frame != null) {
                             byte[] playData = frame.getData();
                             byteBuffer.put(playData, 0, playData.length);
-                            mediaCodec2.queueInputBuffer(index, 0, playData.length, 0, 0);
+                            mediaCodec2.queueInputBuffer(index, 0, playData.length, frame.getPresentationTimeUs(), frame.getFlags());
                             this.mAccessUnits.remove(0);
                             if (mAvailableDecoderInputBuffer.size() > 0) {
                                 this.mAvailableDecoderInputBuffer.remove(0);
@@ -167,16 +187,8 @@ public class FBoxCCTVPlay extends Thread {
 
         public void onOutputBufferAvailable(@NonNull MediaCodec mediaCodec, int index, @NonNull MediaCodec.BufferInfo info) {
             if (!mStopRead) {
-                mediaCodec.getOutputBuffer(index);
-                mediaCodec.getOutputFormat(index);
                 try {
-                    mediaCodec.releaseOutputBuffer(index, info.presentationTimeUs);
-
-                    try {
-                        Thread.sleep((int)1000/captureRate);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+                    mediaCodec.releaseOutputBuffer(index, getRenderTimeNs(info.presentationTimeUs));
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -192,6 +204,19 @@ public class FBoxCCTVPlay extends Thread {
         }
     }
 
+    // Frame pacing follows the stream timestamps. The timeline is re-anchored on start and
+    // whenever the stream drifts too far from the wall clock (e.g. after a stall).
+    private long getRenderTimeNs(long presentationTimeUs) {
+        long nowNs = System.nanoTime();
+        long renderTimeNs = renderBaseTimeNs + (presentationTimeUs - renderBasePtsUs) * 1000;
+        if (renderBaseTimeNs < 0 || renderTimeNs < nowNs - MAX_RENDER_DRIFT_NS || renderTimeNs > nowNs + MAX_RENDER_DRIFT_NS) {
+            renderBaseTimeNs = nowNs;
+            renderBasePtsUs = presentationTimeUs;
+            renderTimeNs = nowNs;
+        }
+        return renderTimeNs;
+    }
+
     public boolean isCodecSupported(String mimeType) {
         for (MediaCodecInfo codecInfo : new MediaCodecList(MediaCodecList.ALL_CODECS).getCodecInfos()) {
             if (codecInfo.isEncoder()) continue;
@@ -218,11 +243,30 @@ public class FBoxCCTVPlay extends Thread {
         return null;
     }
 
+    // Only hardware decoders which MediaCodecHelper considers fast enough for streaming
+    private MediaCodec findAv1Decoder() {
+        MediaCodecInfo decoderInfo = MediaCodecHelper.findProbableSafeDecoder("video/av01", -1);
+        if (decoderInfo == null || !MediaCodecHelper.isDecoderWhitelistedForAv1(decoderInfo)) {
+            Log.w(TAG, "AV1 decoder is not available");
+            return null;
+        }
+        Log.i(TAG, "AV1 decoder " + decoderInfo.getName() + ", reference frame invalidation: "
+                + MediaCodecHelper.decoderSupportsRefFrameInvalidationAv1(decoderInfo));
+        try {
+            return MediaCodec.createByCodecName(decoderInfo.getName());
+        } catch (IOException | IllegalArgumentException ex) {
+            Log.w(TAG, "codec \"" + decoderInfo.getName() + "\" failed", ex);
+            return null;
+        }
+    }
+
     private void createCodec() {
         Log.e("VideoDecodeThread", "FBox Dvb Player create codec"+isCodecSupported(this.mimeType));
         try {
             if(this.mimeType.equalsIgnoreCase("video/hevc")) {
                 this.mediaCodec = findHevcDecoder();
+            } else if(this.mimeType.equalsIgnoreCase("video/av01")) {
+                this.mediaCodec = findAv1Decoder();
             } else {
                 this.mediaCodec = MediaCodec.createDecoderByType(this.mimeType);
             }
@@ -241,7 +285,6 @@ public class FBoxCCTVPlay extends Thread {
         format.setInteger("i-frame-interval", 30);
         this.mediaCodec.configure(format, inputSurface, (MediaCrypto) null, 0);
         this.mediaCodec.start();
-        captureRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
         while (this.mAccessUnits.size() < 10) {
             try {
                 Thread.sleep(500);
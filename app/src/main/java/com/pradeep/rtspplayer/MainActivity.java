@@ -14,10 +14,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.pradeep.rtspplayer.databinding.ActivityMainBinding;
-import com.pradeep.rtspplayer.utils.NetUtils;
-
-import java.net.Socket;
-
+import com.pradeep.rtspplayer.parser.OnvifMetadataParser;
 public class MainActivity extends AppCompatActivity implements SurfaceHolder.Callback{
     private ActivityMainBinding binding;
     private FBoxCCTVPlay mPlayer;
@@ -28,6 +25,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
     private Context mContext;
     private boolean mPassword;
     private  RtspClient rtspClient;
+    private RtspSessionEngine mSessionEngine;
     private boolean mStopPlayer = false;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,6 +38,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
         mContext = this;
         mStopPlayer = false;
         mSurfaceHolder.addCallback(this);
+        MediaCodecHelper.initialize(this, "");
         backgroundListener();
         binding.bnStartStopSurface.setOnClickListener(View-> {
             if(binding.bnStartStopSurface.getText().toString().equalsIgnoreCase("Start")) {
@@ -101,7 +100,20 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
                         Log.e(TAG,"........"+sdpInfo.applicationTrack);
                         Log.e(TAG,"........"+sdpInfo.videoTrack);
                         Log.e(TAG,"........"+sdpInfo.audioTrack);
-                        if(sdpInfo.videoTrack.videoCodec == 1) {
+                        if(RtpDepacketizerRegistry.ENCODING_JPEG.equals(sdpInfo.videoTrack.encoding)) {
+                            Log.w(TAG, "MJPEG frames are not rendered by the MediaCodec player");
+                            return;
+                        }
+                        if(RtpDepacketizerRegistry.ENCODING_AV1.equals(sdpInfo.videoTrack.encoding)) {
+                            ((MainActivity) mContext).runOnUiThread(new Runnable() {
+                                public void run() {
+                                    mPlayer = new FBoxCCTVPlay(mSurfaceHolder.getSurface(), "video/av01", 340, 320);
+                                    if (mPlayer != null) {
+                                        mPlayer.start();
+                                    }
+                                }
+                            });
+                        } else if(RtpDepacketizerRegistry.ENCODING_H265.equals(sdpInfo.videoTrack.encoding)) {
                             ((MainActivity) mContext).runOnUiThread(new Runnable() {
                                 public void run() {
                                     mPlayer = new FBoxCCTVPlay(mSurfaceHolder.getSurface(), "video/hevc", 340, 320);
@@ -123,7 +135,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
                     }
 
                     @Override
-                    public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp) {
+                    public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp, int flags) {
                         ((MainActivity) mContext).runOnUiThread(new Runnable() {
                             public void run() {
                                 if(mStopPlayer == false && !binding.bnStartStopSurface.getText().toString().equalsIgnoreCase("Stop")) {
@@ -132,7 +144,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
                             }
                         });
                         if(mPlayer != null) {
-                            mPlayer.putData(data, data.length);
+                            mPlayer.putData(data, offset, length, timestamp, flags);
                         }
                     }
 
@@ -183,45 +195,46 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
     }
 
     private void startStreaming() {
-        new Thread() {
-            @Override
-            public void run() {
-                super.run();
-                Log.i(TAG, "Thread started");
-                Socket socket = null;
-                try {
-                    //"rtsp://192.168.0.115:554/ch0_0.264"
-                    Uri uri = Uri.parse("rtsp://"+binding.etRtspRequest.getText().toString()+":554/ch0_0.264");
-                    int port = (uri.getPort() == -1) ? 554 : uri.getPort();
-                    socket = NetUtils.createSocketAndConnect(uri.getHost(), port, 5000);
-                    rtspClient = new RtspClient.Builder(socket, uri.toString(), rtspClientListener)
-                            .requestVideo(true)
-                            .requestAudio(false)
-                            .requestApplication(true)
-                            .withDebug(true)
-                            .withUserAgent("user_access")
-                            .withCredentials(binding.etRtspUsername.getText().toString(), binding.etRtspPassword.getText().toString())
-                            .build();
-
-                    rtspClient.execute();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    binding.getRoot().post(new Runnable() {
+        try {
+            //"rtsp://192.168.0.115:554/ch0_0.264"
+            Uri uri = Uri.parse("rtsp://"+binding.etRtspRequest.getText().toString()+":554/ch0_0.264");
+            if (mSessionEngine == null)
+                mSessionEngine = new RtspSessionEngine(1);
+            rtspClient = new RtspClient.Builder(uri.toString(), rtspClientListener)
+                    .requestVideo(true)
+                    .requestAudio(false)
+                    .requestApplication(true)
+                    .withMetadataListener(new OnvifMetadataParser.MetadataListener() {
                         @Override
-                        public void run() {
-                            rtspClientListener.onRtspFailed(e.getMessage());
+                        public void onOnvifEvent(@NonNull OnvifMetadataParser.Event event) {
+                            if (event.isMotion())
+                                Log.i(TAG, "Motion " + event.utcTime);
                         }
-                    });
-                } finally {
-                    try {
-                        NetUtils.closeSocket(socket);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                Log.i(TAG, "Thread stopped");
-            }
-        }.start();
+
+                        @Override
+                        public void onOnvifObject(@NonNull OnvifMetadataParser.AnalyticsObject object) {
+                            Log.i(TAG, "Object " + object);
+                        }
+                    })
+                    .withDebug(true)
+                    .withUserAgent("user_access")
+                    .withCredentials(binding.etRtspUsername.getText().toString(), binding.etRtspPassword.getText().toString())
+                    .build();
+            // Connects and streams on the engine thread, shared by all sessions
+            mSessionEngine.start(rtspClient);
+        } catch (Exception e) {
+            e.printStackTrace();
+            rtspClientListener.onRtspFailed(e.getMessage());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mSessionEngine != null) {
+            mSessionEngine.close();
+            mSessionEngine = null;
+        }
     }
 
     @Override
@@ -763,7 +763,16 @@ public class MediaCodecHelper {
             return false;
         }
 
-        // TODO: Test some AV1 decoders
+        // Same heuristics as HEVC: modern (performance class 12+) or low latency capable hardware
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && Build.VERSION.MEDIA_PERFORMANCE_CLASS >= Build.VERSION_CODES.S) {
+            Log.i(TAG, "Allowing AV1 based on media performance class");
+            return true;
+        }
+        if (decoderSupportsAndroidRLowLatency(decoderInfo, "video/av01")) {
+            Log.i(TAG, "Allowing AV1 based on FEATURE_LowLatency support");
+            return true;
+        }
+
         return false;
     }
 
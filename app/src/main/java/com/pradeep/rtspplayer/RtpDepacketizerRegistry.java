@@ -0,0 +1,328 @@
+package com.pradeep.rtspplayer;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pradeep.rtspplayer.parser.AacParser;
+import com.pradeep.rtspplayer.parser.AccessUnitAssembler;
+import com.pradeep.rtspplayer.parser.OpusParser;
+import com.pradeep.rtspplayer.parser.RtpAv1Parser;
+import com.pradeep.rtspplayer.parser.RtpDepacketizer;
+import com.pradeep.rtspplayer.parser.RtpH264Parser;
+import com.pradeep.rtspplayer.parser.RtpH265Parser;
+import com.pradeep.rtspplayer.parser.RtpHeaderParser;
+import com.pradeep.rtspplayer.parser.RtpJpegParser;
+import com.pradeep.rtspplayer.parser.RtpParser;
+import com.pradeep.rtspplayer.parser.RtpTimestampUnwrapper;
+import com.pradeep.rtspplayer.utils.G711Decoder;
+
+import java.util.HashMap;
+
+/**
+ * Depacketizer factories keyed by rtpmap encoding name (case-insensitive). The SDP parser only
+ * records the encoding of each track, RtspClient resolves the depacketizer of a track once
+ * after SETUP. Further payload formats can be added with {@link #register} before connecting.
+ */
+public final class RtpDepacketizerRegistry {
+
+    public interface Factory {
+        // Null if the encoding cannot be carried by this kind of track
+        @Nullable
+        RtpDepacketizer create(@NonNull RtspClient.Track track);
+
+        // Called from the SDP parser once the encoding of the track is known, e.g. to fix up the clock rate
+        default void configureTrack(@NonNull RtspClient.Track track) {
+        }
+    }
+
+    public static final String ENCODING_H264 = "h264";
+    public static final String ENCODING_H265 = "h265";
+    public static final String ENCODING_AV1 = "av1"; // Temporal units in low overhead bitstream format
+    public static final String ENCODING_JPEG = "jpeg"; // JFIF frames, one per access unit
+    public static final String ENCODING_AAC = "mpeg4-generic";
+    public static final String ENCODING_OPUS = "opus";
+    public static final String ENCODING_PCMU = "pcmu"; // G.711 is delivered decoded to 16-bit PCM
+    public static final String ENCODING_PCMA = "pcma";
+
+    private static final String TAG = RtpDepacketizerRegistry.class.getSimpleName();
+
+    private static final int G711_CLOCK_RATE_HZ = 8000;
+    // Streams without key frames are resumed after that many dropped temporal units, as RtpParser does with slices
+    private static final int MAX_SKIPPED_TEMPORAL_UNITS = 300;
+
+    private static final HashMap<String, Factory> factories = new HashMap<>();
+    // Static payload types (RFC 3551 6), usually announced without rtpmap
+    private static final String[] staticEncodings = new String[35];
+
+    static {
+        register(ENCODING_H264, track -> track instanceof RtspClient.VideoTrack ? new H26xDepacketizer((RtspClient.VideoTrack) track, false) : null);
+        register(ENCODING_H265, track -> track instanceof RtspClient.VideoTrack ? new H26xDepacketizer((RtspClient.VideoTrack) track, true) : null);
+        register(ENCODING_AV1, track -> track instanceof RtspClient.VideoTrack ? new Av1Depacketizer(track) : null);
+        register(ENCODING_JPEG, track -> track instanceof RtspClient.VideoTrack ? new JpegDepacketizer(track) : null);
+        register(ENCODING_AAC, track -> track instanceof RtspClient.AudioTrack ? new AacDepacketizer((RtspClient.AudioTrack) track) : null);
+        register(ENCODING_OPUS, new Factory() {
+            @Nullable
+            @Override
+            public RtpDepacketizer create(@NonNull RtspClient.Track track) {
+                return track instanceof RtspClient.AudioTrack ? new OpusDepacketizer() : null;
+            }
+
+            @Override
+            public void configureTrack(@NonNull RtspClient.Track track) {
+                // Always 48000/2 in SDP (RFC 7587 7), channels come from fmtp sprop-stereo
+                track.clockRateHz = OpusParser.CLOCK_RATE_HZ;
+            }
+        });
+        Factory g711Factory = new Factory() {
+            @Nullable
+            @Override
+            public RtpDepacketizer create(@NonNull RtspClient.Track track) {
+                return track instanceof RtspClient.AudioTrack ? new G711Depacketizer(track, ENCODING_PCMA.equals(track.encoding)) : null;
+            }
+
+            @Override
+            public void configureTrack(@NonNull RtspClient.Track track) {
+                track.clockRateHz = G711_CLOCK_RATE_HZ;
+                if (track instanceof RtspClient.AudioTrack audioTrack) {
+                    audioTrack.sampleRateHz = G711_CLOCK_RATE_HZ;
+                    if (audioTrack.channels == 0)
+                        audioTrack.channels = 1;
+                }
+            }
+        };
+        register(ENCODING_PCMU, g711Factory);
+        register(ENCODING_PCMA, g711Factory);
+
+        staticEncodings[0] = ENCODING_PCMU;
+        staticEncodings[8] = ENCODING_PCMA;
+        staticEncodings[26] = ENCODING_JPEG;
+    }
+
+    private RtpDepacketizerRegistry() {
+    }
+
+    // Replaces the built-in factory if the encoding is already registered
+    public static synchronized void register(@NonNull String encoding, @NonNull Factory factory) {
+        factories.put(encoding.toLowerCase(), factory);
+    }
+
+    @Nullable
+    public static synchronized Factory getFactory(@Nullable String encoding) {
+        return encoding != null ? factories.get(encoding.toLowerCase()) : null;
+    }
+
+    public static boolean isSupported(@Nullable String encoding) {
+        return getFactory(encoding) != null;
+    }
+
+    @Nullable
+    static String getStaticEncoding(int payloadType) {
+        return payloadType >= 0 && payloadType < staticEncodings.length ? staticEncodings[payloadType] : null;
+    }
+
+    @Nullable
+    static RtpDepacketizer create(@NonNull RtspClient.Track track) {
+        Factory factory = getFactory(track.encoding);
+        return factory != null ? factory.create(track) : null;
+    }
+
+    // H.264/H.265 NAL units grouped into access units, parameter sets inserted before key frames
+    private static final class H26xDepacketizer implements RtpDepacketizer, RtpParser.NalUnitListener, AccessUnitAssembler.AccessUnitListener {
+        private final @NonNull RtpParser parser;
+        private final @NonNull AccessUnitAssembler accessUnitAssembler;
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+        private Output output;
+
+        H26xDepacketizer(@NonNull RtspClient.VideoTrack videoTrack, boolean isH265) {
+            parser = isH265 ? new RtpH265Parser(videoTrack.maxDonDiff > 0) : new RtpH264Parser();
+            accessUnitAssembler = new AccessUnitAssembler(isH265, videoTrack.vps, videoTrack.sps, videoTrack.pps, this);
+            timestampUnwrapper = new RtpTimestampUnwrapper(videoTrack.clockRateHz);
+        }
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            this.output = output;
+            accessUnitAssembler.onRtpPacket(header.timeStamp, timestampUnwrapper.getPresentationTimeUs(header.timeStamp));
+            parser.processRtpPacket(data, offset, length, header.marker == 1, this);
+            if (header.marker == 1)
+                accessUnitAssembler.onMarker();
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+            parser.onPacketLoss(lostPackets);
+            accessUnitAssembler.discard();
+        }
+
+        @Override
+        public boolean isWaitingForKeyFrame() {
+            return parser.isWaitingForKeyFrame();
+        }
+
+        @Override
+        public void onNalUnit(@NonNull byte[] nalUnit, int nalOffset, int nalLength) {
+            accessUnitAssembler.addNalUnit(nalUnit, nalOffset, nalLength);
+        }
+
+        @Override
+        public void onAccessUnit(@NonNull byte[] data, int offset, int length, long timestampUs, int flags) {
+            output.onFrame(data, offset, length, timestampUs, flags);
+        }
+    }
+
+    private static final class Av1Depacketizer implements RtpDepacketizer, RtpAv1Parser.TemporalUnitListener {
+        private final @NonNull RtpAv1Parser parser = new RtpAv1Parser();
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+        private boolean waitingForKeyFrame = false;
+        private int skippedTemporalUnits = 0;
+        private Output output;
+
+        Av1Depacketizer(@NonNull RtspClient.Track track) {
+            timestampUnwrapper = new RtpTimestampUnwrapper(track.clockRateHz);
+        }
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            this.output = output;
+            parser.processRtpPacket(data, offset, length, header.timeStamp, header.marker == 1, this);
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+            parser.onPacketLoss();
+            if (!waitingForKeyFrame)
+                Log.i(TAG, lostPackets + " RTP packets lost. Waiting for AV1 key frame.");
+            waitingForKeyFrame = true;
+            skippedTemporalUnits = 0;
+        }
+
+        @Override
+        public boolean isWaitingForKeyFrame() {
+            return waitingForKeyFrame;
+        }
+
+        @Override
+        public void onTemporalUnit(@NonNull byte[] data, int offset, int length, long rtpTimestamp, int flags) {
+            // Unwrapped per temporal unit, a unit flushed by a lost marker still gets its own time
+            long timestampUs = timestampUnwrapper.getPresentationTimeUs(rtpTimestamp);
+            // Inter frames reference pictures the decoder missed, only a new coded video sequence resyncs
+            if (waitingForKeyFrame) {
+                if ((flags & AccessUnitAssembler.FLAG_KEY_FRAME) != 0) {
+                    Log.i(TAG, "Resynchronized on AV1 key frame after " + skippedTemporalUnits + " dropped temporal units");
+                } else if (++skippedTemporalUnits >= MAX_SKIPPED_TEMPORAL_UNITS) {
+                    Log.w(TAG, "No AV1 key frame after " + skippedTemporalUnits + " temporal units. Resuming.");
+                } else {
+                    return;
+                }
+                waitingForKeyFrame = false;
+            }
+            output.onFrame(data, offset, length, timestampUs, flags);
+        }
+    }
+
+    // Every JPEG frame is a key frame
+    private static final class JpegDepacketizer implements RtpDepacketizer, RtpJpegParser.JpegFrameListener {
+        private final @NonNull RtpJpegParser parser = new RtpJpegParser();
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+        private long timestampUs;
+        private Output output;
+
+        JpegDepacketizer(@NonNull RtspClient.Track track) {
+            timestampUnwrapper = new RtpTimestampUnwrapper(track.clockRateHz);
+        }
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            this.output = output;
+            timestampUs = timestampUnwrapper.getPresentationTimeUs(header.timeStamp);
+            parser.processRtpPacket(data, offset, length, header.marker == 1, this);
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+            parser.onPacketLoss();
+        }
+
+        @Override
+        public void onJpegFrame(@NonNull byte[] data, int offset, int length) {
+            output.onFrame(data, offset, length, timestampUs, AccessUnitAssembler.FLAG_KEY_FRAME);
+        }
+    }
+
+    private static final class AacDepacketizer implements RtpDepacketizer, AacParser.AacFrameListener {
+        private final @NonNull AacParser parser;
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+        private final long frameDurationUs;
+        private long timestampUs;
+        private Output output;
+
+        AacDepacketizer(@NonNull RtspClient.AudioTrack audioTrack) {
+            parser = new AacParser(audioTrack.mode, audioTrack.sizeLength, audioTrack.indexLength, audioTrack.indexDeltaLength);
+            timestampUnwrapper = new RtpTimestampUnwrapper(audioTrack.clockRateHz);
+            frameDurationUs = audioTrack.clockRateHz > 0 ? AacParser.SAMPLES_PER_FRAME * 1000000L / audioTrack.clockRateHz : 0;
+        }
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            this.output = output;
+            timestampUs = timestampUnwrapper.getPresentationTimeUs(header.timeStamp);
+            parser.processRtpPacket(data, offset, length, header.marker == 1, this);
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+            parser.onPacketLoss();
+        }
+
+        @Override
+        public void onAacFrame(@NonNull byte[] data, int offset, int length, int index) {
+            output.onFrame(data, offset, length, timestampUs + index * frameDurationUs, 0);
+        }
+    }
+
+    private static final class OpusDepacketizer implements RtpDepacketizer, OpusParser.OpusPacketListener {
+        private final @NonNull OpusParser parser = new OpusParser();
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper = new RtpTimestampUnwrapper(OpusParser.CLOCK_RATE_HZ);
+        private long timestampUs;
+        private Output output;
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            this.output = output;
+            timestampUs = timestampUnwrapper.getPresentationTimeUs(header.timeStamp);
+            parser.processRtpPacket(data, offset, length, this);
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+        }
+
+        @Override
+        public void onOpusPacket(@NonNull byte[] data, int offset, int length, int samples) {
+            output.onFrame(data, offset, length, timestampUs, 0);
+        }
+    }
+
+    // One byte per sample, decoded to 16-bit little-endian PCM in a buffer of the track
+    private static final class G711Depacketizer implements RtpDepacketizer {
+        private final @NonNull G711Decoder decoder;
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+
+        G711Depacketizer(@NonNull RtspClient.Track track, boolean aLaw) {
+            decoder = new G711Decoder(aLaw);
+            timestampUnwrapper = new RtpTimestampUnwrapper(track.clockRateHz);
+        }
+
+        @Override
+        public void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output) {
+            if (length > 0)
+                output.onFrame(decoder.decodeToPcm16(data, offset, length), 0, length * 2, timestampUnwrapper.getPresentationTimeUs(header.timeStamp), 0);
+        }
+
+        @Override
+        public void onPacketLoss(int lostPackets) {
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.pradeep.rtspplayer;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Receives RTP/RTCP datagrams of all UDP (unicast or multicast) tracks of a session on a single thread.
+ * <p>
+ * Every wakeup drains up to {@link #MAX_DATAGRAMS_PER_READ} queued datagrams per channel into
+ * one reusable buffer and hands them to the channel handler in place.
+ */
+class RtpUdpReceiver implements Closeable {
+
+    private static final String TAG = RtpUdpReceiver.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_DATAGRAM_SIZE = 65536;
+    private static final int MAX_DATAGRAMS_PER_READ = 64;
+    private static final int SOCKET_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_PORT_PAIR_ATTEMPTS = 20;
+
+    private final @NonNull Selector selector;
+    private final @NonNull ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private final @NonNull ArrayList<DatagramChannel> channels = new ArrayList<>();
+    private final @NonNull HashMap<DatagramChannel, MembershipKey> memberships = new HashMap<>();
+
+    RtpUdpReceiver() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Opens RTP and RTCP channels bound to an even port and the following odd port (RFC 3550 11).
+     * @return RTP channel at index 0, RTCP channel at index 1
+     */
+    @NonNull
+    DatagramChannel[] openPortPair() throws IOException {
+        for (int i = 0; i < MAX_PORT_PAIR_ATTEMPTS; i++) {
+            DatagramChannel rtpChannel = openChannel();
+            DatagramChannel rtcpChannel = null;
+            try {
+                rtpChannel.bind(new InetSocketAddress(0));
+                int port = rtpChannel.socket().getLocalPort();
+                if (port % 2 == 0 && port < 0xFFFF) {
+                    rtcpChannel = openChannel();
+                    rtcpChannel.bind(new InetSocketAddress(port + 1));
+                    return new DatagramChannel[] { rtpChannel, rtcpChannel };
+                }
+            } catch (IOException e) {
+                if (DEBUG)
+                    Log.d(TAG, "Failed to bind RTP/RTCP port pair (" + e.getMessage() + ")");
+            }
+            closeChannel(rtpChannel);
+            closeChannel(rtcpChannel);
+        }
+        throw new IOException("Failed to allocate UDP ports for RTP/RTCP");
+    }
+
+    /**
+     * Opens RTP and RTCP channels on the multicast ports announced by the server and joins the group
+     * on both. Every viewer receives the same stream, so the camera sends it only once.
+     * @param source source address for source-specific multicast, or null for any source
+     * @return RTP channel at index 0, RTCP channel at index 1
+     */
+    @NonNull
+    DatagramChannel[] openMulticastPair(
+            @NonNull InetAddress group,
+            int rtpPort,
+            int rtcpPort,
+            @NonNull NetworkInterface networkInterface,
+            @Nullable InetAddress source)
+            throws IOException {
+        ProtocolFamily family = group instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+        DatagramChannel[] pair = new DatagramChannel[2];
+        int[] ports = { rtpPort, rtcpPort };
+        for (int i = 0; i < pair.length; i++) {
+            DatagramChannel channel = DatagramChannel.open(family);
+            channels.add(channel);
+            channel.socket().setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_SIZE);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(ports[i]));
+            memberships.put(channel, source != null
+                    ? channel.join(group, networkInterface, source)
+                    : channel.join(group, networkInterface));
+            pair[i] = channel;
+        }
+        if (DEBUG)
+            Log.d(TAG, "Joined multicast group " + group + " ports " + rtpPort + "-" + rtcpPort + " on " + networkInterface.getName());
+        return pair;
+    }
+
+    @NonNull
+    private DatagramChannel openChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channels.add(channel);
+        channel.socket().setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_SIZE);
+        return channel;
+    }
+
+    void register(@NonNull DatagramChannel channel, @NonNull RtspClient.MediaChannelHandler handler) throws IOException {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, handler);
+    }
+
+    /**
+     * @return true if no channel is registered, e.g. when every track fell back to TCP
+     */
+    boolean isEmpty() {
+        return selector.keys().isEmpty();
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} for datagrams and dispatches all of them.
+     * @param timeoutMs 0 to only dispatch datagrams already queued
+     * @return number of datagrams dispatched
+     */
+    int receive(long timeoutMs) throws IOException {
+        int ready = timeoutMs > 0 ? selector.select(timeoutMs) : selector.selectNow();
+        if (ready == 0)
+            return 0;
+        int datagrams = 0;
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            DatagramChannel channel = (DatagramChannel) key.channel();
+            RtspClient.MediaChannelHandler handler = (RtspClient.MediaChannelHandler) key.attachment();
+            for (int i = 0; i < MAX_DATAGRAMS_PER_READ; i++) {
+                buffer.clear();
+                if (channel.receive(buffer) == null)
+                    break;
+                handler.onPacket(buffer.array(), 0, buffer.position());
+                datagrams++;
+            }
+        }
+        return datagrams;
+    }
+
+    /**
+     * Sends a datagram to the server the channel is connected to, or to the group of a multicast
+     * channel (e.g. RTCP receiver reports).
+     */
+    void send(@NonNull DatagramChannel channel, @NonNull byte[] data, int offset, int length) throws IOException {
+        ByteBuffer datagram = ByteBuffer.wrap(data, offset, length);
+        if (channel.isConnected()) {
+            channel.write(datagram);
+            return;
+        }
+        MembershipKey membership = memberships.get(channel);
+        if (membership != null)
+            channel.send(datagram, new InetSocketAddress(membership.group(), channel.socket().getLocalPort()));
+    }
+
+    void closeChannel(DatagramChannel channel) {
+        if (channel == null)
+            return;
+        channels.remove(channel);
+        memberships.remove(channel);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        channels.clear();
+        memberships.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
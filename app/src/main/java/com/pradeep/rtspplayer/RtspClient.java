@@ -8,25 +8,32 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.pradeep.rtspplayer.parser.AacParser;
-import com.pradeep.rtspplayer.parser.RtpH264Parser;
-import com.pradeep.rtspplayer.parser.RtpH265Parser;
+import com.pradeep.rtspplayer.parser.OnvifMetadataParser;
+import com.pradeep.rtspplayer.parser.RtcpSession;
+import com.pradeep.rtspplayer.parser.RtpDepacketizer;
 import com.pradeep.rtspplayer.parser.RtpHeaderParser;
-import com.pradeep.rtspplayer.parser.RtpParser;
-import com.pradeep.rtspplayer.utils.NetUtils;
-import com.pradeep.rtspplayer.utils.VideoCodecUtils;
+import com.pradeep.rtspplayer.parser.RtpInterleavedDemuxer;
+import com.pradeep.rtspplayer.parser.RtpJitterBuffer;
+import com.pradeep.rtspplayer.parser.RtspResponse;
+import com.pradeep.rtspplayer.parser.RtpTimestampUnwrapper;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Serial;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 public class RtspClient {
@@ -34,7 +41,6 @@ public class RtspClient {
     private static final String TAG = "RtspClient";
     static final String TAG_DEBUG = TAG + " DBG";
     private static final boolean DEBUG = true;
-    private static final byte[] EMPTY_ARRAY = new byte[0];
 
     public final static int RTSP_CAPABILITY_NONE          = 0;
     public final static int RTSP_CAPABILITY_OPTIONS       = 1 << 1;
@@ -53,18 +59,30 @@ public class RtspClient {
         return (capabilitiesMask & capability) != 0;
     }
 
+    // Timestamps are presentation times in microseconds derived from the track RTP clock rate.
     public interface RtspClientListener {
         void onRtspConnecting();
         void onRtspConnected(@NonNull SdpInfo sdpInfo);
-        void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestamp);
-        void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestamp);
-        void onRtspApplicationDataReceived(@NonNull byte[] data, int offset, int length, long timestamp);
+        // Media data may point into reused buffers and is only valid during the call.
+        // Video data is a complete access unit, flags are AccessUnitAssembler.FLAG_*.
+        // G.711 audio is decoded to 16-bit little-endian PCM, other audio is passed encoded.
+        void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestampUs, int flags);
+        void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestampUs);
+        void onRtspApplicationDataReceived(@NonNull byte[] data, int offset, int length, long timestampUs);
         void onRtspDisconnecting();
         void onRtspDisconnected();
         void onRtspFailedUnauthorized();
         void onRtspFailed(@Nullable String message);
     }
 
+    public interface RtspClientRtcpListener {
+        // Server wall clock of the track's RTP timestamps, see SourceStats.getWallClockTimeMs()
+        void onRtcpSenderReport(@NonNull Track track, @NonNull RtcpSession.SourceStats source);
+        // Reception statistics (loss, jitter), every time a receiver report is sent
+        void onRtcpReceiverReport(@NonNull Track track, @NonNull RtcpSession.SourceStats source);
+        void onRtcpBye(@NonNull Track track, @NonNull RtcpSession.SourceStats source);
+    }
+
     private interface RtspClientKeepAliveListener {
         void onRtspKeepAliveRequested();
     }
@@ -77,9 +95,15 @@ public class RtspClient {
         public @Nullable ApplicationTrack applicationTrack;
     }
 
+    private static final int DEFAULT_CLOCK_RATE_HZ = 90000;
+
     public abstract static class Track {
         public String request;
         public int payloadType;
+        public @Nullable String encoding; // rtpmap encoding name in lower case, see RtpDepacketizerRegistry
+        public int clockRateHz = DEFAULT_CLOCK_RATE_HZ; // rtpmap clock rate
+        public int rtpChannel = -1;  // interleaved channel negotiated in SETUP
+        public int rtcpChannel = -1;
 
         @NonNull
         @Override
@@ -88,19 +112,20 @@ public class RtspClient {
         }
     }
 
-    public static final int VIDEO_CODEC_H264 = 0;
-    public static final int VIDEO_CODEC_H265 = 1;
-
     public static class VideoTrack extends Track {
-        public int videoCodec = VIDEO_CODEC_H264;
         public @Nullable byte[] sps; // Both H.264 and H.265
         public @Nullable byte[] pps; // Both H.264 and H.265
         public @Nullable byte[] vps; // H.265 only
+        public int maxDonDiff = 0; // H.265 only, DONL fields are present if > 0
+
+        public VideoTrack() {
+            encoding = RtpDepacketizerRegistry.ENCODING_H264; // if rtpmap is missing
+        }
 
         @Override
         public String toString() {
             return "VideoTrack{" +
-                    "videoCodec=" + videoCodec +
+                    "encoding=" + encoding +
                     ", sps=" + Arrays.toString(sps) +
                     ", pps=" + Arrays.toString(pps) +
                     ", vps=" + Arrays.toString(vps) +
@@ -108,52 +133,87 @@ public class RtspClient {
         }
     }
 
-    public static final int AUDIO_CODEC_UNKNOWN = -1;
-    public static final int AUDIO_CODEC_AAC = 0;
-    public static final int AUDIO_CODEC_OPUS = 1;
-
     public static class AudioTrack extends Track {
-        public int audioCodec = AUDIO_CODEC_UNKNOWN;
         public int sampleRateHz; // 16000, 8000
         public int channels; // 1 - mono, 2 - stereo
         public String mode; // AAC-lbr, AAC-hbr
+        public int sizeLength; // AU header field sizes in bits, 0 if not announced
+        public int indexLength;
+        public int indexDeltaLength;
         public @Nullable byte[] config; // config=1210fff15081ffdffc
     }
 
     public static class ApplicationTrack extends Track {
     }
 
-    private static final String CRLF = "\r\n";
-    private final static int MAX_LINE_SIZE = 4098;
+    // Time spent in each phase of the last handshake, from sending the request to reading its response
+    public static class HandshakeTimings {
+        public boolean fastStart;
+        public long optionsMs = -1; // -1 if skipped with cached capabilities
+        public long describeMs;
+        public long setupMs;
+        public long playMs; // Only the wait after the last SETUP response in fast start mode
+        public long totalMs;
 
-    private static class UnauthorizedException extends IOException {
-        UnauthorizedException() {
-            super("Unauthorized");
+        @NonNull
+        @Override
+        public String toString() {
+            return "HandshakeTimings{fastStart=" + fastStart + ", optionsMs=" + optionsMs + ", describeMs=" + describeMs +
+                    ", setupMs=" + setupMs + ", playMs=" + playMs + ", totalMs=" + totalMs + '}';
         }
     }
 
-    private final static class NoResponseHeadersException extends IOException {
-        @Serial
-        private static final long serialVersionUID = 1L;
+    public static final int TRANSPORT_TCP = 0;
+    public static final int TRANSPORT_UDP = 1;
+    public static final int TRANSPORT_UDP_MULTICAST = 2;
+
+    static final int DEFAULT_SESSION_TIMEOUT = 60; // sec, RFC 2326 12.37
+    private static final int INTERLEAVED_HEADER_SIZE = 4; // '$' + channel + 16-bit length
+    private static final int UDP_RECEIVE_TIMEOUT_MS = 100;
+    // RTSP read timeouts while media arrives over UDP. The connection is still read every loop,
+    // so keep-alive responses and tracks which fell back to TCP get through and a close is seen.
+    private static final int RTSP_POLL_TIMEOUT_MS = 1;
+    private static final int MIXED_TRANSPORT_POLL_INTERVAL_MS = 10;
+    // Interval in which jitter buffers release packets held behind a gap when no data arrives
+    private static final int JITTER_BUFFER_DRAIN_INTERVAL_MS = 100;
+
+    static class UnauthorizedException extends IOException {
+        UnauthorizedException() {
+            super("Unauthorized");
+        }
     }
 
-    private final @NonNull Socket rtspSocket;
-    private @NonNull String uriRtsp;
-    private final @NonNull RtspClientListener listener;
-    private final boolean requestVideo;
-    private final boolean requestAudio;
-    private final boolean requestApplication;
-    private final boolean debug;
-    private final @Nullable String username;
-    private final @Nullable String password;
-    private final @Nullable String userAgent;
-
-    private static boolean mCloseConnect = false;
+    // Null for clients driven by RtspSessionEngine
+    private final @Nullable Socket rtspSocket;
+    @NonNull String uriRtsp;
+    final @NonNull RtspClientListener listener;
+    final @Nullable RtspClientRtcpListener rtcpListener;
+    final @Nullable OnvifMetadataParser.MetadataListener metadataListener;
+    final boolean requestVideo;
+    final boolean requestAudio;
+    final boolean requestApplication;
+    final boolean debug;
+    final @Nullable String username;
+    final @Nullable String password;
+    final @Nullable String userAgent;
+    final int jitterBufferLatencyMs;
+    private final int transport;
+    private final boolean fastStart;
+
+    // Methods supported by servers from earlier OPTIONS responses, by URI. Lets fast start skip OPTIONS.
+    private static final HashMap<String, Integer> capabilitiesCache = new HashMap<>();
+
+    private volatile boolean closeRequested = false;
+    private volatile @Nullable HandshakeTimings handshakeTimings;
+    private final @NonNull RtspRequestWriter requestWriter;
+    private int cSeq = 0;
 
     private RtspClient(@NonNull Builder builder) {
         rtspSocket = builder.rtspSocket;
         uriRtsp = builder.uriRtsp;
         listener = builder.listener;
+        rtcpListener = builder.rtcpListener;
+        metadataListener = builder.metadataListener;
         requestVideo = builder.requestVideo;
         requestAudio = builder.requestAudio;
         requestApplication = builder.requestApplication;
@@ -161,59 +221,81 @@ public class RtspClient {
         password = builder.password;
         debug = builder.debug;
         userAgent = builder.userAgent;
-        mCloseConnect = false;
+        jitterBufferLatencyMs = builder.jitterBufferLatencyMs;
+        transport = builder.transport;
+        fastStart = builder.fastStart;
+        requestWriter = new RtspRequestWriter(userAgent);
     }
 
     public void execute() {
         Log.v(TAG, "execute()");
+        if (rtspSocket == null) {
+            listener.onRtspFailed("No RTSP socket. Clients built without one run in RtspSessionEngine.");
+            return;
+        }
         listener.onRtspConnecting();
         Log.v(TAG, "1execute()");
+        RtpUdpReceiver udpReceiver = null;
+        DatagramChannel[][] udpChannels = new DatagramChannel[3][];
         try {
             final InputStream inputStream = rtspSocket.getInputStream();
             final OutputStream outputStream = debug ? new LoggerOutputStream(rtspSocket.getOutputStream()) : new BufferedOutputStream(rtspSocket.getOutputStream());
 
             Log.v(TAG, "2execute()");
             SdpInfo sdpInfo = new SdpInfo();
-            ArrayList<Pair<String, String>> headers;
+            final RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(inputStream);
+            final RtspResponse response = new RtspResponse();
             int status;
 
             Log.v(TAG, "3execute()");
             String authToken = null;
             Pair<String, String> digestRealmNonce = null;
             Log.v(TAG, "5execute()");
-            sendOptionsCommand(outputStream, uriRtsp, 0, userAgent, null);
-            status = readResponseStatusCode(inputStream);
-            headers = readResponseHeaders(inputStream);
-            dumpHeaders(headers);
-            Log.v(TAG, "execute()"+status);
-            if (status == 401) {
-                digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(headers);
-                if (digestRealmNonce == null) {
-                    String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
-                    if (TextUtils.isEmpty(basicRealm)) {
-                        throw new IOException("Unknown authentication type");
+            HandshakeTimings timings = new HandshakeTimings();
+            timings.fastStart = fastStart;
+            final long handshakeStartMs = System.currentTimeMillis();
+            long phaseStartMs = handshakeStartMs;
+            Integer cachedCapabilities = fastStart ? getCachedCapabilities(uriRtsp) : null;
+            final int capabilities;
+            if (cachedCapabilities != null) {
+                Log.i(TAG, "OPTIONS skipped, using cached capabilities");
+                capabilities = cachedCapabilities;
+            } else {
+                requestWriter.options(uriRtsp, nextCSeq(), null);
+                requestWriter.send(outputStream);
+                status = readResponse(demuxer, response);
+                Log.v(TAG, "execute()"+status);
+                if (status == 401) {
+                    digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(response);
+                    if (digestRealmNonce == null) {
+                        String basicRealm = getHeaderWwwAuthenticateBasicRealm(response);
+                        if (TextUtils.isEmpty(basicRealm)) {
+                            throw new IOException("Unknown authentication type");
+                        }
+                        authToken = getBasicAuthHeader(username, password);
+                    } else {
+                        // Digest auth
+                        authToken = getDigestAuthHeader(username, password, "OPTIONS", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
                     }
-                    authToken = getBasicAuthHeader(username, password);
-                } else {
-                    // Digest auth
-                    authToken = getDigestAuthHeader(username, password, "OPTIONS", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
+                    requestWriter.options(uriRtsp, nextCSeq(), authToken);
+                    requestWriter.send(outputStream);
+                    status = readResponse(demuxer, response);
                 }
-                sendOptionsCommand(outputStream, uriRtsp, 1, userAgent, authToken);
-                status = readResponseStatusCode(inputStream);
-                headers = readResponseHeaders(inputStream);
-                dumpHeaders(headers);
+                Log.i(TAG, "OPTIONS status: " + status);
+                checkStatusCode(status);
+                capabilities = getSupportedCapabilities(response);
+                putCachedCapabilities(uriRtsp, capabilities);
+                long nowMs = System.currentTimeMillis();
+                timings.optionsMs = nowMs - phaseStartMs;
+                phaseStartMs = nowMs;
             }
-            Log.i(TAG, "OPTIONS status: " + status);
-            checkStatusCode(status);
-            final int capabilities = getSupportedCapabilities(headers);
-            sendDescribeCommand(outputStream, uriRtsp, 2, userAgent, authToken);
-            status = readResponseStatusCode(inputStream);
-            headers = readResponseHeaders(inputStream);
-            dumpHeaders(headers);
+            requestWriter.describe(uriRtsp, nextCSeq(), authToken);
+            requestWriter.send(outputStream);
+            status = readResponse(demuxer, response);
             if (status == 401) {
-                digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(headers);
+                digestRealmNonce = getHeaderWwwAuthenticateDigestRealmAndNonce(response);
                 if (digestRealmNonce == null) {
-                    String basicRealm = getHeaderWwwAuthenticateBasicRealm(headers);
+                    String basicRealm = getHeaderWwwAuthenticateBasicRealm(response);
                     if (TextUtils.isEmpty(basicRealm)) {
                         throw new IOException("Unknown authentication type");
                     }
@@ -224,40 +306,26 @@ public class RtspClient {
                     authToken = getDigestAuthHeader(username, password, "DESCRIBE", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
                 }
                 //(exitFlag);
-                sendDescribeCommand(outputStream, uriRtsp, 3, userAgent, authToken);
-                status = readResponseStatusCode(inputStream);
-                headers = readResponseHeaders(inputStream);
-                dumpHeaders(headers);
+                requestWriter.describe(uriRtsp, nextCSeq(), authToken);
+                requestWriter.send(outputStream);
+                status = readResponse(demuxer, response);
             }
             checkStatusCode(status);
-            String contentBaseUri = getHeaderContentBase(headers);
+            String contentBaseUri = getHeaderContentBase(response);
             if (contentBaseUri != null) {
                 uriRtsp = contentBaseUri;
             }
-            int contentLength = getHeaderContentLength(headers);
-            if (contentLength > 0) {
-                String content = readContentAsText(inputStream, contentLength);
-                if (debug)
-                    Log.i(TAG_DEBUG, "" + content);
-                try {
-                    List<Pair<String, String>> params = getDescribeParams(content);
-                    sdpInfo = getSdpInfoFromDescribeParams(params);
-                    if (!requestVideo)
-                        sdpInfo.videoTrack = null;
-                    if (!requestAudio)
-                        sdpInfo.audioTrack = null;
-                    if (!requestApplication)
-                        sdpInfo.applicationTrack = null;
-                    if (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_UNKNOWN) {
-                        Log.e(TAG_DEBUG, "Unknown RTSP audio codec (" + sdpInfo.audioTrack.audioCodec + ") specified in SDP");
-                        sdpInfo.audioTrack = null;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            if (!response.getContent().isEmpty())
+                sdpInfo = getRequestedSdpInfo(response.getContent());
+            long nowMs = System.currentTimeMillis();
+            timings.describeMs = nowMs - phaseStartMs;
+            phaseStartMs = nowMs;
             String session = null;
-            int sessionTimeout = 0;
+            int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+            // Fast start: tracks after the first one are set up in one batch together with PLAY
+            Track[] pipelinedTracks = new Track[3];
+            String[] pipelinedSetupUris = new String[3];
+            boolean pipelined = false;
             for (int i = 0; i < 3; i++) {
                 //(exitFlag);
                 Track track;
@@ -280,49 +348,88 @@ public class RtspClient {
                                 uriRtspSetup,
                                 digestRealmNonce.first,
                                 digestRealmNonce.second);
-                    sendSetupCommand(
-                            outputStream,
-                            uriRtspSetup,
-                            4,
-                            userAgent,
-                            authToken,
-                            session,
-                            (i == 0 ? "0-1" /*video*/ : "2-3" /*audio*/));
-                    status = readResponseStatusCode(inputStream);
-                    checkStatusCode(status);
-                    headers = readResponseHeaders(inputStream);
-                    dumpHeaders(headers);
-                    session = getHeader(headers, "Session");
-                    if (!TextUtils.isEmpty(session)) {
-                        String[] params = TextUtils.split(session, ";");
-                        session = params[0];
-                        if (params.length > 1) {
-                            params = TextUtils.split(params[1], "=");
-                            if (params.length > 1) {
-                                try {
-                                    sessionTimeout = Integer.parseInt(params[1]);
-                                } catch (NumberFormatException e) {
-                                    Log.e(TAG, "Failed to parse RTSP session timeout");
-                                }
+                    track.rtpChannel = i * 2;
+                    track.rtcpChannel = i * 2 + 1;
+                    if (fastStart && transport == TRANSPORT_TCP && !TextUtils.isEmpty(session)) {
+                        pipelinedTracks[i] = track;
+                        pipelinedSetupUris[i] = uriRtspSetup;
+                        pipelined = true;
+                        continue;
+                    }
+                    int trackTransport = transport;
+                    if (trackTransport != TRANSPORT_TCP) {
+                        if (udpReceiver == null)
+                            udpReceiver = new RtpUdpReceiver();
+                        String transportRequest;
+                        if (trackTransport == TRANSPORT_UDP) {
+                            udpChannels[i] = udpReceiver.openPortPair();
+                            int clientPort = udpChannels[i][0].socket().getLocalPort();
+                            transportRequest = "RTP/AVP;unicast;client_port=" + clientPort + "-" + (clientPort + 1);
+                        } else {
+                            transportRequest = "RTP/AVP;multicast";
+                        }
+                        requestWriter.setup(uriRtspSetup, nextCSeq(), authToken, transportRequest);
+                        requestWriter.send(outputStream);
+                        status = readResponse(demuxer, response);
+                        if (status != 200 && status != 401) {
+                            // E.g. 461 Unsupported Transport. Use interleaved TCP for this track.
+                            Log.w(TAG, "\"" + transportRequest + "\" SETUP failed with status " + status + ". Falling back to TCP.");
+                            if (udpChannels[i] != null) {
+                                udpReceiver.closeChannel(udpChannels[i][0]);
+                                udpReceiver.closeChannel(udpChannels[i][1]);
+                                udpChannels[i] = null;
                             }
+                            trackTransport = TRANSPORT_TCP;
                         }
                     }
+                    if (trackTransport == TRANSPORT_TCP) {
+                        requestWriter.setup(
+                                uriRtspSetup,
+                                nextCSeq(),
+                                authToken,
+                                "RTP/AVP/TCP;unicast;interleaved=" + track.rtpChannel + "-" + track.rtcpChannel);
+                        requestWriter.send(outputStream);
+                        status = readResponse(demuxer, response);
+                    }
+                    checkStatusCode(status);
+                    if (trackTransport == TRANSPORT_UDP)
+                        connectUdpChannelsFromTransport(udpChannels[i], rtspSocket, response.getHeader("Transport"));
+                    else if (trackTransport == TRANSPORT_UDP_MULTICAST)
+                        udpChannels[i] = joinMulticastGroupFromTransport(udpReceiver, rtspSocket, response.getHeader("Transport"));
+                    else
+                        updateTrackChannelsFromTransport(track, response.getHeader("Transport"));
+                    session = getHeaderSession(response);
+                    sessionTimeout = getHeaderSessionTimeout(response, sessionTimeout);
                     if (TextUtils.isEmpty(session))
                         throw new IOException("Failed to get RTSP session");
+                    requestWriter.setSession(session);
                 }
             }
 
             if (TextUtils.isEmpty(session))
                 throw new IOException("Failed to get any media track");
             //(exitFlag);
-            if (digestRealmNonce != null)
-                authToken = getDigestAuthHeader(username, password, "PLAY", uriRtsp /*?*/, digestRealmNonce.first, digestRealmNonce.second);
-            sendPlayCommand(outputStream, uriRtsp, 5, userAgent, authToken, session);
-            status = readResponseStatusCode(inputStream);
-            Log.i(TAG, "PLAY status: " + status);
-            checkStatusCode(status);
-            headers = readResponseHeaders(inputStream);
-            dumpHeaders(headers);
+            if (pipelined) {
+                status = sendPipelinedSetupAndPlay(demuxer, outputStream, pipelinedTracks, pipelinedSetupUris, authToken, digestRealmNonce, timings, phaseStartMs);
+                Log.i(TAG, "PLAY status: " + status);
+                checkStatusCode(status);
+                timings.playMs = System.currentTimeMillis() - phaseStartMs - timings.setupMs;
+            } else {
+                nowMs = System.currentTimeMillis();
+                timings.setupMs = nowMs - phaseStartMs;
+                phaseStartMs = nowMs;
+                if (digestRealmNonce != null)
+                    authToken = getDigestAuthHeader(username, password, "PLAY", uriRtsp /*?*/, digestRealmNonce.first, digestRealmNonce.second);
+                requestWriter.play(uriRtsp, nextCSeq(), authToken);
+                requestWriter.send(outputStream);
+                status = readResponse(demuxer, response);
+                Log.i(TAG, "PLAY status: " + status);
+                checkStatusCode(status);
+                timings.playMs = System.currentTimeMillis() - phaseStartMs;
+            }
+            timings.totalMs = System.currentTimeMillis() - handshakeStartMs;
+            handshakeTimings = timings;
+            Log.i(TAG, "Handshake: " + timings);
 
             listener.onRtspConnected(sdpInfo);
 
@@ -330,15 +437,15 @@ public class RtspClient {
                 if (digestRealmNonce != null)
                     authToken = getDigestAuthHeader(username, password, hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities) ? "GET_PARAMETER" : "OPTIONS", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
                 final String authTokenFinal = authToken;
-                final String sessionFinal = session;
                 RtspClientKeepAliveListener keepAliveListener = () -> {
                     try {
 
                         Log.e(TAG,"this.................get paramater");
                         if (hasCapability(RTSP_CAPABILITY_GET_PARAMETER, capabilities))
-                            sendGetParameterCommand(outputStream, uriRtsp, 6, userAgent, sessionFinal, authTokenFinal);
+                            requestWriter.getParameter(uriRtsp, nextCSeq(), authTokenFinal);
                         else
-                            sendOptionsCommand(outputStream, uriRtsp, 7, userAgent, authTokenFinal);
+                            requestWriter.options(uriRtsp, nextCSeq(), authTokenFinal, true);
+                        requestWriter.send(outputStream);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -347,16 +454,22 @@ public class RtspClient {
 
                     Log.e(TAG,"this.................");
                     readRtpData(
-                            inputStream,
+                            demuxer,
+                            outputStream,
                             sdpInfo,
                             listener,
+                            rtcpListener,
                             sessionTimeout / 2 * 1000,
-                            keepAliveListener);
+                            jitterBufferLatencyMs,
+                            keepAliveListener,
+                            udpReceiver,
+                            udpChannels);
                 } finally {
                     if (hasCapability(RTSP_CAPABILITY_TEARDOWN, capabilities)) {
                         if (digestRealmNonce != null)
                             authToken = getDigestAuthHeader(username, password, "TEARDOWN", uriRtsp, digestRealmNonce.first, digestRealmNonce.second);
-                        sendTeardownCommand(outputStream, uriRtsp, 7, userAgent, authToken, sessionFinal);
+                        requestWriter.teardown(uriRtsp, nextCSeq(), authToken);
+                        requestWriter.send(outputStream);
                     }
                 }
 
@@ -373,6 +486,8 @@ public class RtspClient {
             e.printStackTrace();
             listener.onRtspFailed(e.getMessage());
         }
+        if (udpReceiver != null)
+            udpReceiver.close();
         try {
             rtspSocket.close();
         } catch (IOException e) {
@@ -381,7 +496,9 @@ public class RtspClient {
     }
 
     public void closeSocketConnect() {
-        mCloseConnect = true;
+        closeRequested = true;
+        if (rtspSocket == null)
+            return;
         try {
             rtspSocket.close();
         } catch (IOException e) {
@@ -389,8 +506,144 @@ public class RtspClient {
         }
     }
 
+    boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    // Available from onRtspConnected() on
+    @Nullable
+    public HandshakeTimings getHandshakeTimings() {
+        return handshakeTimings;
+    }
+
+    private int nextCSeq() {
+        return ++cSeq;
+    }
+
+    @Nullable
+    private static Integer getCachedCapabilities(@NonNull String uri) {
+        synchronized (capabilitiesCache) {
+            return capabilitiesCache.get(uri);
+        }
+    }
+
+    private static void putCachedCapabilities(@NonNull String uri, int capabilities) {
+        synchronized (capabilitiesCache) {
+            capabilitiesCache.put(uri, capabilities);
+        }
+    }
+
+    // Sends SETUP of the remaining tracks and PLAY in one write without waiting for responses,
+    // then reads the responses matching them by CSeq. Returns the PLAY status code.
+    private int sendPipelinedSetupAndPlay(
+            @NonNull RtpInterleavedDemuxer demuxer,
+            @NonNull OutputStream outputStream,
+            @NonNull Track[] tracks,
+            @NonNull String[] setupUris,
+            @Nullable String authToken,
+            @Nullable Pair<String, String> digestRealmNonce,
+            @NonNull HandshakeTimings timings,
+            long setupStartMs)
+            throws IOException {
+        int[] setupCSeqs = new int[tracks.length];
+        int pendingSetups = 0;
+        for (int i = 0; i < tracks.length; i++) {
+            Track track = tracks[i];
+            if (track == null)
+                continue;
+            setupCSeqs[i] = nextCSeq();
+            requestWriter.setup(
+                    setupUris[i],
+                    setupCSeqs[i],
+                    digestRealmNonce != null ? getDigestAuthHeader(username, password, "SETUP", setupUris[i], digestRealmNonce.first, digestRealmNonce.second) : authToken,
+                    "RTP/AVP/TCP;unicast;interleaved=" + track.rtpChannel + "-" + track.rtcpChannel);
+            pendingSetups++;
+        }
+        int playCSeq = nextCSeq();
+        requestWriter.play(
+                uriRtsp,
+                playCSeq,
+                digestRealmNonce != null ? getDigestAuthHeader(username, password, "PLAY", uriRtsp, digestRealmNonce.first, digestRealmNonce.second) : authToken);
+        requestWriter.send(outputStream);
+
+        RtspResponse response = new RtspResponse();
+        while (true) {
+            int status = readResponse(demuxer, response);
+            int responseCSeq = response.getCSeq();
+            if (responseCSeq == playCSeq)
+                return status;
+            int i = 0;
+            while (i < setupCSeqs.length && (tracks[i] == null || setupCSeqs[i] != responseCSeq))
+                i++;
+            if (i == setupCSeqs.length) {
+                Log.w(TAG, "Ignored response to CSeq " + responseCSeq + " during SETUP");
+                continue;
+            }
+            checkStatusCode(status);
+            updateTrackChannelsFromTransport(tracks[i], response.getHeader("Transport"));
+            if (--pendingSetups == 0)
+                timings.setupMs = System.currentTimeMillis() - setupStartMs;
+        }
+    }
+
+    // Parses DESCRIBE SDP and drops the tracks which were not requested or cannot be played
+    @NonNull
+    SdpInfo getRequestedSdpInfo(@NonNull String content) {
+        if (debug)
+            Log.i(TAG_DEBUG, "" + content);
+        SdpInfo sdpInfo = new SdpInfo();
+        try {
+            List<Pair<String, String>> params = getDescribeParams(content);
+            sdpInfo = getSdpInfoFromDescribeParams(params);
+            if (!requestVideo)
+                sdpInfo.videoTrack = null;
+            if (!requestAudio)
+                sdpInfo.audioTrack = null;
+            if (!requestApplication)
+                sdpInfo.applicationTrack = null;
+            if (sdpInfo.videoTrack != null && !RtpDepacketizerRegistry.isSupported(sdpInfo.videoTrack.encoding)) {
+                Log.e(TAG_DEBUG, "Unknown RTSP video codec (" + sdpInfo.videoTrack.encoding + ") specified in SDP");
+                sdpInfo.videoTrack = null;
+            }
+            if (sdpInfo.audioTrack != null && !RtpDepacketizerRegistry.isSupported(sdpInfo.audioTrack.encoding)) {
+                Log.e(TAG_DEBUG, "Unknown RTSP audio codec (" + sdpInfo.audioTrack.encoding + ") specified in SDP");
+                sdpInfo.audioTrack = null;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return sdpInfo;
+    }
+
+    // "Session: 12345678;timeout=60"
     @Nullable
-    private static String getUriForSetup(@NonNull String uriRtsp, @Nullable Track track) {
+    static String getHeaderSession(@NonNull RtspResponse response) {
+        String session = response.getHeader("Session");
+        if (TextUtils.isEmpty(session))
+            return session;
+        return TextUtils.split(session, ";")[0];
+    }
+
+    static int getHeaderSessionTimeout(@NonNull RtspResponse response, int defaultTimeout) {
+        String session = response.getHeader("Session");
+        if (TextUtils.isEmpty(session))
+            return defaultTimeout;
+        String[] params = TextUtils.split(session, ";");
+        if (params.length > 1) {
+            params = TextUtils.split(params[1], "=");
+            if (params.length > 1) {
+                try {
+                    return Integer.parseInt(params[1]);
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Failed to parse RTSP session timeout");
+                }
+            }
+        }
+        return defaultTimeout;
+    }
+
+    @Nullable
+    static String getUriForSetup(@NonNull String uriRtsp, @Nullable Track track) {
         if (track == null)
             return null;
         if (track.request == null) {
@@ -409,7 +662,87 @@ public class RtspClient {
         return uriRtspSetup;
     }
 
-    private static void checkStatusCode(int code) throws IOException {
+    // Server may override the requested channels, e.g. "RTP/AVP/TCP;unicast;interleaved=2-3".
+    static void updateTrackChannelsFromTransport(@NonNull Track track, @Nullable String transport) {
+        if (transport == null)
+            return;
+        for (String param : TextUtils.split(transport, ";")) {
+            param = param.trim();
+            if (param.startsWith("interleaved=")) {
+                String[] channels = TextUtils.split(param.substring(12), "-");
+                try {
+                    track.rtpChannel = Integer.parseInt(channels[0].trim());
+                    track.rtcpChannel = channels.length > 1 ? Integer.parseInt(channels[1].trim()) : track.rtpChannel + 1;
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Failed to parse interleaved channels from \"" + transport + "\"");
+                }
+            }
+        }
+    }
+
+    // Server ports from e.g. "RTP/AVP;unicast;client_port=5000-5001;server_port=6970-6971".
+    // Connecting the channels filters out datagrams from other sources.
+    private static void connectUdpChannelsFromTransport(
+            @NonNull DatagramChannel[] channels,
+            @NonNull Socket rtspSocket,
+            @Nullable String transport) {
+        if (transport == null)
+            return;
+        for (String param : TextUtils.split(transport, ";")) {
+            param = param.trim();
+            if (param.startsWith("server_port=")) {
+                String[] ports = TextUtils.split(param.substring(12), "-");
+                try {
+                    int rtpPort = Integer.parseInt(ports[0].trim());
+                    int rtcpPort = ports.length > 1 ? Integer.parseInt(ports[1].trim()) : rtpPort + 1;
+                    channels[0].connect(new InetSocketAddress(rtspSocket.getInetAddress(), rtpPort));
+                    channels[1].connect(new InetSocketAddress(rtspSocket.getInetAddress(), rtcpPort));
+                } catch (NumberFormatException | IOException e) {
+                    Log.e(TAG, "Failed to use server ports from \"" + transport + "\"");
+                }
+            }
+        }
+    }
+
+    // E.g. "RTP/AVP;multicast;destination=232.0.1.2;port=5000-5001;ttl=16[;source=192.168.0.10]"
+    @NonNull
+    private static DatagramChannel[] joinMulticastGroupFromTransport(
+            @NonNull RtpUdpReceiver udpReceiver,
+            @NonNull Socket rtspSocket,
+            @Nullable String transport)
+            throws IOException {
+        if (transport == null)
+            throw new IOException("No Transport header in multicast SETUP response");
+        InetAddress group = null;
+        InetAddress source = null;
+        int rtpPort = -1;
+        int rtcpPort = -1;
+        for (String param : TextUtils.split(transport, ";")) {
+            param = param.trim();
+            if (param.startsWith("destination=")) {
+                group = InetAddress.getByName(param.substring(12).trim());
+            } else if (param.startsWith("source=")) {
+                source = InetAddress.getByName(param.substring(7).trim());
+            } else if (param.startsWith("port=")) {
+                String[] ports = TextUtils.split(param.substring(5), "-");
+                try {
+                    rtpPort = Integer.parseInt(ports[0].trim());
+                    rtcpPort = ports.length > 1 ? Integer.parseInt(ports[1].trim()) : rtpPort + 1;
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Failed to parse multicast ports from \"" + transport + "\"");
+                }
+            }
+        }
+        if (group == null || !group.isMulticastAddress() || rtpPort <= 0)
+            throw new IOException("Invalid multicast transport \"" + transport + "\"");
+        // Join on the interface which reaches the camera
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(rtspSocket.getLocalAddress());
+        if (networkInterface == null)
+            throw new IOException("No network interface for " + rtspSocket.getLocalAddress());
+        return udpReceiver.openMulticastPair(group, rtpPort, rtcpPort, networkInterface, source);
+    }
+
+    static void checkStatusCode(int code) throws IOException {
         switch (code) {
             case 200:
                 break;
@@ -420,287 +753,345 @@ public class RtspClient {
         }
     }
 
-    private static void readRtpData(
-            @NonNull InputStream inputStream,
+    // Receives RTP/RTCP packets of one track, either interleaved frames or UDP datagrams
+    interface MediaChannelHandler {
+        void onPacket(@NonNull byte[] data, int offset, int length);
+    }
+
+    // Maps interleaved channel id to its handler. Built once after SETUP, so every frame is
+    // routed with a single array lookup. Tracks set up over UDP are registered with the receiver.
+    @NonNull
+    static MediaChannelHandler[] createChannelHandlers(
             @NonNull SdpInfo sdpInfo,
             @NonNull RtspClientListener listener,
-            int keepAliveTimeout,
-            @NonNull RtspClientKeepAliveListener keepAliveListener)
+            @Nullable RtspClientRtcpListener rtcpListener,
+            @Nullable OnvifMetadataParser.MetadataListener metadataListener,
+            int jitterBufferLatencyMs,
+            @NonNull OutputStream outputStream,
+            @Nullable RtpUdpReceiver udpReceiver,
+            @NonNull DatagramChannel[][] udpChannels,
+            @NonNull ArrayList<RtpChannelHandler> rtpHandlers,
+            @NonNull ArrayList<RtcpChannelHandler> rtcpHandlers)
             throws IOException {
-        byte[] data = EMPTY_ARRAY; // Usually not bigger than MTU = 15KB
+        MediaChannelHandler[] handlers = new MediaChannelHandler[256];
+        RtpDepacketizer videoDepacketizer = sdpInfo.videoTrack != null ? RtpDepacketizerRegistry.create(sdpInfo.videoTrack) : null;
+        if (videoDepacketizer != null) {
+            RtcpChannelHandler rtcpHandler = new RtcpChannelHandler(sdpInfo.videoTrack, rtcpListener, outputStream);
+            registerChannelHandlers(handlers, rtpHandlers, rtcpHandlers, sdpInfo.videoTrack, new VideoChannelHandler(videoDepacketizer, listener, jitterBufferLatencyMs, rtcpHandler.session), rtcpHandler, udpReceiver, udpChannels[0]);
+        }
+        RtpDepacketizer audioDepacketizer = sdpInfo.audioTrack != null ? RtpDepacketizerRegistry.create(sdpInfo.audioTrack) : null;
+        if (audioDepacketizer != null) {
+            RtcpChannelHandler rtcpHandler = new RtcpChannelHandler(sdpInfo.audioTrack, rtcpListener, outputStream);
+            registerChannelHandlers(handlers, rtpHandlers, rtcpHandlers, sdpInfo.audioTrack, new AudioChannelHandler(audioDepacketizer, listener, jitterBufferLatencyMs, rtcpHandler.session), rtcpHandler, udpReceiver, udpChannels[1]);
+        }
+        if (sdpInfo.applicationTrack != null) {
+            RtcpChannelHandler rtcpHandler = new RtcpChannelHandler(sdpInfo.applicationTrack, rtcpListener, outputStream);
+            registerChannelHandlers(handlers, rtpHandlers, rtcpHandlers, sdpInfo.applicationTrack, new ApplicationChannelHandler(sdpInfo.applicationTrack, listener, metadataListener, jitterBufferLatencyMs, rtcpHandler.session), rtcpHandler, udpReceiver, udpChannels[2]);
+        }
+        return handlers;
+    }
 
-        final RtpParser videoParser = (sdpInfo.videoTrack != null && sdpInfo.videoTrack.videoCodec == VIDEO_CODEC_H265 ?
-                new RtpH265Parser() :
-                new RtpH264Parser());
-        final AacParser audioParser = (sdpInfo.audioTrack != null && sdpInfo.audioTrack.audioCodec == AUDIO_CODEC_AAC ?
-                new AacParser(sdpInfo.audioTrack.mode) :
-                null);
+    private static void registerChannelHandlers(
+            @NonNull MediaChannelHandler[] handlers,
+            @NonNull ArrayList<RtpChannelHandler> rtpHandlers,
+            @NonNull ArrayList<RtcpChannelHandler> rtcpHandlers,
+            @NonNull Track track,
+            @NonNull RtpChannelHandler rtpHandler,
+            @NonNull RtcpChannelHandler rtcpHandler,
+            @Nullable RtpUdpReceiver udpReceiver,
+            @Nullable DatagramChannel[] trackUdpChannels)
+            throws IOException {
+        rtpHandlers.add(rtpHandler);
+        rtcpHandlers.add(rtcpHandler);
+        if (udpReceiver != null && trackUdpChannels != null) {
+            udpReceiver.register(trackUdpChannels[0], rtpHandler);
+            udpReceiver.register(trackUdpChannels[1], rtcpHandler);
+            rtcpHandler.setUdpChannel(udpReceiver, trackUdpChannels[1]);
+            return;
+        }
+        if (track.rtpChannel >= 0 && track.rtpChannel < handlers.length)
+            handlers[track.rtpChannel] = rtpHandler;
+        if (track.rtcpChannel >= 0 && track.rtcpChannel < handlers.length)
+            handlers[track.rtcpChannel] = rtcpHandler;
+    }
 
-        byte[] nalUnitSps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.sps : null);
-        byte[] nalUnitPps = (sdpInfo.videoTrack != null ? sdpInfo.videoTrack.pps : null);
-        byte[] nalUnitSei = EMPTY_ARRAY;
-        byte[] nalUnitAud = EMPTY_ARRAY;
-        int videoSeqNum = 0;
+    private void readRtpData(
+            @NonNull RtpInterleavedDemuxer demuxer,
+            @NonNull OutputStream outputStream,
+            @NonNull SdpInfo sdpInfo,
+            @NonNull RtspClientListener listener,
+            @Nullable RtspClientRtcpListener rtcpListener,
+            int keepAliveTimeout,
+            int jitterBufferLatencyMs,
+            @NonNull RtspClientKeepAliveListener keepAliveListener,
+            @Nullable RtpUdpReceiver udpReceiver,
+            @NonNull DatagramChannel[][] udpChannels)
+            throws IOException {
+        final ArrayList<RtpChannelHandler> rtpHandlers = new ArrayList<>();
+        final ArrayList<RtcpChannelHandler> rtcpHandlers = new ArrayList<>();
+        final MediaChannelHandler[] handlers = createChannelHandlers(sdpInfo, listener, rtcpListener, metadataListener, jitterBufferLatencyMs, outputStream, udpReceiver, udpChannels, rtpHandlers, rtcpHandlers);
+        final byte[] data = demuxer.getBuffer();
+        demuxer.setRtspResponseListener((statusCode, cSeq, response, offset, length) -> {
+            if (DEBUG)
+                Log.d(TAG, "Keep-alive response (CSeq: " + cSeq + ") status: " + statusCode);
+            if (statusCode != 200)
+                Log.w(TAG, "Keep-alive request (CSeq: " + cSeq + ") failed with status " + statusCode);
+        });
 
         long keepAliveSent = System.currentTimeMillis();
         Log.e(TAG,"this................."+keepAliveSent);
-        while (mCloseConnect == false) {
-            RtpHeaderParser.RtpHeader header = RtpHeaderParser.readHeader(inputStream);
-            if (header == null) {
-                continue;
-            }
-            if (header.payloadSize > data.length)
-                data = new byte[header.payloadSize];
-
-            NetUtils.readData(inputStream, data, 0, header.payloadSize);
-            long l = System.currentTimeMillis();
-            if (keepAliveTimeout > 0 && l - keepAliveSent > keepAliveTimeout) {
-                keepAliveSent = l;
-                keepAliveListener.onRtspKeepAliveRequested();
-            }
-            if (sdpInfo.videoTrack != null && header.payloadType == sdpInfo.videoTrack.payloadType) {
-                videoSeqNum = header.sequenceNumber;
-
-                byte[] nalUnit;
-                if (header.extension == 1) {
-                    int skipBytes = ((data[2] & 0xFF) << 8 | (data[3] & 0xFF)) * 4 + 4;
-                    nalUnit = videoParser.processRtpPacketAndGetNalUnit(Arrays.copyOfRange(data, skipBytes, data.length),
-                            header.payloadSize - skipBytes, header.marker == 1);
-                } else {
-                    nalUnit = videoParser.processRtpPacketAndGetNalUnit(data, header.payloadSize, header.marker == 1);
-                }
-
-                if (nalUnit != null) {
-                    boolean isH265 = sdpInfo.videoTrack.videoCodec == VIDEO_CODEC_H265;
-                    byte type = VideoCodecUtils.getNalUnitType(nalUnit, 0, nalUnit.length, isH265);
-                    switch (type) {
-                        case VideoCodecUtils.NAL_SPS:
-                            nalUnitSps = nalUnit;
-                            if (nalUnit.length > VideoCodecUtils.MAX_NAL_SPS_SIZE)
-                                listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, header.getTimestampMsec());
-                            break;
-
-                        case VideoCodecUtils.NAL_PPS:
-                            nalUnitPps = nalUnit;
-                            if (nalUnit.length > VideoCodecUtils.MAX_NAL_SPS_SIZE)
-                                listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, header.getTimestampMsec());
-                            break;
-
-                        case VideoCodecUtils.NAL_AUD:
-                            nalUnitAud = nalUnit;
+        // Tracks which fell back to TCP have a handler for their interleaved channel. If all of
+        // them did, nothing waits on the UDP receiver and the connection is read as in TCP mode.
+        final boolean udp = udpReceiver != null && !udpReceiver.isEmpty();
+        boolean tcpTracks = false;
+        for (MediaChannelHandler handler : handlers)
+            tcpTracks |= handler != null;
+        // With UDP media, reads on the connection only wait briefly. With both transports the
+        // connection is waited on instead of the selector, so interleaved frames are not delayed.
+        // With a jitter buffer blocking reads wake up regularly, so packets held behind a gap
+        // are released in time even if the stream pauses. The socket read timeout still applies.
+        final int readTimeoutMs = rtspSocket.getSoTimeout();
+        final int pollTimeoutMs;
+        if (udp)
+            pollTimeoutMs = tcpTracks ? MIXED_TRANSPORT_POLL_INTERVAL_MS : RTSP_POLL_TIMEOUT_MS;
+        else
+            pollTimeoutMs = jitterBufferLatencyMs > 0 ? JITTER_BUFFER_DRAIN_INTERVAL_MS : 0;
+        final boolean drainOnTimeout = !udp && pollTimeoutMs > 0;
+        if (pollTimeoutMs > 0)
+            rtspSocket.setSoTimeout(pollTimeoutMs);
+        long lastReadMs = keepAliveSent;
+        try {
+            while (!closeRequested) {
+                if (udp) {
+                    udpReceiver.receive(tcpTracks ? 0 : UDP_RECEIVE_TIMEOUT_MS);
+                    try {
+                        if (!demuxer.read())
                             break;
-
-                        case VideoCodecUtils.NAL_SEI:
-                            nalUnitSei = nalUnit;
+                    } catch (SocketTimeoutException e) {
+                        // Nothing new on the RTSP connection
+                    }
+                    while (demuxer.nextFrame()) {
+                        MediaChannelHandler handler = handlers[demuxer.getChannel()];
+                        if (handler != null)
+                            handler.onPacket(data, demuxer.getFrameOffset(), demuxer.getFrameLength());
+                    }
+                } else {
+                    try {
+                        if (!demuxer.readFrame())
                             break;
-
-                        case VideoCodecUtils.NAL_IDR_SLICE:
-                            if (nalUnitSps != null && nalUnitPps != null) {
-                                byte[] nalUnitSpsPpsIdr = new byte[nalUnitAud.length + nalUnitSps.length + nalUnitPps.length + nalUnitSei.length + nalUnit.length];
-                                int offset = 0;
-                                System.arraycopy(nalUnitSps, 0, nalUnitSpsPpsIdr, offset, nalUnitSps.length);
-                                offset += nalUnitSps.length;
-                                System.arraycopy(nalUnitPps, 0, nalUnitSpsPpsIdr, offset, nalUnitPps.length);
-                                offset += nalUnitPps.length;
-                                System.arraycopy(nalUnitAud, 0, nalUnitSpsPpsIdr, offset, nalUnitAud.length);
-                                offset += nalUnitAud.length;
-                                System.arraycopy(nalUnitSei, 0, nalUnitSpsPpsIdr, offset, nalUnitSei.length);
-                                offset += nalUnitSei.length;
-                                System.arraycopy(nalUnit, 0, nalUnitSpsPpsIdr, offset, nalUnit.length);
-                                listener.onRtspVideoNalUnitReceived(nalUnitSpsPpsIdr, 0, nalUnitSpsPpsIdr.length, header.getTimestampMsec());
-                                nalUnitSps = null;
-                                nalUnitPps = null;
-                                nalUnitSei = EMPTY_ARRAY;
-                                nalUnitAud = EMPTY_ARRAY;
-                                break;
-                            }
-
-                        default:
-                            if (nalUnitSei.length == 0 && nalUnitAud.length == 0) {
-                                listener.onRtspVideoNalUnitReceived(nalUnit, 0, nalUnit.length, header.getTimestampMsec());
-                            } else {
-                                byte[] nalUnitAudSeiSlice = new byte[nalUnitAud.length + nalUnitSei.length + nalUnit.length];
-                                int offset = 0;
-                                System.arraycopy(nalUnitAud, 0, nalUnitAudSeiSlice, offset, nalUnitAud.length);
-                                offset += nalUnitAud.length;
-                                System.arraycopy(nalUnitSei, 0, nalUnitAudSeiSlice, offset, nalUnitSei.length);
-                                offset += nalUnitSei.length;
-                                System.arraycopy(nalUnit, 0, nalUnitAudSeiSlice, offset, nalUnit.length);
-                                listener.onRtspVideoNalUnitReceived(nalUnitAudSeiSlice, 0, nalUnitAudSeiSlice.length, header.getTimestampMsec());
-                                nalUnitSei = EMPTY_ARRAY;
-                                nalUnitAud = EMPTY_ARRAY;
-                            }
+                        MediaChannelHandler handler = handlers[demuxer.getChannel()];
+                        if (handler != null)
+                            handler.onPacket(data, demuxer.getFrameOffset(), demuxer.getFrameLength());
+                        if (drainOnTimeout)
+                            lastReadMs = System.currentTimeMillis();
+                    } catch (SocketTimeoutException e) {
+                        if (!drainOnTimeout || (readTimeoutMs > 0 && System.currentTimeMillis() - lastReadMs >= readTimeoutMs))
+                            throw e;
                     }
                 }
-            } else if (sdpInfo.audioTrack != null && header.payloadType == sdpInfo.audioTrack.payloadType) {
-                if (audioParser != null) {
-                    byte[] sample = audioParser.processRtpPacketAndGetSample(data, header.payloadSize);
-                    if (sample != null)
-                        listener.onRtspAudioSampleReceived(sample, 0, sample.length, header.getTimestampMsec());
+
+                long l = System.currentTimeMillis();
+                for (RtpChannelHandler rtpHandler : rtpHandlers)
+                    rtpHandler.drainJitterBuffer(l);
+                if (keepAliveTimeout > 0 && l - keepAliveSent > keepAliveTimeout) {
+                    keepAliveSent = l;
+                    keepAliveListener.onRtspKeepAliveRequested();
                 }
-            } else if (sdpInfo.applicationTrack != null && header.payloadType == sdpInfo.applicationTrack.payloadType) {
-                listener.onRtspApplicationDataReceived(data, 0, header.payloadSize, header.getTimestampMsec());
-            } else {
-                if (DEBUG && header.payloadType >= 96 && header.payloadType <= 127)
-                    Log.w(TAG, "Invalid RTP payload type " + header.payloadType);
+                for (RtcpChannelHandler rtcpHandler : rtcpHandlers)
+                    rtcpHandler.sendReportIfDue(l);
             }
+        } finally {
+            if (pollTimeoutMs > 0 && !rtspSocket.isClosed())
+                rtspSocket.setSoTimeout(readTimeoutMs);
         }
     }
 
-    private static void sendSimpleCommand(
-            @NonNull String command,
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String session,
-            @Nullable String authToken)
-            throws IOException {
-        outputStream.write((command + " " + request + " RTSP/1.0" + CRLF).getBytes());
-        if (authToken != null)
-            outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
-        outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
-        if (userAgent != null)
-            outputStream.write(("User-Agent: " + userAgent + CRLF).getBytes());
-        if (session != null)
-            outputStream.write(("Session: " + session + CRLF).getBytes());
-        outputStream.write(CRLF.getBytes());
-        outputStream.flush();
-    }
+    // Parses RTP headers of a channel and releases packets in sequence order through the jitter buffer
+    abstract static class RtpChannelHandler implements MediaChannelHandler, RtpJitterBuffer.Listener {
+        private final RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+        private final @NonNull RtpJitterBuffer jitterBuffer;
+        final @NonNull RtcpSession rtcpSession;
 
-    private static void sendOptionsCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String authToken)
-            throws IOException {
-        sendSimpleCommand("OPTIONS", outputStream, request, cSeq, userAgent, null, authToken);
-    }
+        RtpChannelHandler(int jitterBufferLatencyMs, @NonNull RtcpSession rtcpSession) {
+            jitterBuffer = new RtpJitterBuffer(this, jitterBufferLatencyMs);
+            this.rtcpSession = rtcpSession;
+        }
 
-    private static void sendGetParameterCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String session,
-            @Nullable String authToken)
-            throws IOException {
-        sendSimpleCommand("GET_PARAMETER", outputStream, request, cSeq, userAgent, session, authToken);
-    }
+        @Override
+        public final void onPacket(@NonNull byte[] data, int offset, int length) {
+            if (RtpHeaderParser.parseHeader(header, data, offset, length)) {
+                // Arrival statistics before reordering
+                rtcpSession.onRtpPacket(header, System.nanoTime());
+                jitterBuffer.push(header, data, System.currentTimeMillis());
+            }
+        }
 
-    private static void sendDescribeCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String authToken)
-            throws IOException {
-        outputStream.write(("DESCRIBE " + request + " RTSP/1.0" + CRLF).getBytes());
-        outputStream.write(("Accept: application/sdp" + CRLF).getBytes());
-        if (authToken != null)
-            outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
-        outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
-        if (userAgent != null)
-            outputStream.write(("User-Agent: " + userAgent + CRLF).getBytes());
-        outputStream.write(CRLF.getBytes());
-        outputStream.flush();
+        // Called periodically, also when no packets arrive
+        final void drainJitterBuffer(long nowMs) {
+            jitterBuffer.drain(nowMs);
+        }
     }
 
-    private static void sendTeardownCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String authToken,
-            @Nullable String session)
-            throws IOException {
-        outputStream.write(("TEARDOWN " + request + " RTSP/1.0" + CRLF).getBytes());
-        if (authToken != null)
-            outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
-        outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
-        if (userAgent != null)
-            outputStream.write(("User-Agent: " + userAgent + CRLF).getBytes());
-        if (session != null)
-            outputStream.write(("Session: " + session + CRLF).getBytes());
-        outputStream.write(CRLF.getBytes());
-        outputStream.flush();
-    }
+    // Frames of a track go through the depacketizer resolved for its encoding after SETUP
+    private static final class VideoChannelHandler extends RtpChannelHandler implements RtpDepacketizer.Output {
+        private final @NonNull RtspClientListener listener;
+        private final @NonNull RtpDepacketizer depacketizer;
 
-    private static void sendSetupCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String authToken,
-            @Nullable String session,
-            @NonNull String interleaved)
-            throws IOException {
-        outputStream.write(("SETUP " + request + " RTSP/1.0" + CRLF).getBytes());
-        outputStream.write(("Transport: RTP/AVP/TCP;unicast;interleaved=" + interleaved + CRLF).getBytes());
-        if (authToken != null)
-            outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
-        outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
-        if (userAgent != null)
-            outputStream.write(("User-Agent: " + userAgent + CRLF).getBytes());
-        if (session != null)
-            outputStream.write(("Session: " + session + CRLF).getBytes());
-        outputStream.write(CRLF.getBytes());
-        outputStream.flush();
+        VideoChannelHandler(@NonNull RtpDepacketizer depacketizer, @NonNull RtspClientListener listener, int jitterBufferLatencyMs, @NonNull RtcpSession rtcpSession) {
+            super(jitterBufferLatencyMs, rtcpSession);
+            this.listener = listener;
+            this.depacketizer = depacketizer;
+        }
+
+        @Override
+        public void onRtpPacketLoss(int lostPackets) {
+            depacketizer.onPacketLoss(lostPackets);
+            if (depacketizer.isWaitingForKeyFrame())
+                rtcpSession.requestKeyFrame();
+        }
+
+        @Override
+        public void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int payloadOffset, int payloadSize) {
+            depacketizer.processRtpPacket(header, data, payloadOffset, payloadSize, this);
+            if (depacketizer.isWaitingForKeyFrame())
+                rtcpSession.requestKeyFrame();
+        }
+
+        @Override
+        public void onFrame(@NonNull byte[] data, int offset, int length, long timestampUs, int flags) {
+            listener.onRtspVideoNalUnitReceived(data, offset, length, timestampUs, flags);
+        }
     }
 
-    private static void sendPlayCommand(
-            @NonNull OutputStream outputStream,
-            @NonNull String request,
-            int cSeq,
-            @Nullable String userAgent,
-            @Nullable String authToken,
-            @NonNull String session)
-            throws IOException {
-        outputStream.write(("PLAY " + request + " RTSP/1.0" + CRLF).getBytes());
-        outputStream.write(("Range: npt=0.000-" + CRLF).getBytes());
-        if (authToken != null)
-            outputStream.write(("Authorization: " + authToken + CRLF).getBytes());
-        outputStream.write(("CSeq: " + cSeq + CRLF).getBytes());
-        if (userAgent != null)
-            outputStream.write(("User-Agent: " + userAgent + CRLF).getBytes());
-        outputStream.write(("Session: " + session + CRLF).getBytes());
-        outputStream.write(CRLF.getBytes());
-        outputStream.flush();
+    private static final class AudioChannelHandler extends RtpChannelHandler implements RtpDepacketizer.Output {
+        private final @NonNull RtspClientListener listener;
+        private final @NonNull RtpDepacketizer depacketizer;
+
+        AudioChannelHandler(@NonNull RtpDepacketizer depacketizer, @NonNull RtspClientListener listener, int jitterBufferLatencyMs, @NonNull RtcpSession rtcpSession) {
+            super(jitterBufferLatencyMs, rtcpSession);
+            this.listener = listener;
+            this.depacketizer = depacketizer;
+        }
+
+        @Override
+        public void onRtpPacketLoss(int lostPackets) {
+            depacketizer.onPacketLoss(lostPackets);
+        }
+
+        @Override
+        public void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int payloadOffset, int payloadSize) {
+            depacketizer.processRtpPacket(header, data, payloadOffset, payloadSize, this);
+        }
+
+        @Override
+        public void onFrame(@NonNull byte[] data, int offset, int length, long timestampUs, int flags) {
+            listener.onRtspAudioSampleReceived(data, offset, length, timestampUs);
+        }
     }
 
-    private int readResponseStatusCode(@NonNull InputStream inputStream) throws IOException {
-        String line;
-        byte[] rtspHeader = "RTSP/1.0 ".getBytes();
-        while (readUntilBytesFound(inputStream, rtspHeader) && (line = readLine(inputStream)) != null) {
-            int indexCode = line.indexOf(' ');
-            String code = line.substring(0, indexCode);
-            try {
-                int statusCode = Integer.parseInt(code);
-                return statusCode;
-            } catch (NumberFormatException e) {
-            }
+    private static final class ApplicationChannelHandler extends RtpChannelHandler {
+        private final @NonNull RtspClientListener listener;
+        private final @Nullable OnvifMetadataParser.MetadataListener metadataListener;
+        private final @Nullable OnvifMetadataParser metadataParser;
+        private final @NonNull RtpTimestampUnwrapper timestampUnwrapper;
+
+        ApplicationChannelHandler(
+                @NonNull ApplicationTrack applicationTrack,
+                @NonNull RtspClientListener listener,
+                @Nullable OnvifMetadataParser.MetadataListener metadataListener,
+                int jitterBufferLatencyMs,
+                @NonNull RtcpSession rtcpSession) {
+            super(jitterBufferLatencyMs, rtcpSession);
+            this.listener = listener;
+            this.metadataListener = metadataListener;
+            metadataParser = metadataListener != null ? new OnvifMetadataParser() : null;
+            timestampUnwrapper = new RtpTimestampUnwrapper(applicationTrack.clockRateHz);
+        }
+
+        @Override
+        public void onRtpPacketLoss(int lostPackets) {
+            if (metadataParser != null)
+                metadataParser.onPacketLoss();
+        }
+
+        @Override
+        public void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int payloadOffset, int payloadSize) {
+            long timestampUs = timestampUnwrapper.getPresentationTimeUs(header.timeStamp);
+            listener.onRtspApplicationDataReceived(data, payloadOffset, payloadSize, timestampUs);
+            if (metadataParser != null)
+                metadataParser.processRtpPacket(data, payloadOffset, payloadSize, header.marker == 1, metadataListener);
         }
-        return -1;
     }
 
-    @NonNull
-    private ArrayList<Pair<String, String>> readResponseHeaders(@NonNull InputStream inputStream) throws IOException {
-        ArrayList<Pair<String, String>> headers = new ArrayList<>();
-        String line;
-        while (!TextUtils.isEmpty(line = readLine(inputStream))) {
-            if (debug)
-                Log.d(TAG_DEBUG, "" + line);
-            if (CRLF.equals(line)) {
-                return headers;
-            } else {
-                String[] pairs = line.split(":", 2);
-                if (pairs.length == 2) {
-                    headers.add(Pair.create(pairs[0].trim(), pairs[1].trim()));
-                }
+    // RTCP of one track. Parses SR/SDES/BYE from the server and periodically sends receiver
+    // reports back on the interleaved RTCP channel or the RTCP UDP port.
+    static final class RtcpChannelHandler implements MediaChannelHandler, RtcpSession.Listener {
+        private final @NonNull Track track;
+        private final @Nullable RtspClientRtcpListener rtcpListener;
+        private final @NonNull OutputStream outputStream;
+        private final @NonNull RtcpSession session;
+        private final @NonNull byte[] report = new byte[INTERLEAVED_HEADER_SIZE + RtcpSession.MAX_REPORT_SIZE];
+        private @Nullable RtpUdpReceiver udpReceiver;
+        private @Nullable DatagramChannel udpChannel;
+
+        RtcpChannelHandler(@NonNull Track track, @Nullable RtspClientRtcpListener rtcpListener, @NonNull OutputStream outputStream) {
+            this.track = track;
+            this.rtcpListener = rtcpListener;
+            this.outputStream = outputStream;
+            session = new RtcpSession(track.clockRateHz, this);
+        }
+
+        void setUdpChannel(@NonNull RtpUdpReceiver udpReceiver, @NonNull DatagramChannel udpChannel) {
+            this.udpReceiver = udpReceiver;
+            this.udpChannel = udpChannel;
+        }
+
+        @Override
+        public void onPacket(@NonNull byte[] data, int offset, int length) {
+            session.onRtcpPacket(data, offset, length, System.currentTimeMillis());
+        }
+
+        void sendReportIfDue(long nowMs) throws IOException {
+            if (!session.isReportDue(nowMs))
+                return;
+            int length = session.writeReceiverReport(report, INTERLEAVED_HEADER_SIZE, nowMs);
+            if (length == 0)
+                return;
+            if (udpReceiver != null && udpChannel != null) {
+                udpReceiver.send(udpChannel, report, INTERLEAVED_HEADER_SIZE, length);
+            } else if (track.rtcpChannel >= 0) {
+                report[0] = '$';
+                report[1] = (byte) track.rtcpChannel;
+                report[2] = (byte) (length >> 8);
+                report[3] = (byte) length;
+                outputStream.write(report, 0, INTERLEAVED_HEADER_SIZE + length);
+                outputStream.flush();
             }
+            if (rtcpListener != null) {
+                for (int i = 0; i < session.getSourceCount(); i++)
+                    rtcpListener.onRtcpReceiverReport(track, session.getSource(i));
+            }
+        }
+
+        @Override
+        public void onRtcpSenderReport(@NonNull RtcpSession.SourceStats source) {
+            if (rtcpListener != null)
+                rtcpListener.onRtcpSenderReport(track, source);
+        }
+
+        @Override
+        public void onRtcpBye(@NonNull RtcpSession.SourceStats source) {
+            if (rtcpListener != null)
+                rtcpListener.onRtcpBye(track, source);
         }
-        return headers;
+    }
+
+    // Next response on the RTSP connection, also when media frames are already arriving
+    static int readResponse(@NonNull RtpInterleavedDemuxer demuxer, @NonNull RtspResponse response) throws IOException {
+        if (!demuxer.readResponse(response))
+            throw new EOFException("RTSP connection closed");
+        dumpHeaders(response);
+        return response.getStatusCode();
     }
     @NonNull
     private static Track[] getTracksFromDescribeParams(@NonNull List<Pair<String, String>> params) {
@@ -739,6 +1130,8 @@ public class RtspClient {
                         }
                         if (currentTrack.payloadType == -1)
                             Log.e(TAG, "Failed to get payload type from \"m=" + param.second + "\"");
+                        else if (RtpDepacketizerRegistry.getStaticEncoding(currentTrack.payloadType) != null)
+                            setTrackEncoding(currentTrack, RtpDepacketizerRegistry.getStaticEncoding(currentTrack.payloadType));
                     }
                     break;
 
@@ -754,36 +1147,26 @@ public class RtspClient {
                             }
                         } else if (param.second.startsWith("rtpmap:")) {
                             String[] values = TextUtils.split(param.second, " ");
-                            if (currentTrack instanceof VideoTrack) {
-                                if (values.length > 1) {
-                                    values = TextUtils.split(values[1], "/");
-                                    if (values.length > 0) {
-                                        switch (values[0].toLowerCase()) {
-                                            case "h264" -> ((VideoTrack) tracks[0]).videoCodec = VIDEO_CODEC_H264;
-                                            case "h265" -> ((VideoTrack) tracks[0]).videoCodec = VIDEO_CODEC_H265;
-                                            default -> Log.w(TAG, "Unknown video codec \"" + values[0] + "\"");
-                                        }
-                                        Log.i(TAG, "Video: " + values[0]);
-                                        //pradeep.....
-                                    }
-                                }
-                            } else if (currentTrack instanceof AudioTrack) {
-                                if (values.length > 1) {
-                                    AudioTrack track = ((AudioTrack) tracks[1]);
-                                    values = TextUtils.split(values[1], "/");
-                                    if (values.length > 1) {
-                                        switch (values[0].toLowerCase()) {
-                                            case "mpeg4-generic" -> track.audioCodec = AUDIO_CODEC_AAC;
-                                            case "opus" -> track.audioCodec = AUDIO_CODEC_OPUS;
-                                            default -> {
-                                                Log.w(TAG, "Unknown audio codec \"" + values[0] + "\"");
-                                                track.audioCodec = AUDIO_CODEC_UNKNOWN;
-                                            }
+                            // a=rtpmap:<payload type> <encoding name>/<clock rate>[/<encoding parameters>]
+                            if (values.length > 1) {
+                                String[] encoding = TextUtils.split(values[1], "/");
+                                if (encoding.length > 1) {
+                                    try {
+                                        int clockRateHz = Integer.parseInt(encoding[1].trim());
+                                        if (clockRateHz > 0)
+                                            currentTrack.clockRateHz = clockRateHz;
+                                        if (currentTrack instanceof AudioTrack audioTrack) {
+                                            audioTrack.sampleRateHz = clockRateHz;
+                                            audioTrack.channels = encoding.length > 2 ? Integer.parseInt(encoding[2].trim()) : 1;
                                         }
-                                        track.sampleRateHz = Integer.parseInt(values[1]);
-                                        track.channels = values.length > 2 ? Integer.parseInt(values[2]) : 1;
+                                    } catch (NumberFormatException e) {
+                                        Log.e(TAG, "Failed to parse clock rate from \"" + param.second + "\"");
                                     }
                                 }
+                                Log.i(TAG, currentTrack.getClass().getSimpleName() + ": " + encoding[0]);
+                                if (!(currentTrack instanceof ApplicationTrack) && !RtpDepacketizerRegistry.isSupported(encoding[0]))
+                                    Log.w(TAG, "Unknown codec \"" + encoding[0] + "\"");
+                                setTrackEncoding(currentTrack, encoding[0]);
                             }
                         }
                     }
@@ -870,6 +1253,13 @@ public class RtspClient {
                     case "sprop-vps" -> {
                         videoTrack.vps = getNalUnitFromSprop(pair.second);
                     }
+                    case "sprop-max-don-diff" -> {
+                        try {
+                            videoTrack.maxDonDiff = Integer.parseInt(pair.second.trim());
+                        } catch (NumberFormatException e) {
+                            Log.e(TAG, "Failed to parse sprop-max-don-diff \"" + pair.second + "\"");
+                        }
+                    }
                     case "sprop-parameter-sets" -> {
                         String[] paramsSpsPps = TextUtils.split(pair.second, ",");
                         if (paramsSpsPps.length > 1) {
@@ -882,11 +1272,28 @@ public class RtspClient {
         }
     }
 
+    private static int getSdpIntParam(@NonNull Pair<String, String> param) {
+        try {
+            return Integer.parseInt(param.second.trim());
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Failed to parse " + param.first + " \"" + param.second + "\"");
+            return 0;
+        }
+    }
+
     @NonNull
     private static byte[] getBytesFromHexString(@NonNull String config) {
         return new BigInteger(config ,16).toByteArray();
     }
 
+    // Codec specific fix-ups (clock rate of static payload types, Opus) are left to the depacketizer factory
+    private static void setTrackEncoding(@NonNull Track track, @NonNull String encoding) {
+        track.encoding = encoding.toLowerCase();
+        RtpDepacketizerRegistry.Factory factory = RtpDepacketizerRegistry.getFactory(track.encoding);
+        if (factory != null)
+            factory.configureTrack(track);
+    }
+
     private static void updateAudioTrackFromDescribeParam(@NonNull AudioTrack audioTrack, @NonNull Pair<String, String> param) {
        List<Pair<String, String>> params = getSdpAParams(param);
         if (params != null) {
@@ -894,36 +1301,28 @@ public class RtspClient {
                 switch (pair.first.toLowerCase()) {
                     case "mode" -> audioTrack.mode = pair.second;
                     case "config" -> audioTrack.config = getBytesFromHexString(pair.second);
+                    case "sizelength" -> audioTrack.sizeLength = getSdpIntParam(pair);
+                    case "indexlength" -> audioTrack.indexLength = getSdpIntParam(pair);
+                    case "indexdeltalength" -> audioTrack.indexDeltaLength = getSdpIntParam(pair);
+                    case "sprop-stereo" -> audioTrack.channels = "1".equals(pair.second.trim()) ? 2 : 1;
                 }
             }
         }
     }
     @Nullable
-    private static String getHeaderContentBase(@NonNull ArrayList<Pair<String, String>> headers) {
-        String contentBase = getHeader(headers, "content-base");
+    static String getHeaderContentBase(@NonNull RtspResponse response) {
+        String contentBase = response.getHeader("Content-Base");
         if (!TextUtils.isEmpty(contentBase)) {
             return contentBase;
         }
         return null;
     }
 
-    private static int getHeaderContentLength(@NonNull ArrayList<Pair<String, String>> headers) {
-        String length = getHeader(headers, "content-length");
-        if (!TextUtils.isEmpty(length)) {
-            try {
-                return Integer.parseInt(length);
-            } catch (NumberFormatException ignored) {
-            }
-        }
-        return -1;
-    }
-
-    private static int getSupportedCapabilities(@NonNull ArrayList<Pair<String, String>> headers) {
-        for (Pair<String, String> head: headers) {
-            String h = head.first.toLowerCase();
-            if ("public".equals(h)) {
+    static int getSupportedCapabilities(@NonNull RtspResponse response) {
+        for (int i = 0; i < response.getHeaderCount(); i++) {
+            if ("Public".equalsIgnoreCase(response.getHeaderName(i))) {
                 int mask = 0;
-                String[] tokens = TextUtils.split(head.second.toLowerCase(), ",");
+                String[] tokens = TextUtils.split(response.getHeaderValue(i).toLowerCase(), ",");
                 for (String token: tokens) {
                     switch (token.trim()) {
                         case "options" -> mask |= RTSP_CAPABILITY_OPTIONS;
@@ -946,11 +1345,11 @@ public class RtspClient {
     }
 
     @Nullable
-    private static Pair<String, String> getHeaderWwwAuthenticateDigestRealmAndNonce(@NonNull ArrayList<Pair<String, String>> headers) {
-        for (Pair<String, String> head: headers) {
-            String h = head.first.toLowerCase();
-            if ("www-authenticate".equals(h) && head.second.toLowerCase().startsWith("digest")) {
-                String v = head.second.substring(7).trim();
+    static Pair<String, String> getHeaderWwwAuthenticateDigestRealmAndNonce(@NonNull RtspResponse response) {
+        for (int i = 0; i < response.getHeaderCount(); i++) {
+            String value = response.getHeaderValue(i);
+            if ("WWW-Authenticate".equalsIgnoreCase(response.getHeaderName(i)) && value.regionMatches(true, 0, "digest", 0, 6)) {
+                String v = value.substring(7).trim();
                 int begin, end;
 
                 begin = v.indexOf("realm=");
@@ -970,11 +1369,10 @@ public class RtspClient {
     }
 
     @Nullable
-    private static String getHeaderWwwAuthenticateBasicRealm(@NonNull ArrayList<Pair<String, String>> headers) {
-        for (Pair<String, String> head: headers) {
-            String h = head.first.toLowerCase();
-            String v = head.second.toLowerCase();
-            if ("www-authenticate".equals(h) && v.startsWith("basic")) {
+    static String getHeaderWwwAuthenticateBasicRealm(@NonNull RtspResponse response) {
+        for (int i = 0; i < response.getHeaderCount(); i++) {
+            String v = response.getHeaderValue(i).toLowerCase();
+            if ("WWW-Authenticate".equalsIgnoreCase(response.getHeaderName(i)) && v.startsWith("basic")) {
                 v = v.substring(6).trim();
                 String[] tokens = TextUtils.split(v, "\"");
                 if (tokens.length > 2)
@@ -984,12 +1382,12 @@ public class RtspClient {
         return null;
     }
     @NonNull
-    private static String getBasicAuthHeader(@Nullable String username, @Nullable String password) {
+    static String getBasicAuthHeader(@Nullable String username, @Nullable String password) {
         String auth = (username == null ? "" : username) + ":" + (password == null ? "" : password);
         return "Basic " + new String(Base64.encode(auth.getBytes(StandardCharsets.ISO_8859_1), Base64.NO_WRAP));
     }
     @Nullable
-    private static String getDigestAuthHeader(
+    static String getDigestAuthHeader(
             @Nullable String username,
             @Nullable String password,
             @NonNull String method,
@@ -1037,14 +1435,6 @@ public class RtspClient {
         return buf.toString();
     }
 
-    @NonNull
-    private static String readContentAsText(@NonNull InputStream inputStream, int length) throws IOException {
-        if (length <= 0)
-            return "";
-        byte[] b = new byte[length];
-        int read = readData(inputStream, b, 0, length);
-        return new String(b, 0, read);
-    }
     public static boolean memcmp(
             @NonNull byte[] source1,
             int offsetSource1,
@@ -1063,88 +1453,23 @@ public class RtspClient {
         return true;
     }
 
-    private static void shiftLeftArray(@NonNull byte[] array, int num) {
-        if (num - 1 >= 0)
-            System.arraycopy(array, 1, array, 0, num - 1);
-    }
-
-    private boolean readUntilBytesFound(@NonNull InputStream inputStream, @NonNull byte[] array) throws IOException {
-        byte[] buffer = new byte[array.length];
-        if (NetUtils.readData(inputStream, buffer, 0, buffer.length) != buffer.length)
-            return false;
-
-        while (true) {
-            if (memcmp(buffer, 0, array, 0, buffer.length)) {
-                return true;
-            }
-            shiftLeftArray(buffer, buffer.length);
-            if (NetUtils.readData(inputStream, buffer, buffer.length - 1, 1) != 1) {
-                return false; // EOF
-            }
-        }
-    }
-
-    @Nullable
-    private String readLine(@NonNull InputStream inputStream) throws IOException {
-        byte[] bufferLine = new byte[MAX_LINE_SIZE];
-        int offset = 0;
-        int readBytes;
-        do {
-            if (offset >= MAX_LINE_SIZE) {
-                throw new NoResponseHeadersException();
-            }
-            readBytes = inputStream.read(bufferLine, offset, 1);
-            if (readBytes == 1) {
-                if (offset > 0 && bufferLine[offset] == '\n') {
-                    if (offset == 1)
-                        return "";
-                    return new String(bufferLine, 0, offset-1);
-                } else {
-                    offset++;
-                }
-            }
-        } while (readBytes > 0 );
-        return null;
-    }
-
-    private static int readData(@NonNull InputStream inputStream, @NonNull byte[] buffer, int offset, int length) throws IOException {
-        if (DEBUG) Log.v(TAG, "readData(offset=" + offset + ", length=" + length + ")");
-        int readBytes;
-        int totalReadBytes = 0;
-        do {
-            readBytes = inputStream.read(buffer, offset + totalReadBytes, length - totalReadBytes);
-            if (readBytes > 0)
-                totalReadBytes += readBytes;
-        } while (readBytes >= 0 && totalReadBytes < length);
-        return totalReadBytes;
-    }
-
-    private static void dumpHeaders(@NonNull ArrayList<Pair<String, String>> headers) {
+    static void dumpHeaders(@NonNull RtspResponse response) {
         if (true) {
-            for (Pair<String, String> head : headers) {
-                Log.d(TAG, head.first + ": " + head.second);
+            for (int i = 0; i < response.getHeaderCount(); i++) {
+                Log.d(TAG, response.getHeaderName(i) + ": " + response.getHeaderValue(i));
             }
         }
     }
 
-    @Nullable
-    private static String getHeader(@NonNull ArrayList<Pair<String, String>> headers, @NonNull String header) {
-        for (Pair<String, String> head: headers) {
-            String h = head.first.toLowerCase();
-            if (header.toLowerCase().equals(h)) {
-                return head.second;
-            }
-        }
-        return null;
-    }
-
     public static class Builder {
 
         private static final String DEFAULT_USER_AGENT = "Lavf58.29.100";
 
-        private final @NonNull Socket rtspSocket;
+        private final @Nullable Socket rtspSocket;
         private final @NonNull String uriRtsp;
         private final @NonNull RtspClientListener listener;
+        private @Nullable RtspClientRtcpListener rtcpListener = null;
+        private @Nullable OnvifMetadataParser.MetadataListener metadataListener = null;
         private boolean requestVideo = true;
         private boolean requestAudio = true;
         private boolean requestApplication = true;
@@ -1152,6 +1477,9 @@ public class RtspClient {
         private @Nullable String username = null;
         private @Nullable String password = null;
         private @Nullable String userAgent = DEFAULT_USER_AGENT;
+        private int jitterBufferLatencyMs = 0;
+        private int transport = TRANSPORT_TCP;
+        private boolean fastStart = false;
 
         public Builder(
                 @NonNull Socket rtspSocket,
@@ -1162,6 +1490,17 @@ public class RtspClient {
             this.listener = listener;
         }
 
+        /**
+         * Client without a connected socket, to be started by {@link RtspSessionEngine}.
+         */
+        public Builder(
+                @NonNull String uriRtsp,
+                @NonNull RtspClientListener listener) {
+            this.rtspSocket = null;
+            this.uriRtsp = uriRtsp;
+            this.listener = listener;
+        }
+
         @NonNull
         public Builder withDebug(boolean debug) {
             this.debug = debug;
@@ -1181,6 +1520,45 @@ public class RtspClient {
             return this;
         }
 
+        // Max time in msec to hold packets for reordering. 0 only detects packet loss.
+        @NonNull
+        public Builder withJitterBufferLatency(int latencyMs) {
+            this.jitterBufferLatencyMs = latencyMs;
+            return this;
+        }
+
+        @NonNull
+        public Builder withRtcpListener(@Nullable RtspClientRtcpListener rtcpListener) {
+            this.rtcpListener = rtcpListener;
+            return this;
+        }
+
+        // Parses ONVIF metadata of the application track into events and analytics objects.
+        // Raw payloads are still passed to onRtspApplicationDataReceived().
+        @NonNull
+        public Builder withMetadataListener(@Nullable OnvifMetadataParser.MetadataListener metadataListener) {
+            this.metadataListener = metadataListener;
+            return this;
+        }
+
+        // TRANSPORT_TCP (interleaved), TRANSPORT_UDP or TRANSPORT_UDP_MULTICAST. UDP transports fall
+        // back to TCP if the server rejects them. Multicast on Wi-Fi requires the app to hold
+        // a WifiManager.MulticastLock.
+        @NonNull
+        public Builder withTransport(int transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        // Skips OPTIONS if the capabilities of the URI are cached from an earlier connection, and
+        // sends SETUP of all tracks after the first one together with PLAY without waiting for
+        // each response. Only with TRANSPORT_TCP, some servers do not accept pipelined requests.
+        @NonNull
+        public Builder withFastStart(boolean fastStart) {
+            this.fastStart = fastStart;
+            return this;
+        }
+
         @NonNull
         public Builder requestVideo(boolean requestVideo) {
             this.requestVideo = requestVideo;
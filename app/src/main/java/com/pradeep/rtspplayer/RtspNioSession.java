@@ -0,0 +1,461 @@
+package com.pradeep.rtspplayer;
+
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.pradeep.rtspplayer.parser.RtpInterleavedDemuxer;
+import com.pradeep.rtspplayer.parser.RtspResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * Non-blocking RTSP session driven by {@link RtspSessionEngine}.
+ * <p>
+ * The host is resolved by {@link #resolve()} before the session is handed to the selector thread.
+ * Connect, OPTIONS, DESCRIBE, SETUP of every track, PLAY and the interleaved RTP ingest run as
+ * a state machine on the engine's selector thread. Responses and RTP frames are separated by
+ * the same {@link RtpInterleavedDemuxer} the blocking client uses. Media is always requested
+ * as interleaved RTP over the RTSP connection.
+ */
+final class RtspNioSession {
+
+    private static final String TAG = RtspNioSession.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_OPTIONS = 1;
+    private static final int STATE_DESCRIBE = 2;
+    private static final int STATE_SETUP = 3;
+    private static final int STATE_PLAY = 4;
+    private static final int STATE_PLAYING = 5;
+    private static final int STATE_CLOSED = 6;
+
+    private static final int DEFAULT_RTSP_PORT = 554;
+    private static final int RESPONSE_TIMEOUT_MS = 5000;
+    private static final int MAX_READS_PER_WAKEUP = 4;
+    private static final int INITIAL_OUTPUT_BUFFER_SIZE = 2048;
+
+    private final @NonNull RtspClient client;
+    private final @NonNull RtspClient.RtspClientListener listener;
+    private final @NonNull RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer();
+    private final @NonNull RtspResponse response = new RtspResponse();
+    private final @NonNull ChannelOutputStream outputStream = new ChannelOutputStream();
+    private final @NonNull RtspRequestWriter requestWriter;
+    // Set by resolve(), exactly one of them
+    private @Nullable InetSocketAddress address;
+    private @Nullable Exception resolveError;
+    private @Nullable SocketChannel channel;
+    private @Nullable SelectionKey key;
+    private int state = STATE_CONNECTING;
+    private long stateTimeMs;
+
+    private @NonNull String uriRtsp;
+    private int cSeq = 0;
+    private @Nullable String authToken;
+    private @Nullable Pair<String, String> digestRealmNonce;
+    private boolean authRetried = false;
+    private int capabilities = RtspClient.RTSP_CAPABILITY_NONE;
+    private @NonNull RtspClient.SdpInfo sdpInfo = new RtspClient.SdpInfo();
+    private int setupIndex = -1;
+    private @Nullable RtspClient.Track setupTrack;
+    private @Nullable String session;
+    private int sessionTimeout = RtspClient.DEFAULT_SESSION_TIMEOUT;
+    private long keepAliveSentMs;
+    private @Nullable RtspClient.MediaChannelHandler[] handlers;
+    private final @NonNull ArrayList<RtspClient.RtpChannelHandler> rtpHandlers = new ArrayList<>();
+    private final @NonNull ArrayList<RtspClient.RtcpChannelHandler> rtcpHandlers = new ArrayList<>();
+
+    RtspNioSession(@NonNull RtspClient client) {
+        this.client = client;
+        listener = client.listener;
+        uriRtsp = client.uriRtsp;
+        requestWriter = new RtspRequestWriter(client.userAgent);
+        demuxer.setRtspResponseListener(new RtpInterleavedDemuxer.RtspResponseListener() {
+            @Override
+            public void onRtspResponse(int statusCode, int cSeq, @NonNull byte[] data, int offset, int length) {
+                onResponse(statusCode, cSeq, data, offset, length);
+            }
+
+            @Override
+            public void onRtspResponseTooLarge() {
+                // The request would otherwise only fail with the response timeout
+                if (state != STATE_PLAYING)
+                    fail(new IOException("RTSP response larger than the receive buffer"));
+            }
+        });
+    }
+
+    /**
+     * Blocking DNS lookup of the RTSP server. Called off the selector thread, before {@link #open}.
+     */
+    void resolve() {
+        try {
+            URI uri = URI.create(uriRtsp);
+            if (uri.getHost() == null)
+                throw new UnknownHostException("No host in " + uriRtsp);
+            int port = uri.getPort() == -1 ? DEFAULT_RTSP_PORT : uri.getPort();
+            address = new InetSocketAddress(InetAddress.getByName(uri.getHost()), port);
+        } catch (Exception e) {
+            resolveError = e;
+        }
+    }
+
+    void open(@NonNull Selector selector, long nowMs) {
+        listener.onRtspConnecting();
+        setState(STATE_CONNECTING, nowMs);
+        if (address == null) {
+            fail(resolveError != null ? resolveError : new UnknownHostException(uriRtsp));
+            return;
+        }
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(address);
+            key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (connected)
+                onConnected();
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    void onSelected(@NonNull SelectionKey selectedKey) {
+        try {
+            if (selectedKey.isConnectable() && channel != null && channel.finishConnect()) {
+                selectedKey.interestOps(SelectionKey.OP_READ);
+                onConnected();
+            }
+            if (selectedKey.isValid() && selectedKey.isWritable())
+                outputStream.flush();
+            if (selectedKey.isValid() && selectedKey.isReadable())
+                onReadable();
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Timeouts, close requests, jitter buffers, keep-alive and RTCP reports. Called on every engine iteration.
+     */
+    void onTick(long nowMs) {
+        if (state == STATE_CLOSED)
+            return;
+        if (client.isCloseRequested()) {
+            close();
+            return;
+        }
+        try {
+            if (state != STATE_PLAYING) {
+                if (nowMs - stateTimeMs > RESPONSE_TIMEOUT_MS)
+                    throw new SocketTimeoutException("RTSP server did not respond in " + RESPONSE_TIMEOUT_MS + " ms");
+                return;
+            }
+            for (RtspClient.RtpChannelHandler rtpHandler : rtpHandlers)
+                rtpHandler.drainJitterBuffer(nowMs);
+            int keepAliveTimeout = sessionTimeout / 2 * 1000;
+            if (keepAliveTimeout > 0 && nowMs - keepAliveSentMs > keepAliveTimeout) {
+                keepAliveSentMs = nowMs;
+                sendKeepAlive();
+            }
+            for (RtspClient.RtcpChannelHandler rtcpHandler : rtcpHandlers)
+                rtcpHandler.sendReportIfDue(nowMs);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    boolean isClosed() {
+        return state == STATE_CLOSED;
+    }
+
+    /**
+     * Sends TEARDOWN if streaming and releases the connection.
+     */
+    void close() {
+        if (state == STATE_CLOSED)
+            return;
+        listener.onRtspDisconnecting();
+        if (state == STATE_PLAYING && RtspClient.hasCapability(RtspClient.RTSP_CAPABILITY_TEARDOWN, capabilities)) {
+            try {
+                // Best effort, the socket is closed right after
+                requestWriter.teardown(uriRtsp, nextCSeq(), getAuthToken("TEARDOWN", uriRtsp));
+                requestWriter.send(outputStream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        release();
+        listener.onRtspDisconnected();
+    }
+
+    private void fail(@NonNull Exception e) {
+        if (state == STATE_CLOSED)
+            return;
+        e.printStackTrace();
+        release();
+        if (e instanceof RtspClient.UnauthorizedException)
+            listener.onRtspFailedUnauthorized();
+        else
+            listener.onRtspFailed(e.getMessage());
+    }
+
+    private void release() {
+        state = STATE_CLOSED;
+        if (key != null)
+            key.cancel();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void onConnected() throws IOException {
+        if (DEBUG)
+            Log.d(TAG, "Connected to " + uriRtsp);
+        setState(STATE_OPTIONS, System.currentTimeMillis());
+        requestWriter.options(uriRtsp, nextCSeq(), authToken);
+        requestWriter.send(outputStream);
+    }
+
+    private void onReadable() throws IOException {
+        if (channel == null)
+            return;
+        for (int i = 0; i < MAX_READS_PER_WAKEUP && state != STATE_CLOSED; i++) {
+            int readBytes = demuxer.read(channel);
+            if (readBytes < 0)
+                throw new EOFException("RTSP connection closed");
+            if (readBytes == 0)
+                break;
+            byte[] data = demuxer.getBuffer();
+            while (state != STATE_CLOSED && demuxer.nextFrame()) {
+                if (handlers == null)
+                    continue;
+                RtspClient.MediaChannelHandler handler = handlers[demuxer.getChannel()];
+                if (handler != null)
+                    handler.onPacket(data, demuxer.getFrameOffset(), demuxer.getFrameLength());
+            }
+        }
+    }
+
+    private void onResponse(int statusCode, int responseCSeq, @NonNull byte[] data, int offset, int length) {
+        if (state == STATE_CLOSED)
+            return;
+        if (responseCSeq != -1 && responseCSeq != cSeq) {
+            if (DEBUG)
+                Log.d(TAG, "Ignored response to CSeq " + responseCSeq + " (expected " + cSeq + ")");
+            return;
+        }
+        try {
+            response.parse(data, offset, length);
+            onResponse(statusCode, response);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void onResponse(int status, @NonNull RtspResponse response) throws IOException {
+        if (client.debug)
+            RtspClient.dumpHeaders(response);
+        long nowMs = System.currentTimeMillis();
+        switch (state) {
+            case STATE_OPTIONS -> {
+                if (status == 401 && retryWithAuthorization(response)) {
+                    requestWriter.options(uriRtsp, nextCSeq(), getAuthToken("OPTIONS", uriRtsp));
+                    requestWriter.send(outputStream);
+                    setState(STATE_OPTIONS, nowMs);
+                    return;
+                }
+                Log.i(TAG, "OPTIONS status: " + status);
+                RtspClient.checkStatusCode(status);
+                capabilities = RtspClient.getSupportedCapabilities(response);
+                authRetried = false;
+                setState(STATE_DESCRIBE, nowMs);
+                requestWriter.describe(uriRtsp, nextCSeq(), getAuthToken("DESCRIBE", uriRtsp));
+                requestWriter.send(outputStream);
+            }
+            case STATE_DESCRIBE -> {
+                if (status == 401 && retryWithAuthorization(response)) {
+                    requestWriter.describe(uriRtsp, nextCSeq(), getAuthToken("DESCRIBE", uriRtsp));
+                    requestWriter.send(outputStream);
+                    setState(STATE_DESCRIBE, nowMs);
+                    return;
+                }
+                RtspClient.checkStatusCode(status);
+                String contentBaseUri = RtspClient.getHeaderContentBase(response);
+                if (contentBaseUri != null)
+                    uriRtsp = contentBaseUri;
+                if (!response.getContent().isEmpty())
+                    sdpInfo = client.getRequestedSdpInfo(response.getContent());
+                sendNextSetup(nowMs);
+            }
+            case STATE_SETUP -> {
+                RtspClient.checkStatusCode(status);
+                if (setupTrack != null)
+                    RtspClient.updateTrackChannelsFromTransport(setupTrack, response.getHeader("Transport"));
+                session = RtspClient.getHeaderSession(response);
+                sessionTimeout = RtspClient.getHeaderSessionTimeout(response, sessionTimeout);
+                if (TextUtils.isEmpty(session))
+                    throw new IOException("Failed to get RTSP session");
+                requestWriter.setSession(session);
+                sendNextSetup(nowMs);
+            }
+            case STATE_PLAY -> {
+                Log.i(TAG, "PLAY status: " + status);
+                RtspClient.checkStatusCode(status);
+                startStreaming(nowMs);
+            }
+            case STATE_PLAYING -> {
+                if (status != 200)
+                    Log.w(TAG, "Keep-alive request failed with status " + status);
+            }
+            default -> Log.w(TAG, "Unexpected RTSP response in state " + state);
+        }
+    }
+
+    // SETUP of the next track, or PLAY once all tracks are set up
+    private void sendNextSetup(long nowMs) throws IOException {
+        while (++setupIndex < 3) {
+            RtspClient.Track track = switch (setupIndex) {
+                case 0 -> sdpInfo.videoTrack;
+                case 1 -> sdpInfo.audioTrack;
+                default -> sdpInfo.applicationTrack;
+            };
+            if (track == null)
+                continue;
+            String uriRtspSetup = RtspClient.getUriForSetup(uriRtsp, track);
+            if (uriRtspSetup == null) {
+                Log.e(TAG, "Failed to get RTSP URI for SETUP");
+                continue;
+            }
+            track.rtpChannel = setupIndex * 2;
+            track.rtcpChannel = setupIndex * 2 + 1;
+            setupTrack = track;
+            setState(STATE_SETUP, nowMs);
+            requestWriter.setup(
+                    uriRtspSetup,
+                    nextCSeq(),
+                    getAuthToken("SETUP", uriRtspSetup),
+                    "RTP/AVP/TCP;unicast;interleaved=" + track.rtpChannel + "-" + track.rtcpChannel);
+            requestWriter.send(outputStream);
+            return;
+        }
+        if (TextUtils.isEmpty(session))
+            throw new IOException("Failed to get any media track");
+        setState(STATE_PLAY, nowMs);
+        requestWriter.play(uriRtsp, nextCSeq(), getAuthToken("PLAY", uriRtsp));
+        requestWriter.send(outputStream);
+    }
+
+    private void startStreaming(long nowMs) throws IOException {
+        setState(STATE_PLAYING, nowMs);
+        keepAliveSentMs = nowMs;
+        listener.onRtspConnected(sdpInfo);
+        handlers = RtspClient.createChannelHandlers(
+                sdpInfo,
+                listener,
+                client.rtcpListener,
+                client.metadataListener,
+                client.jitterBufferLatencyMs,
+                outputStream,
+                null,
+                new DatagramChannel[3][],
+                rtpHandlers,
+                rtcpHandlers);
+    }
+
+    private void sendKeepAlive() throws IOException {
+        if (RtspClient.hasCapability(RtspClient.RTSP_CAPABILITY_GET_PARAMETER, capabilities))
+            requestWriter.getParameter(uriRtsp, nextCSeq(), getAuthToken("GET_PARAMETER", uriRtsp));
+        else
+            requestWriter.options(uriRtsp, nextCSeq(), getAuthToken("OPTIONS", uriRtsp), true);
+        requestWriter.send(outputStream);
+    }
+
+    // Picks Basic or Digest authentication from a 401 response. Returns false if already retried.
+    private boolean retryWithAuthorization(@NonNull RtspResponse response) throws IOException {
+        if (authRetried)
+            return false;
+        authRetried = true;
+        digestRealmNonce = RtspClient.getHeaderWwwAuthenticateDigestRealmAndNonce(response);
+        if (digestRealmNonce == null) {
+            String basicRealm = RtspClient.getHeaderWwwAuthenticateBasicRealm(response);
+            if (TextUtils.isEmpty(basicRealm))
+                throw new IOException("Unknown authentication type");
+            authToken = RtspClient.getBasicAuthHeader(client.username, client.password);
+        }
+        return true;
+    }
+
+    @Nullable
+    private String getAuthToken(@NonNull String method, @NonNull String uri) {
+        if (digestRealmNonce != null)
+            return RtspClient.getDigestAuthHeader(client.username, client.password, method, uri, digestRealmNonce.first, digestRealmNonce.second);
+        return authToken;
+    }
+
+    private int nextCSeq() {
+        return ++cSeq;
+    }
+
+    private void setState(int state, long nowMs) {
+        this.state = state;
+        stateTimeMs = nowMs;
+    }
+
+    // Collects request bytes and writes them to the non-blocking socket on flush(). Whatever the
+    // socket does not accept right away is written when it becomes writable again.
+    private final class ChannelOutputStream extends OutputStream {
+        private @NonNull ByteBuffer pending = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE);
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            pending.put((byte) b);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            ensureCapacity(len);
+            pending.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (channel == null || !channel.isConnected() || key == null || !key.isValid())
+                return;
+            pending.flip();
+            channel.write(pending);
+            pending.compact();
+            key.interestOps(pending.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void ensureCapacity(int length) {
+            if (pending.remaining() >= length)
+                return;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.pradeep.rtspplayer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes RTSP requests of one connection into a reused buffer. Method names, header names and
+ * line ends are encoded once per process, the User-Agent and Session header lines once per
+ * connection. Requests are collected until {@link #send(OutputStream)} writes them with a single
+ * write, so pipelined requests leave in one segment.
+ */
+final class RtspRequestWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final byte[] OPTIONS = ascii("OPTIONS ");
+    private static final byte[] DESCRIBE = ascii("DESCRIBE ");
+    private static final byte[] SETUP = ascii("SETUP ");
+    private static final byte[] PLAY = ascii("PLAY ");
+    private static final byte[] GET_PARAMETER = ascii("GET_PARAMETER ");
+    private static final byte[] TEARDOWN = ascii("TEARDOWN ");
+    private static final byte[] RTSP_VERSION = ascii(" RTSP/1.0\r\n");
+    private static final byte[] ACCEPT_SDP = ascii("Accept: application/sdp\r\n");
+    private static final byte[] RANGE_FROM_START = ascii("Range: npt=0.000-\r\n");
+    private static final byte[] TRANSPORT = ascii("Transport: ");
+    private static final byte[] AUTHORIZATION = ascii("Authorization: ");
+    private static final byte[] CSEQ = ascii("CSeq: ");
+    private static final byte[] CRLF = ascii("\r\n");
+
+    private @NonNull ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final @Nullable byte[] userAgentHeader;
+    private @Nullable String session;
+    private @Nullable byte[] sessionHeader;
+
+    RtspRequestWriter(@Nullable String userAgent) {
+        userAgentHeader = userAgent != null ? ("User-Agent: " + userAgent + "\r\n").getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    // Added to SETUP, PLAY, GET_PARAMETER, TEARDOWN and keep-alive OPTIONS once known
+    void setSession(@Nullable String session) {
+        if (session == null ? this.session == null : session.equals(this.session))
+            return;
+        this.session = session;
+        sessionHeader = session != null ? ("Session: " + session + "\r\n").getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    void options(@NonNull String uri, int cSeq, @Nullable String authToken) {
+        options(uri, cSeq, authToken, false);
+    }
+
+    // With session as keep-alive, needed when media does not flow over the RTSP connection
+    void options(@NonNull String uri, int cSeq, @Nullable String authToken, boolean withSession) {
+        startRequest(OPTIONS, uri);
+        endRequest(cSeq, authToken, withSession);
+    }
+
+    void describe(@NonNull String uri, int cSeq, @Nullable String authToken) {
+        startRequest(DESCRIBE, uri);
+        put(ACCEPT_SDP);
+        endRequest(cSeq, authToken, false);
+    }
+
+    void setup(@NonNull String uri, int cSeq, @Nullable String authToken, @NonNull String transport) {
+        startRequest(SETUP, uri);
+        put(TRANSPORT);
+        put(transport);
+        put(CRLF);
+        endRequest(cSeq, authToken, true);
+    }
+
+    void play(@NonNull String uri, int cSeq, @Nullable String authToken) {
+        startRequest(PLAY, uri);
+        put(RANGE_FROM_START);
+        endRequest(cSeq, authToken, true);
+    }
+
+    void getParameter(@NonNull String uri, int cSeq, @Nullable String authToken) {
+        startRequest(GET_PARAMETER, uri);
+        endRequest(cSeq, authToken, true);
+    }
+
+    void teardown(@NonNull String uri, int cSeq, @Nullable String authToken) {
+        startRequest(TEARDOWN, uri);
+        endRequest(cSeq, authToken, true);
+    }
+
+    // Writes all requests encoded since the last call
+    void send(@NonNull OutputStream outputStream) throws IOException {
+        if (buffer.position() == 0)
+            return;
+        outputStream.write(buffer.array(), 0, buffer.position());
+        outputStream.flush();
+        buffer.clear();
+    }
+
+    private void startRequest(@NonNull byte[] method, @NonNull String uri) {
+        put(method);
+        put(uri);
+        put(RTSP_VERSION);
+    }
+
+    private void endRequest(int cSeq, @Nullable String authToken, boolean withSession) {
+        if (authToken != null) {
+            put(AUTHORIZATION);
+            put(authToken);
+            put(CRLF);
+        }
+        put(CSEQ);
+        putInt(cSeq);
+        put(CRLF);
+        if (userAgentHeader != null)
+            put(userAgentHeader);
+        if (withSession && sessionHeader != null)
+            put(sessionHeader);
+        put(CRLF);
+    }
+
+    private void put(@NonNull byte[] data) {
+        ensureCapacity(data.length);
+        buffer.put(data);
+    }
+
+    // ASCII is copied char by char, anything else goes through the UTF-8 encoder
+    private void put(@NonNull String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        int start = buffer.position();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                buffer.position(start);
+                put(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(11);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            buffer.put((byte) ('0' + value / divisor % 10));
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() >= length)
+            return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    @NonNull
+    private static byte[] ascii(@NonNull String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
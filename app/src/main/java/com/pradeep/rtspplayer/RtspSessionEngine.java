@@ -0,0 +1,135 @@
+package com.pradeep.rtspplayer;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs many RTSP sessions on a fixed number of selector threads.
+ * <p>
+ * Every session is a non-blocking state machine (see {@link RtspNioSession}), so the number of
+ * threads stays the same however many cameras are played. Sessions are spread over the threads
+ * round-robin. Listener callbacks are invoked on the selector thread and must not block.
+ * <p>
+ * Host names are resolved on a separate small pool before a session reaches its selector thread,
+ * so a slow or failing DNS lookup only delays that session.
+ */
+public class RtspSessionEngine implements Closeable {
+
+    private static final String TAG = RtspSessionEngine.class.getSimpleName();
+
+    private static final int SELECT_TIMEOUT_MS = 100;
+    private static final int RESOLVER_THREAD_COUNT = 2;
+
+    private final @NonNull Worker[] workers;
+    private final @NonNull ExecutorService resolver;
+    private int nextWorker = 0;
+
+    public RtspSessionEngine(int threadCount) throws IOException {
+        workers = new Worker[Math.max(1, threadCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("RtspSessionEngine-" + i);
+            workers[i].start();
+        }
+        resolver = Executors.newFixedThreadPool(RESOLVER_THREAD_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "RtspSessionEngine-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a session for a client built with
+     * {@link RtspClient.Builder#Builder(String, RtspClient.RtspClientListener)}. The session runs
+     * until {@link RtspClient#closeSocketConnect()}, an error or {@link #close()}.
+     */
+    public synchronized void start(@NonNull RtspClient client) {
+        Worker worker = workers[nextWorker];
+        nextWorker = (nextWorker + 1) % workers.length;
+        RtspNioSession session = new RtspNioSession(client);
+        resolver.execute(() -> {
+            session.resolve();
+            worker.add(session);
+        });
+    }
+
+    /**
+     * Closes all sessions and stops the threads.
+     */
+    @Override
+    public void close() {
+        resolver.shutdownNow();
+        for (Worker worker : workers)
+            worker.shutdown();
+    }
+
+    private static final class Worker extends Thread {
+        private final @NonNull Selector selector;
+        private final @NonNull ConcurrentLinkedQueue<RtspNioSession> pendingSessions = new ConcurrentLinkedQueue<>();
+        private final @NonNull ArrayList<RtspNioSession> sessions = new ArrayList<>();
+        private volatile boolean running = true;
+
+        Worker(@NonNull String name) throws IOException {
+            super(name);
+            selector = Selector.open();
+        }
+
+        void add(@NonNull RtspNioSession session) {
+            pendingSessions.add(session);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    long nowMs = System.currentTimeMillis();
+                    RtspNioSession session;
+                    while ((session = pendingSessions.poll()) != null) {
+                        sessions.add(session);
+                        session.open(selector, nowMs);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((RtspNioSession) key.attachment()).onSelected(key);
+                    }
+                    for (int i = sessions.size() - 1; i >= 0; i--) {
+                        session = sessions.get(i);
+                        session.onTick(nowMs);
+                        if (session.isClosed())
+                            sessions.remove(i);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Selector failed", e);
+            } finally {
+                for (RtspNioSession session : sessions)
+                    session.close();
+                sessions.clear();
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,28 @@
 package com.pradeep.rtspplayer.parser;
 
-import android.annotation.SuppressLint;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.media3.common.util.ParsableBitArray;
-import androidx.media3.common.util.ParsableByteArray;
 
-@SuppressLint("UnsafeOptInUsageError")
+/**
+ * RFC 3640 (mpeg4-generic) AAC depacketizer. Handles several AUs per packet and AUs fragmented
+ * over several packets. Complete AUs are passed in place from the packet, only fragments are
+ * copied into a reusable buffer.
+ */
 public class AacParser {
-    private final ParsableBitArray headerScratchBits;
-    private final ParsableByteArray headerScratchBytes;
+
+    // Receives one raw AAC frame. The data is only valid during the call.
+    // Index is the AU index relative to the RTP timestamp of the packet (RFC 3640 3.2.3.2),
+    // the frame timestamp is the packet timestamp plus index * 1024 samples.
+    public interface AacFrameListener {
+        void onAacFrame(@NonNull byte[] data, int offset, int length, int index);
+    }
+
+    private static final String TAG = AacParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int SAMPLES_PER_FRAME = 1024;
 
     private static final int MODE_LBR = 0;
     private static final int MODE_HBR = 1;
@@ -19,56 +31,109 @@ public class AacParser {
 
     private static final int[] NUM_BITS_AU_INDEX = {2, 3};
 
-    private final int _aacMode;
-    private boolean completeFrameIndicator = true;
+    private static final int MAX_FRAME_SIZE = 8192;
+
+    private final int numBitsAuSize;
+    private final int numBitsAuIndex;
+    private final int numBitsAuIndexDelta;
+
+    private final byte[] fragmentBuffer = new byte[MAX_FRAME_SIZE];
+    private int fragmentLength = 0;
+    private int fragmentAuSize = 0;
 
     public AacParser(@NonNull String aacMode) {
-        _aacMode = aacMode.equalsIgnoreCase("AAC-lbr") ? MODE_LBR : MODE_HBR;
-        headerScratchBits = new ParsableBitArray();
-        headerScratchBytes = new ParsableByteArray();
+        this(aacMode, 0, 0, 0);
     }
 
-    @Nullable
-    public byte[] processRtpPacketAndGetSample(@NonNull byte[] data, int length) {
-        int auHeadersCount = 1;
-        int numBitsAuSize = NUM_BITS_AU_SIZES[_aacMode];
-        int numBitsAuIndex = NUM_BITS_AU_INDEX[_aacMode];
-        ParsableByteArray packet = new ParsableByteArray(data, length);
-        int auHeadersLength = packet.readShort();//((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
-        int auHeadersLengthBytes = (auHeadersLength + 7) / 8;
-
-        headerScratchBytes.reset(auHeadersLengthBytes);
-        packet.readBytes(headerScratchBytes.getData(), 0, auHeadersLengthBytes);
-        headerScratchBits.reset(headerScratchBytes.getData());
+    /**
+     * @param sizeLength fmtp "sizelength", 0 if not announced
+     */
+    public AacParser(@Nullable String aacMode, int sizeLength, int indexLength, int indexDeltaLength) {
+        int mode = "AAC-lbr".equalsIgnoreCase(aacMode) ? MODE_LBR : MODE_HBR;
+        numBitsAuSize = sizeLength > 0 ? sizeLength : NUM_BITS_AU_SIZES[mode];
+        numBitsAuIndex = sizeLength > 0 ? indexLength : NUM_BITS_AU_INDEX[mode];
+        numBitsAuIndexDelta = sizeLength > 0 ? indexDeltaLength : NUM_BITS_AU_INDEX[mode];
+    }
 
-        int bitsAvailable = auHeadersLength - (numBitsAuSize + numBitsAuIndex);
+    // A partially received AU cannot be completed anymore
+    public void onPacketLoss() {
+        fragmentLength = 0;
+        fragmentAuSize = 0;
+    }
 
-        if (bitsAvailable > 0) {// && (numBitsAuSize + numBitsAuSize) > 0) {
-            auHeadersCount += bitsAvailable / (numBitsAuSize + numBitsAuIndex);
+    public void processRtpPacket(@NonNull byte[] data, int offset, int length, boolean marker, @NonNull AacFrameListener listener) {
+        if (length < 2)
+            return;
+        int auHeadersLength = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        int headersOffset = offset + 2;
+        int position = headersOffset + (auHeadersLength + 7) / 8;
+        int end = offset + length;
+        if (position > end) {
+            Log.w(TAG, "Invalid AU headers length " + auHeadersLength);
+            return;
         }
 
-        if (auHeadersCount == 1) {
-            int auSize = headerScratchBits.readBits(numBitsAuSize);
-            int auIndex = headerScratchBits.readBits(numBitsAuIndex);
-
-            if (completeFrameIndicator) {
-                if (auIndex == 0) {
-                    if (packet.bytesLeft() == auSize) {
-                        return handleSingleAacFrame(packet);
+        if (fragmentAuSize > 0) {
+            processFragment(data, position, end - position, marker, listener);
+            return;
+        }
 
-                    }
+        // AU-index for the first AU header, AU-index-delta for the others (RFC 3640 3.2.1.1)
+        int bitPosition = 0;
+        int index = 0;
+        boolean first = true;
+        while (bitPosition + numBitsAuSize + (first ? numBitsAuIndex : numBitsAuIndexDelta) <= auHeadersLength) {
+            int auSize = readBits(data, headersOffset, bitPosition, numBitsAuSize);
+            bitPosition += numBitsAuSize;
+            if (first) {
+                bitPosition += numBitsAuIndex; // Index of the first AU is relative to the RTP timestamp
+                first = false;
+            } else {
+                index += readBits(data, headersOffset, bitPosition, numBitsAuIndexDelta) + 1;
+                bitPosition += numBitsAuIndexDelta;
+            }
+            int available = end - position;
+            if (auSize > available) {
+                // First fragment of an AU (RFC 3640 3.2.3: only allowed with a single AU header)
+                if (auSize > MAX_FRAME_SIZE) {
+                    Log.w(TAG, "AU of " + auSize + " bytes dropped");
+                    return;
                 }
+                fragmentAuSize = auSize;
+                fragmentLength = 0;
+                processFragment(data, position, available, marker, listener);
+                return;
             }
+            listener.onAacFrame(data, position, auSize, index);
+            position += auSize;
+        }
+    }
 
+    private void processFragment(@NonNull byte[] data, int offset, int length, boolean marker, @NonNull AacFrameListener listener) {
+        if (fragmentLength + length > fragmentAuSize) {
+            Log.w(TAG, "AU fragment exceeds announced size " + fragmentAuSize);
+            onPacketLoss();
+            return;
+        }
+        System.arraycopy(data, offset, fragmentBuffer, fragmentLength, length);
+        fragmentLength += length;
+        if (fragmentLength == fragmentAuSize) {
+            listener.onAacFrame(fragmentBuffer, 0, fragmentLength, 0);
+            onPacketLoss();
+        } else if (marker) {
+            if (DEBUG)
+                Log.d(TAG, "Incomplete AU fragment " + fragmentLength + "/" + fragmentAuSize + " dropped");
+            onPacketLoss();
         }
-        return new byte[0];
     }
 
-    private byte[] handleSingleAacFrame(ParsableByteArray packet) {
-        int length = packet.bytesLeft();
-        byte[] data = new byte[length];
-        System.arraycopy(packet.getData(), packet.getPosition(), data, 0, data.length);
-        return data;
+    private static int readBits(@NonNull byte[] data, int offset, int bitPosition, int numBits) {
+        int value = 0;
+        for (int i = 0; i < numBits; i++) {
+            int bit = bitPosition + i;
+            value = (value << 1) | ((data[offset + (bit >> 3)] >> (7 - (bit & 7))) & 1);
+        }
+        return value;
     }
 
 }
@@ -0,0 +1,241 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Groups the NAL units of one picture (same RTP timestamp, up to the marker bit) into a single
+ * Annex B access unit, so the decoder gets one input buffer per frame.
+ * <p>
+ * Parameter sets are cached and put in front of key frames which do not carry all of them
+ * in-band, e.g. cameras which repeat only the PPS.
+ * The access unit buffer is reused, its data is only valid during the listener call.
+ */
+public class AccessUnitAssembler {
+
+    public interface AccessUnitListener {
+        void onAccessUnit(@NonNull byte[] data, int offset, int length, long timestampUs, int flags);
+    }
+
+    private static final String TAG = AccessUnitAssembler.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int FLAG_KEY_FRAME = 1;
+    // Access unit starts with (or contains) VPS/SPS/PPS
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_BUFFER_SIZE = 32 * 1024 * 1024;
+    private static final int NAL_PREFIX_SIZE = 4;
+
+    private static final int PARAMETER_SET_VPS = 0;
+    private static final int PARAMETER_SET_SPS = 1;
+    private static final int PARAMETER_SET_PPS = 2;
+
+    private final boolean isH265;
+    private final @NonNull AccessUnitListener listener;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length = 0;
+    private int flags = 0;
+    private boolean hasSlice = false;
+    // Set by discard() until the next RTP timestamp
+    private boolean discarding = false;
+    private long rtpTimestamp = -1;
+    private long timestampUs = 0;
+
+    // Latest VPS (H.265 only), SPS and PPS with start code, copied only when they change
+    private final byte[][] parameterSets = new byte[3][];
+    private final int[] parameterSetLengths = new int[3];
+    // Position of the first in-band VPS/SPS/PPS in the current access unit, -1 if none
+    private final int[] parameterSetOffsets = {-1, -1, -1};
+
+    public AccessUnitAssembler(
+            boolean isH265,
+            @Nullable byte[] vps,
+            @Nullable byte[] sps,
+            @Nullable byte[] pps,
+            @NonNull AccessUnitListener listener) {
+        this.isH265 = isH265;
+        this.listener = listener;
+        if (vps != null)
+            updateParameterSet(PARAMETER_SET_VPS, vps, 0, vps.length);
+        if (sps != null)
+            updateParameterSet(PARAMETER_SET_SPS, sps, 0, sps.length);
+        if (pps != null)
+            updateParameterSet(PARAMETER_SET_PPS, pps, 0, pps.length);
+    }
+
+    /**
+     * Called before the NAL units of a packet. A new RTP timestamp completes the current access
+     * unit even if its marker packet was lost.
+     */
+    public void onRtpPacket(long rtpTimestamp, long timestampUs) {
+        if (rtpTimestamp != this.rtpTimestamp) {
+            if (length > 0)
+                flush();
+            discarding = false;
+            this.rtpTimestamp = rtpTimestamp;
+            this.timestampUs = timestampUs;
+        }
+    }
+
+    /**
+     * @param data NAL unit with a 00 00 00 01 start code
+     */
+    public void addNalUnit(@NonNull byte[] data, int offset, int nalLength) {
+        if (nalLength <= NAL_PREFIX_SIZE || discarding)
+            return;
+        byte header = data[offset + NAL_PREFIX_SIZE];
+        int type = isH265 ? (header >> 1) & 0x3F : header & 0x1F;
+        int parameterSet = getParameterSetIndex(type);
+        if (parameterSet >= 0) {
+            updateParameterSet(parameterSet, data, offset, nalLength);
+            if (parameterSetOffsets[parameterSet] < 0)
+                parameterSetOffsets[parameterSet] = length;
+            flags |= FLAG_CODEC_CONFIG;
+        } else if (isSlice(type)) {
+            if (isKeyFrameSlice(type) && (flags & FLAG_KEY_FRAME) == 0) {
+                flags |= FLAG_KEY_FRAME;
+                insertMissingParameterSets();
+            }
+            hasSlice = true;
+        }
+        append(data, offset, nalLength);
+    }
+
+    /**
+     * Called for the marker packet, the last one of a picture.
+     */
+    public void onMarker() {
+        flush();
+        discarding = false;
+    }
+
+    /**
+     * Drops the incomplete access unit, e.g. after packet loss, together with the NAL units of
+     * the same RTP timestamp which are still to come.
+     */
+    public void discard() {
+        reset();
+        discarding = true;
+    }
+
+    private void flush() {
+        // Parameter sets or SEI sent in a packet of their own are kept for the next picture
+        if (hasSlice && length > 0)
+            listener.onAccessUnit(buffer, 0, length, timestampUs, flags);
+        else if (DEBUG && length > 0)
+            Log.d(TAG, "Access unit without slices dropped (" + length + " bytes)");
+        reset();
+    }
+
+    private void reset() {
+        length = 0;
+        flags = 0;
+        hasSlice = false;
+        parameterSetOffsets[PARAMETER_SET_VPS] = -1;
+        parameterSetOffsets[PARAMETER_SET_SPS] = -1;
+        parameterSetOffsets[PARAMETER_SET_PPS] = -1;
+    }
+
+    // Each cached parameter set the access unit lacks goes before the first in-band one which
+    // follows it in VPS, SPS, PPS order, otherwise right before the key slice.
+    private void insertMissingParameterSets() {
+        for (int i = 0; i < parameterSets.length; i++) {
+            if (parameterSets[i] == null || parameterSetOffsets[i] >= 0)
+                continue;
+            int position = length;
+            for (int j = i + 1; j < parameterSets.length; j++) {
+                if (parameterSetOffsets[j] >= 0)
+                    position = Math.min(position, parameterSetOffsets[j]);
+            }
+            if (!insert(position, parameterSets[i], parameterSetLengths[i]))
+                return;
+            for (int j = i + 1; j < parameterSets.length; j++) {
+                if (parameterSetOffsets[j] >= position)
+                    parameterSetOffsets[j] += parameterSetLengths[i];
+            }
+            parameterSetOffsets[i] = position;
+            flags |= FLAG_CODEC_CONFIG;
+        }
+    }
+
+    private void append(@NonNull byte[] data, int offset, int nalLength) {
+        if (!ensureCapacity(nalLength))
+            return;
+        System.arraycopy(data, offset, buffer, length, nalLength);
+        length += nalLength;
+    }
+
+    private boolean insert(int position, @NonNull byte[] data, int nalLength) {
+        if (!ensureCapacity(nalLength))
+            return false;
+        System.arraycopy(buffer, position, buffer, position + nalLength, length - position);
+        System.arraycopy(data, 0, buffer, position, nalLength);
+        length += nalLength;
+        return true;
+    }
+
+    private boolean ensureCapacity(int nalLength) {
+        if (length + nalLength <= buffer.length)
+            return true;
+        if (length + nalLength > MAX_BUFFER_SIZE) {
+            Log.w(TAG, "Access unit larger than " + MAX_BUFFER_SIZE + " bytes dropped");
+            discard();
+            return false;
+        }
+        byte[] newBuffer = new byte[Math.min(MAX_BUFFER_SIZE, Math.max(buffer.length * 2, length + nalLength))];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        buffer = newBuffer;
+        return true;
+    }
+
+    private void updateParameterSet(int index, @NonNull byte[] data, int offset, int nalLength) {
+        byte[] parameterSet = parameterSets[index];
+        if (parameterSet != null && parameterSetLengths[index] == nalLength && equals(parameterSet, data, offset, nalLength))
+            return;
+        if (parameterSet == null || parameterSet.length < nalLength) {
+            parameterSet = new byte[nalLength];
+            parameterSets[index] = parameterSet;
+        }
+        System.arraycopy(data, offset, parameterSet, 0, nalLength);
+        parameterSetLengths[index] = nalLength;
+        if (DEBUG)
+            Log.d(TAG, "Parameter set " + index + " updated (" + nalLength + " bytes)");
+    }
+
+    private int getParameterSetIndex(int type) {
+        if (isH265) {
+            switch (type) {
+                case 32: return PARAMETER_SET_VPS;
+                case 33: return PARAMETER_SET_SPS;
+                case 34: return PARAMETER_SET_PPS;
+                default: return -1;
+            }
+        }
+        switch (type) {
+            case 7: return PARAMETER_SET_SPS;
+            case 8: return PARAMETER_SET_PPS;
+            default: return -1;
+        }
+    }
+
+    private boolean isSlice(int type) {
+        return isH265 ? type < 32 : type >= 1 && type <= 5;
+    }
+
+    private boolean isKeyFrameSlice(int type) {
+        return isH265 ? type >= 16 && type <= 23 : type == 5;
+    }
+
+    private static boolean equals(@NonNull byte[] a, @NonNull byte[] b, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[offset + i])
+                return false;
+        }
+        return true;
+    }
+}
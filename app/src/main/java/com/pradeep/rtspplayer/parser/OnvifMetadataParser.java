@@ -0,0 +1,382 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Extracts events and analytics objects from ONVIF tt:MetadataStream documents (vnd.onvif.metadata).
+ * <p>
+ * RTP payloads are collected up to the marker bit in a reusable buffer, then scanned tag by tag
+ * without building a tree. Only the tags and attributes listed below are turned into strings:
+ * <pre>
+ * tt:Event/wsnt:NotificationMessage   wsnt:Topic, tt:Message (UtcTime, PropertyOperation),
+ *                                     tt:Source|tt:Key|tt:Data/tt:SimpleItem (Name, Value)
+ * tt:VideoAnalytics/tt:Frame (UtcTime) tt:Object (ObjectId), tt:BoundingBox, tt:Type (Likelihood),
+ *                                     tt:Likelihood
+ * </pre>
+ */
+public class OnvifMetadataParser {
+
+    public interface MetadataListener {
+        void onOnvifEvent(@NonNull Event event);
+        void onOnvifObject(@NonNull AnalyticsObject object);
+    }
+
+    public static class Event {
+        public @Nullable String topic; // e.g. tns1:RuleEngine/CellMotionDetector/Motion
+        public @Nullable String utcTime;
+        public @Nullable String propertyOperation; // Initialized, Changed, Deleted
+        public final @NonNull ArrayList<Pair<String, String>> source = new ArrayList<>();
+        public final @NonNull ArrayList<Pair<String, String>> key = new ArrayList<>();
+        public final @NonNull ArrayList<Pair<String, String>> data = new ArrayList<>();
+
+        @Nullable
+        public String getDataValue(@NonNull String name) {
+            for (Pair<String, String> item : data) {
+                if (name.equals(item.first))
+                    return item.second;
+            }
+            return null;
+        }
+
+        // Motion detector and cell motion events (IsMotion or State true)
+        public boolean isMotion() {
+            if (topic == null || !topic.contains("Motion"))
+                return false;
+            return "true".equalsIgnoreCase(getDataValue("IsMotion")) || "true".equalsIgnoreCase(getDataValue("State"));
+        }
+
+        @Override
+        public String toString() {
+            return "Event{topic=" + topic + ", utcTime=" + utcTime + ", propertyOperation=" + propertyOperation +
+                    ", source=" + source + ", data=" + data + '}';
+        }
+    }
+
+    public static class AnalyticsObject {
+        public @Nullable String objectId;
+        public @Nullable String utcTime;
+        // Normalized coordinates as sent by the camera, NaN if no bounding box
+        public float left = Float.NaN;
+        public float top = Float.NaN;
+        public float right = Float.NaN;
+        public float bottom = Float.NaN;
+        public @Nullable String type; // e.g. Human, Vehicle
+        public float likelihood = Float.NaN;
+
+        @Override
+        public String toString() {
+            return "AnalyticsObject{objectId=" + objectId + ", utcTime=" + utcTime + ", type=" + type +
+                    ", likelihood=" + likelihood + ", box=" + left + "," + top + "," + right + "," + bottom + '}';
+        }
+    }
+
+    private static final String TAG = OnvifMetadataParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int TOKEN_END_DOCUMENT = 0;
+    private static final int TOKEN_START_TAG = 1;
+    private static final int TOKEN_END_TAG = 2;
+    private static final int TOKEN_TEXT = 3;
+
+    private static final int SECTION_NONE = 0;
+    private static final int SECTION_SOURCE = 1;
+    private static final int SECTION_KEY = 2;
+    private static final int SECTION_DATA = 3;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length = 0;
+    private boolean dropDocument = false;
+
+    // Tokenizer state
+    private int position;
+    private int nameStart;
+    private int nameEnd;
+    private int attributesStart;
+    private int attributesEnd;
+    private int textStart;
+    private int textEnd;
+    private boolean pendingEndTag;
+
+    // The document in progress is incomplete
+    public void onPacketLoss() {
+        length = 0;
+        dropDocument = true;
+    }
+
+    public void processRtpPacket(@NonNull byte[] data, int offset, int size, boolean marker, @NonNull MetadataListener listener) {
+        if (!dropDocument) {
+            if (length + size > MAX_BUFFER_SIZE) {
+                Log.w(TAG, "Metadata document larger than " + MAX_BUFFER_SIZE + " bytes dropped");
+                onPacketLoss();
+            } else {
+                if (length + size > buffer.length) {
+                    byte[] newBuffer = new byte[Math.min(MAX_BUFFER_SIZE, Math.max(buffer.length * 2, length + size))];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+                System.arraycopy(data, offset, buffer, length, size);
+                length += size;
+            }
+        }
+        if (marker) {
+            if (!dropDocument && length > 0)
+                parse(listener);
+            length = 0;
+            dropDocument = false;
+        }
+    }
+
+    private void parse(@NonNull MetadataListener listener) {
+        position = 0;
+        pendingEndTag = false;
+        Event event = null;
+        AnalyticsObject object = null;
+        String frameUtcTime = null;
+        int section = SECTION_NONE;
+        boolean inTopic = false;
+        boolean inType = false;
+        boolean inLikelihood = false;
+        int token;
+        while ((token = next()) != TOKEN_END_DOCUMENT) {
+            if (token == TOKEN_START_TAG) {
+                if (isName("NotificationMessage")) {
+                    event = new Event();
+                } else if (event != null) {
+                    if (isName("Topic")) {
+                        inTopic = true;
+                    } else if (isName("Message")) {
+                        if (event.utcTime == null)
+                            event.utcTime = getAttribute("UtcTime");
+                        if (event.propertyOperation == null)
+                            event.propertyOperation = getAttribute("PropertyOperation");
+                    } else if (isName("Source")) {
+                        section = SECTION_SOURCE;
+                    } else if (isName("Key")) {
+                        section = SECTION_KEY;
+                    } else if (isName("Data")) {
+                        section = SECTION_DATA;
+                    } else if (isName("SimpleItem") && section != SECTION_NONE) {
+                        Pair<String, String> item = Pair.create(getAttribute("Name"), getAttribute("Value"));
+                        (section == SECTION_SOURCE ? event.source : section == SECTION_KEY ? event.key : event.data).add(item);
+                    }
+                } else if (isName("Frame")) {
+                    frameUtcTime = getAttribute("UtcTime");
+                } else if (isName("Object")) {
+                    object = new AnalyticsObject();
+                    object.objectId = getAttribute("ObjectId");
+                    object.utcTime = frameUtcTime;
+                } else if (object != null) {
+                    if (isName("BoundingBox")) {
+                        object.left = getFloatAttribute("left");
+                        object.top = getFloatAttribute("top");
+                        object.right = getFloatAttribute("right");
+                        object.bottom = getFloatAttribute("bottom");
+                    } else if (isName("Type")) {
+                        object.likelihood = getFloatAttribute("Likelihood");
+                        inType = true;
+                    } else if (isName("Likelihood")) {
+                        inLikelihood = true;
+                    }
+                }
+            } else if (token == TOKEN_TEXT) {
+                if (inTopic && event != null) {
+                    event.topic = decode(textStart, textEnd).trim();
+                } else if (inType && object != null && object.type == null) {
+                    object.type = decode(textStart, textEnd).trim();
+                } else if (inLikelihood && object != null && Float.isNaN(object.likelihood)) {
+                    try {
+                        object.likelihood = Float.parseFloat(decode(textStart, textEnd).trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } else {
+                if (isName("NotificationMessage")) {
+                    if (event != null)
+                        listener.onOnvifEvent(event);
+                    event = null;
+                    section = SECTION_NONE;
+                } else if (isName("Topic")) {
+                    inTopic = false;
+                } else if (isName("Source") || isName("Key") || isName("Data")) {
+                    section = SECTION_NONE;
+                } else if (isName("Type")) {
+                    inType = false;
+                } else if (isName("Likelihood")) {
+                    inLikelihood = false;
+                } else if (isName("Object")) {
+                    if (object != null)
+                        listener.onOnvifObject(object);
+                    object = null;
+                } else if (isName("Frame")) {
+                    frameUtcTime = null;
+                }
+            }
+        }
+        if (DEBUG && (event != null || object != null))
+            Log.d(TAG, "Truncated metadata document");
+    }
+
+    // Minimal XML tokenizer. Skips declarations, comments and processing instructions.
+    private int next() {
+        if (pendingEndTag) {
+            pendingEndTag = false;
+            return TOKEN_END_TAG;
+        }
+        while (position < length) {
+            if (buffer[position] != '<') {
+                textStart = position;
+                while (position < length && buffer[position] != '<')
+                    position++;
+                textEnd = position;
+                if (!isWhitespace(textStart, textEnd))
+                    return TOKEN_TEXT;
+                continue;
+            }
+            if (startsWith(position, "<!--")) {
+                int end = indexOf(position + 4, "-->");
+                position = end < 0 ? length : end + 3;
+                continue;
+            }
+            if (startsWith(position, "<![CDATA[")) {
+                textStart = position + 9;
+                int end = indexOf(textStart, "]]>");
+                textEnd = end < 0 ? length : end;
+                position = end < 0 ? length : end + 3;
+                return TOKEN_TEXT;
+            }
+            int tagEnd = indexOf(position + 1, ">");
+            if (tagEnd < 0) {
+                position = length;
+                break;
+            }
+            byte second = position + 1 < length ? buffer[position + 1] : 0;
+            if (second == '?' || second == '!') {
+                position = tagEnd + 1;
+                continue;
+            }
+            boolean endTag = second == '/';
+            nameStart = position + (endTag ? 2 : 1);
+            nameEnd = nameStart;
+            while (nameEnd < tagEnd && !isWhitespaceByte(buffer[nameEnd]) && buffer[nameEnd] != '/')
+                nameEnd++;
+            attributesStart = nameEnd;
+            attributesEnd = tagEnd;
+            position = tagEnd + 1;
+            if (endTag)
+                return TOKEN_END_TAG;
+            if (buffer[tagEnd - 1] == '/') {
+                attributesEnd = tagEnd - 1;
+                pendingEndTag = true;
+            }
+            return TOKEN_START_TAG;
+        }
+        return TOKEN_END_DOCUMENT;
+    }
+
+    // Compares the local name (namespace prefix ignored)
+    private boolean isName(@NonNull String localName) {
+        int start = nameStart;
+        for (int i = nameStart; i < nameEnd; i++) {
+            if (buffer[i] == ':')
+                start = i + 1;
+        }
+        if (nameEnd - start != localName.length())
+            return false;
+        for (int i = 0; i < localName.length(); i++) {
+            if (buffer[start + i] != localName.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private String getAttribute(@NonNull String name) {
+        int i = attributesStart;
+        while (i < attributesEnd) {
+            while (i < attributesEnd && isWhitespaceByte(buffer[i]))
+                i++;
+            int attributeNameStart = i;
+            while (i < attributesEnd && buffer[i] != '=' && !isWhitespaceByte(buffer[i]))
+                i++;
+            int attributeNameEnd = i;
+            while (i < attributesEnd && buffer[i] != '"' && buffer[i] != '\'')
+                i++;
+            if (i >= attributesEnd)
+                return null;
+            byte quote = buffer[i++];
+            int valueStart = i;
+            while (i < attributesEnd && buffer[i] != quote)
+                i++;
+            int valueEnd = i++;
+            if (attributeNameEnd - attributeNameStart == name.length() && regionMatches(attributeNameStart, name))
+                return decode(valueStart, valueEnd);
+        }
+        return null;
+    }
+
+    private float getFloatAttribute(@NonNull String name) {
+        String value = getAttribute(name);
+        if (value == null)
+            return Float.NaN;
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    // UTF-8 text with the predefined XML entities
+    @NonNull
+    private String decode(int start, int end) {
+        String text = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        if (text.indexOf('&') < 0)
+            return text;
+        return text.replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&quot;", "\"")
+                .replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+
+    private boolean startsWith(int offset, @NonNull String prefix) {
+        return offset + prefix.length() <= length && regionMatches(offset, prefix);
+    }
+
+    private boolean regionMatches(int offset, @NonNull String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[offset + i] != text.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private int indexOf(int from, @NonNull String text) {
+        for (int i = from; i + text.length() <= length; i++) {
+            if (regionMatches(i, text))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean isWhitespace(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespaceByte(buffer[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespaceByte(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
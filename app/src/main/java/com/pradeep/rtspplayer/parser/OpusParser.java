@@ -0,0 +1,75 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * RFC 7587 Opus depacketizer. Every RTP payload is exactly one Opus packet, so it is passed
+ * on in place. The RTP clock is always 48 kHz, whatever the encoder's internal rate.
+ */
+public class OpusParser {
+
+    // Receives one Opus packet. The data is only valid during the call.
+    public interface OpusPacketListener {
+        void onOpusPacket(@NonNull byte[] data, int offset, int length, int samples);
+    }
+
+    private static final String TAG = OpusParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int CLOCK_RATE_HZ = 48000;
+
+    // Frame sizes in 48 kHz samples per TOC config (RFC 6716 3.1)
+    private static final int[] FRAME_SAMPLES = {
+            480, 960, 1920, 2880, // SILK NB
+            480, 960, 1920, 2880, // SILK MB
+            480, 960, 1920, 2880, // SILK WB
+            480, 960,             // Hybrid SWB
+            480, 960,             // Hybrid FB
+            120, 240, 480, 960,   // CELT NB
+            120, 240, 480, 960,   // CELT WB
+            120, 240, 480, 960,   // CELT SWB
+            120, 240, 480, 960,   // CELT FB
+    };
+
+    private static final int MAX_PACKET_SAMPLES = 5760; // 120 ms
+
+    public void processRtpPacket(@NonNull byte[] data, int offset, int length, @NonNull OpusPacketListener listener) {
+        int samples = getSamples(data, offset, length);
+        if (samples <= 0) {
+            if (DEBUG)
+                Log.d(TAG, "Invalid Opus packet of " + length + " bytes dropped");
+            return;
+        }
+        listener.onOpusPacket(data, offset, length, samples);
+    }
+
+    /**
+     * @return duration of the Opus packet in 48 kHz samples, or -1 if malformed
+     */
+    public static int getSamples(@NonNull byte[] data, int offset, int length) {
+        if (length < 1)
+            return -1;
+        int toc = data[offset] & 0xFF;
+        int frameSamples = FRAME_SAMPLES[toc >> 3];
+        int frames;
+        switch (toc & 0x03) {
+            case 0:
+                frames = 1;
+                break;
+            case 1:
+            case 2:
+                frames = 2;
+                break;
+            default:
+                if (length < 2)
+                    return -1;
+                frames = data[offset + 1] & 0x3F;
+                break;
+        }
+        int samples = frames * frameSamples;
+        return frames == 0 || samples > MAX_PACKET_SAMPLES ? -1 : samples;
+    }
+
+}
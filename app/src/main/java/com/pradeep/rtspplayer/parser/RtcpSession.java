@@ -0,0 +1,482 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * RTCP state of one RTP track (RFC 3550).
+ * <p>
+ * Parses SR, SDES and BYE packets from the server, keeps reception statistics (loss and
+ * interarrival jitter) of every media source and builds the receiver reports sent back.
+ * Sender reports provide the mapping of RTP timestamps to the server wall clock.
+ */
+public class RtcpSession {
+
+    public interface Listener {
+        void onRtcpSenderReport(@NonNull SourceStats source);
+        void onRtcpBye(@NonNull SourceStats source);
+    }
+
+    private static final String TAG = RtcpSession.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int RTCP_VERSION = 2;
+    private static final int RTCP_SR = 200;
+    private static final int RTCP_RR = 201;
+    private static final int RTCP_SDES = 202;
+    private static final int RTCP_BYE = 203;
+    private static final int RTCP_PSFB = 206;
+    private static final int PSFB_PLI = 1;  // RFC 4585 6.3.1
+    private static final int PSFB_FIR = 4;  // RFC 5104 4.3.1
+    private static final int SDES_END = 0;
+    private static final int SDES_CNAME = 1;
+
+    private static final int MAX_DROPOUT = 3000;  // RFC 3550 A.1
+    private static final int MAX_MISORDER = 100;
+    private static final int MAX_SOURCES = 31;    // 5-bit report count
+    private static final int REPORT_BLOCK_SIZE = 24;
+    private static final int MIN_REPORT_INTERVAL_MS = 5000; // RFC 3550 6.2
+    private static final int MIN_KEY_FRAME_REQUEST_INTERVAL_MS = 1000;
+    private static final long NTP_TO_UNIX_EPOCH_SEC = 2208988800L;
+
+    private static final int MAX_CNAME_SIZE = 32;
+    /**
+     * Upper bound of a receiver report built by {@link #writeReceiverReport(byte[], int, long)}.
+     */
+    public static final int MAX_REPORT_SIZE = 8 + MAX_SOURCES * REPORT_BLOCK_SIZE + 12 + MAX_CNAME_SIZE + 12 + 20;
+
+    /**
+     * Reception statistics and last sender report of one media source (SSRC).
+     */
+    public static final class SourceStats {
+        private final long ssrc;
+        private final int clockRateHz;
+        private @Nullable String cname;
+        private boolean bye = false;
+
+        // Sequence number state, RFC 3550 A.1
+        private boolean hasSequence = false;
+        private int baseSeq;
+        private int maxSeq;
+        private int badSeq;
+        private long cycles;
+        private long received;
+        private long expectedPrior;
+        private long receivedPrior;
+        private int fractionLost;
+
+        // Interarrival jitter in timestamp units scaled by 16, RFC 3550 A.8
+        private boolean hasTransit = false;
+        private int lastTransit;
+        private long jitter;
+
+        private boolean hasSenderReport = false;
+        private long srNtpTimestamp;
+        private long srRtpTimestamp;
+        private long srPacketCount;
+        private long srOctetCount;
+        private long srReceivedTimeMs;
+
+        SourceStats(long ssrc, int clockRateHz) {
+            this.ssrc = ssrc;
+            this.clockRateHz = clockRateHz;
+        }
+
+        private void initSequence(int seq) {
+            hasSequence = true;
+            baseSeq = seq;
+            maxSeq = seq;
+            badSeq = -1;
+            cycles = 0;
+            received = 0;
+            expectedPrior = 0;
+            receivedPrior = 0;
+        }
+
+        private boolean updateSequence(int seq) {
+            int delta = (seq - maxSeq) & 0xFFFF;
+            if (delta < MAX_DROPOUT) {
+                if (seq < maxSeq)
+                    cycles += 0x10000;
+                maxSeq = seq;
+            } else if (delta <= 0x10000 - MAX_MISORDER) {
+                // Very large jump. Restart if the next packet continues from here.
+                if (seq != badSeq) {
+                    badSeq = (seq + 1) & 0xFFFF;
+                    return false;
+                }
+                initSequence(seq);
+            }
+            received++;
+            return true;
+        }
+
+        public long getSsrc() {
+            return ssrc;
+        }
+
+        @Nullable
+        public String getCname() {
+            return cname;
+        }
+
+        public boolean isBye() {
+            return bye;
+        }
+
+        public long getPacketsReceived() {
+            return received;
+        }
+
+        public long getExtendedHighestSequenceNumber() {
+            return cycles + maxSeq;
+        }
+
+        public long getPacketsExpected() {
+            return hasSequence ? getExtendedHighestSequenceNumber() - baseSeq + 1 : 0;
+        }
+
+        /**
+         * @return cumulative number of packets lost, negative if duplicates were received
+         */
+        public long getPacketsLost() {
+            return getPacketsExpected() - received;
+        }
+
+        /**
+         * @return fraction of packets lost since the previous receiver report, in units of 1/256
+         */
+        public int getFractionLost() {
+            return fractionLost;
+        }
+
+        /**
+         * @return interarrival jitter in RTP timestamp units
+         */
+        public long getJitter() {
+            return jitter >> 4;
+        }
+
+        public long getJitterUs() {
+            return getJitter() * 1_000_000L / clockRateHz;
+        }
+
+        public boolean hasSenderReport() {
+            return hasSenderReport;
+        }
+
+        public long getSenderPacketCount() {
+            return srPacketCount;
+        }
+
+        public long getSenderOctetCount() {
+            return srOctetCount;
+        }
+
+        /**
+         * Maps an RTP timestamp of this source to the server wall clock using the last sender report.
+         * @return Unix time in milliseconds or -1 if no sender report was received yet
+         */
+        public long getWallClockTimeMs(long rtpTimestamp) {
+            if (!hasSenderReport)
+                return -1;
+            long ntpSeconds = srNtpTimestamp >>> 32;
+            long ntpFractionMs = ((srNtpTimestamp & 0xFFFFFFFFL) * 1000) >>> 32;
+            long srTimeMs = (ntpSeconds - NTP_TO_UNIX_EPOCH_SEC) * 1000 + ntpFractionMs;
+            int delta = (int) (rtpTimestamp - srRtpTimestamp);
+            return srTimeMs + delta * 1000L / clockRateHz;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "SourceStats{ssrc=" + ssrc +
+                    ", cname=" + cname +
+                    ", received=" + received +
+                    ", lost=" + getPacketsLost() +
+                    ", fractionLost=" + fractionLost +
+                    ", jitterUs=" + getJitterUs() +
+                    '}';
+        }
+    }
+
+    private final int clockRateHz;
+    private final @Nullable Listener listener;
+    private final @NonNull Random random = new SecureRandom();
+    private final long localSsrc;
+    private final @NonNull byte[] cname;
+    private final @NonNull ArrayList<SourceStats> sources = new ArrayList<>();
+    private @Nullable SourceStats lastSource;
+    private final long startTimeNs = System.nanoTime();
+    private long nextReportTimeMs = 0;
+    private boolean keyFrameRequested = false;
+    private long keyFrameRequestTimeMs = 0;
+    private int firSequenceNumber = 0;
+
+    public RtcpSession(int clockRateHz, @Nullable Listener listener) {
+        if (clockRateHz <= 0)
+            throw new IllegalArgumentException("Invalid RTP clock rate " + clockRateHz);
+        this.clockRateHz = clockRateHz;
+        this.listener = listener;
+        localSsrc = random.nextInt() & 0xFFFFFFFFL;
+        cname = ("rtspplayer-" + Long.toHexString(localSsrc)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Updates sequence and jitter statistics. Must be called on arrival, before any reordering.
+     * @param arrivalTimeNs {@link System#nanoTime()} when the packet was received
+     */
+    public void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, long arrivalTimeNs) {
+        SourceStats source = getSource(header.ssrc, true);
+        if (source == null)
+            return;
+        if (!source.hasSequence) {
+            source.initSequence(header.sequenceNumber);
+            source.received = 1;
+        } else if (!source.updateSequence(header.sequenceNumber)) {
+            return;
+        }
+
+        long arrival = (long) ((arrivalTimeNs - startTimeNs) * (clockRateHz / 1e9));
+        int transit = (int) (arrival - header.timeStamp);
+        if (source.hasTransit) {
+            int d = Math.abs(transit - source.lastTransit);
+            source.jitter += d - ((source.jitter + 8) >> 4);
+        }
+        source.hasTransit = true;
+        source.lastTransit = transit;
+    }
+
+    /**
+     * Parses a compound RTCP packet received from the server.
+     */
+    public void onRtcpPacket(@NonNull byte[] data, int offset, int length, long nowMs) {
+        int end = offset + length;
+        while (end - offset >= 4) {
+            int first = data[offset] & 0xFF;
+            if ((first >> 6) != RTCP_VERSION) {
+                if (DEBUG)
+                    Log.d(TAG, "Invalid RTCP version");
+                return;
+            }
+            int count = first & 0x1F;
+            int packetType = data[offset + 1] & 0xFF;
+            int packetLength = ((((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF)) + 1) * 4;
+            if (packetLength > end - offset) {
+                if (DEBUG)
+                    Log.d(TAG, "Truncated RTCP packet " + packetType);
+                return;
+            }
+            switch (packetType) {
+                case RTCP_SR -> parseSenderReport(data, offset, packetLength, nowMs);
+                case RTCP_SDES -> parseSourceDescription(data, offset, packetLength, count);
+                case RTCP_BYE -> parseBye(data, offset, packetLength, count);
+                default -> {
+                    // RR and APP from the server are not used
+                }
+            }
+            offset += packetLength;
+        }
+    }
+
+    private void parseSenderReport(@NonNull byte[] data, int offset, int length, long nowMs) {
+        if (length < 28)
+            return;
+        SourceStats source = getSource(readUnsignedInt(data, offset + 4), true);
+        if (source == null)
+            return;
+        source.hasSenderReport = true;
+        source.srNtpTimestamp = (readUnsignedInt(data, offset + 8) << 32) | readUnsignedInt(data, offset + 12);
+        source.srRtpTimestamp = readUnsignedInt(data, offset + 16);
+        source.srPacketCount = readUnsignedInt(data, offset + 20);
+        source.srOctetCount = readUnsignedInt(data, offset + 24);
+        source.srReceivedTimeMs = nowMs;
+        if (DEBUG)
+            Log.d(TAG, "SR from " + source.ssrc + " packets: " + source.srPacketCount);
+        if (listener != null)
+            listener.onRtcpSenderReport(source);
+    }
+
+    private void parseSourceDescription(@NonNull byte[] data, int offset, int length, int chunks) {
+        int end = offset + length;
+        int position = offset + 4;
+        for (int i = 0; i < chunks && end - position >= 4; i++) {
+            SourceStats source = getSource(readUnsignedInt(data, position), false);
+            position += 4;
+            while (position < end && data[position] != SDES_END) {
+                if (end - position < 2)
+                    return;
+                int type = data[position] & 0xFF;
+                int itemLength = data[position + 1] & 0xFF;
+                if (end - position - 2 < itemLength)
+                    return;
+                if (type == SDES_CNAME && source != null)
+                    source.cname = new String(data, position + 2, itemLength, StandardCharsets.UTF_8);
+                position += 2 + itemLength;
+            }
+            // Skip terminating null items up to the next 32-bit boundary
+            position += 4 - ((position - offset) & 3);
+        }
+    }
+
+    private void parseBye(@NonNull byte[] data, int offset, int length, int count) {
+        for (int i = 0; i < count && 4 + (i + 1) * 4 <= length; i++) {
+            SourceStats source = getSource(readUnsignedInt(data, offset + 4 + i * 4), false);
+            if (source == null || source.bye)
+                continue;
+            source.bye = true;
+            Log.i(TAG, "BYE from " + source.ssrc);
+            if (listener != null)
+                listener.onRtcpBye(source);
+        }
+    }
+
+    public boolean isReportDue(long nowMs) {
+        return nowMs >= nextReportTimeMs || isKeyFrameRequestDue(nowMs);
+    }
+
+    /**
+     * Asks the sender for a key frame (PLI and FIR) with the next report. Repeated requests are
+     * sent at most once per second.
+     */
+    public void requestKeyFrame() {
+        keyFrameRequested = true;
+    }
+
+    private boolean isKeyFrameRequestDue(long nowMs) {
+        return keyFrameRequested && nowMs - keyFrameRequestTimeMs >= MIN_KEY_FRAME_REQUEST_INTERVAL_MS;
+    }
+
+    /**
+     * Writes a compound RR + SDES CNAME packet for all sources which sent RTP and schedules
+     * the next report in [0.5, 1.5] times the minimum interval (RFC 3550 6.3.1).
+     * @param out buffer with at least {@link #MAX_REPORT_SIZE} bytes from {@code offset}
+     * @return number of bytes written, 0 if no RTP was received yet
+     */
+    public int writeReceiverReport(@NonNull byte[] out, int offset, long nowMs) {
+        nextReportTimeMs = nowMs + MIN_REPORT_INTERVAL_MS / 2 + random.nextInt(MIN_REPORT_INTERVAL_MS);
+        int position = offset + 8;
+        int reportCount = 0;
+        long mediaSsrc = -1;
+        for (SourceStats source : sources) {
+            if (!source.hasSequence || source.bye)
+                continue;
+            long expected = source.getPacketsExpected();
+            long expectedInterval = expected - source.expectedPrior;
+            long receivedInterval = source.received - source.receivedPrior;
+            long lostInterval = expectedInterval - receivedInterval;
+            source.expectedPrior = expected;
+            source.receivedPrior = source.received;
+            source.fractionLost = expectedInterval <= 0 || lostInterval <= 0 ? 0 : (int) ((lostInterval << 8) / expectedInterval);
+            long lost = Math.max(-0x800000, Math.min(0x7FFFFF, source.getPacketsLost()));
+
+            writeInt(out, position, source.ssrc);
+            writeInt(out, position + 4, ((long) Math.min(source.fractionLost, 0xFF) << 24) | (lost & 0xFFFFFF));
+            writeInt(out, position + 8, source.getExtendedHighestSequenceNumber());
+            writeInt(out, position + 12, source.getJitter());
+            if (source.hasSenderReport) {
+                writeInt(out, position + 16, source.srNtpTimestamp >>> 16);
+                writeInt(out, position + 20, (nowMs - source.srReceivedTimeMs) * 65536 / 1000);
+            } else {
+                writeInt(out, position + 16, 0);
+                writeInt(out, position + 20, 0);
+            }
+            position += REPORT_BLOCK_SIZE;
+            if (mediaSsrc == -1)
+                mediaSsrc = source.ssrc;
+            if (++reportCount == MAX_SOURCES)
+                break;
+        }
+        if (reportCount == 0)
+            return 0;
+        writeHeader(out, offset, reportCount, RTCP_RR, position - offset);
+        writeInt(out, offset + 4, localSsrc);
+
+        // Every compound packet carries the CNAME (RFC 3550 6.1)
+        int sdesOffset = position;
+        writeInt(out, position + 4, localSsrc);
+        out[position + 8] = SDES_CNAME;
+        out[position + 9] = (byte) cname.length;
+        System.arraycopy(cname, 0, out, position + 10, cname.length);
+        position += 10 + cname.length;
+        do {
+            out[position++] = SDES_END;
+        } while (((position - sdesOffset) & 3) != 0);
+        writeHeader(out, sdesOffset, 1, RTCP_SDES, position - sdesOffset);
+
+        if (isKeyFrameRequestDue(nowMs)) {
+            // PLI is widely supported, older senders only react to FIR
+            keyFrameRequested = false;
+            keyFrameRequestTimeMs = nowMs;
+            writeHeader(out, position, PSFB_PLI, RTCP_PSFB, 12);
+            writeInt(out, position + 4, localSsrc);
+            writeInt(out, position + 8, mediaSsrc);
+            position += 12;
+            writeHeader(out, position, PSFB_FIR, RTCP_PSFB, 20);
+            writeInt(out, position + 4, localSsrc);
+            writeInt(out, position + 8, 0);
+            writeInt(out, position + 12, mediaSsrc);
+            writeInt(out, position + 16, (long) (firSequenceNumber++ & 0xFF) << 24);
+            position += 20;
+            if (DEBUG)
+                Log.d(TAG, "Key frame requested from " + mediaSsrc);
+        }
+        return position - offset;
+    }
+
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    @NonNull
+    public SourceStats getSource(int index) {
+        return sources.get(index);
+    }
+
+    @Nullable
+    private SourceStats getSource(long ssrc, boolean create) {
+        if (lastSource != null && lastSource.ssrc == ssrc)
+            return lastSource;
+        for (SourceStats source : sources) {
+            if (source.ssrc == ssrc) {
+                lastSource = source;
+                return source;
+            }
+        }
+        if (!create || sources.size() >= MAX_SOURCES)
+            return null;
+        SourceStats source = new SourceStats(ssrc, clockRateHz);
+        sources.add(source);
+        lastSource = source;
+        return source;
+    }
+
+    private static void writeHeader(@NonNull byte[] out, int offset, int count, int packetType, int length) {
+        int words = length / 4 - 1;
+        out[offset] = (byte) ((RTCP_VERSION << 6) | count);
+        out[offset + 1] = (byte) packetType;
+        out[offset + 2] = (byte) (words >> 8);
+        out[offset + 3] = (byte) words;
+    }
+
+    private static void writeInt(@NonNull byte[] out, int offset, long value) {
+        out[offset] = (byte) (value >> 24);
+        out[offset + 1] = (byte) (value >> 16);
+        out[offset + 2] = (byte) (value >> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static long readUnsignedInt(@NonNull byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24) |
+                ((data[offset + 1] & 0xFFL) << 16) |
+                ((data[offset + 2] & 0xFFL) << 8) |
+                (data[offset + 3] & 0xFFL);
+    }
+}
@@ -0,0 +1,220 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * AV1 RTP depacketizer (AOM "RTP Payload Format for AV1"). OBU elements of all packets with the
+ * same timestamp are written as one temporal unit in low overhead bitstream format
+ * (temporal delimiter first, every OBU with obu_size), which is what MediaCodec expects.
+ * <p>
+ * The temporal unit buffer is reused, its data is only valid during the listener call.
+ */
+public class RtpAv1Parser {
+
+    public interface TemporalUnitListener {
+        // rtpTimestamp of the temporal unit, also if flushed by the next one. flags are AccessUnitAssembler.FLAG_*
+        void onTemporalUnit(@NonNull byte[] data, int offset, int length, long rtpTimestamp, int flags);
+    }
+
+    private static final String TAG = RtpAv1Parser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int OBU_SEQUENCE_HEADER = 1;
+    private static final int OBU_TEMPORAL_DELIMITER = 2;
+    private static final int OBU_TILE_LIST = 8;
+    private static final int OBU_PADDING = 15;
+
+    private static final byte[] TEMPORAL_DELIMITER = { 0x12, 0x00 };
+
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private byte[] temporalUnit = new byte[INITIAL_BUFFER_SIZE];
+    private int temporalUnitLength = 0;
+    private int flags = 0;
+    private long rtpTimestamp = -1;
+
+    // OBU element continued in the next packet (Y bit)
+    private byte[] fragment = new byte[INITIAL_BUFFER_SIZE];
+    private int fragmentLength = 0;
+    private boolean fragmentInProgress = false;
+
+    // Parsed by readLeb128()
+    private int lebValue;
+    private int lebSize;
+
+    // The temporal unit in progress cannot be completed anymore
+    public void onPacketLoss() {
+        temporalUnitLength = 0;
+        flags = 0;
+        fragmentInProgress = false;
+    }
+
+    public void processRtpPacket(
+            @NonNull byte[] data,
+            int offset,
+            int length,
+            long rtpTimestamp,
+            boolean marker,
+            @NonNull TemporalUnitListener listener) {
+        if (length < 1)
+            return;
+        if (rtpTimestamp != this.rtpTimestamp) {
+            // Marker of the previous temporal unit lost
+            if (temporalUnitLength > 0)
+                flush(listener);
+            fragmentInProgress = false;
+            this.rtpTimestamp = rtpTimestamp;
+        }
+
+        int aggregationHeader = data[offset] & 0xFF;
+        boolean continuation = (aggregationHeader & 0x80) != 0; // Z
+        boolean continues = (aggregationHeader & 0x40) != 0;    // Y
+        int elementCount = (aggregationHeader >> 4) & 0x03;     // W
+        if ((aggregationHeader & 0x08) != 0)                    // N
+            flags |= AccessUnitAssembler.FLAG_KEY_FRAME;
+
+        int position = offset + 1;
+        int end = offset + length;
+        int element = 0;
+        while (position < end) {
+            element++;
+            int elementLength;
+            if (elementCount == 0 || element < elementCount) {
+                if (!readLeb128(data, position, end)) {
+                    Log.w(TAG, "Invalid OBU element length");
+                    onPacketLoss();
+                    return;
+                }
+                position += lebSize;
+                elementLength = lebValue;
+            } else {
+                elementLength = end - position;
+            }
+            if (elementLength > end - position) {
+                Log.w(TAG, "OBU element exceeds packet");
+                onPacketLoss();
+                return;
+            }
+
+            boolean first = element == 1;
+            boolean last = position + elementLength >= end;
+            if (first && continuation) {
+                if (fragmentInProgress) {
+                    appendFragment(data, position, elementLength);
+                    if (!(last && continues)) {
+                        fragmentInProgress = false;
+                        writeObu(fragment, 0, fragmentLength);
+                    }
+                }
+                // else the start of the OBU was lost
+            } else if (last && continues) {
+                fragmentLength = 0;
+                fragmentInProgress = true;
+                appendFragment(data, position, elementLength);
+            } else {
+                writeObu(data, position, elementLength);
+            }
+            position += elementLength;
+            if (elementCount != 0 && element == elementCount)
+                break;
+        }
+
+        if (marker)
+            flush(listener);
+    }
+
+    private void flush(@NonNull TemporalUnitListener listener) {
+        if (temporalUnitLength > 0)
+            listener.onTemporalUnit(temporalUnit, 0, temporalUnitLength, rtpTimestamp, flags);
+        temporalUnitLength = 0;
+        flags = 0;
+    }
+
+    // Writes the OBU with obu_has_size_field set
+    private void writeObu(@NonNull byte[] data, int offset, int length) {
+        if (length < 1)
+            return;
+        int header = data[offset] & 0xFF;
+        int type = (header >> 3) & 0x0F;
+        if (type == OBU_TEMPORAL_DELIMITER || type == OBU_TILE_LIST || type == OBU_PADDING)
+            return;
+        if (type == OBU_SEQUENCE_HEADER)
+            flags |= AccessUnitAssembler.FLAG_CODEC_CONFIG;
+        if (temporalUnitLength == 0)
+            append(TEMPORAL_DELIMITER, 0, TEMPORAL_DELIMITER.length);
+        if ((header & 0x02) != 0) {
+            append(data, offset, length);
+            return;
+        }
+        int headerSize = (header & 0x04) != 0 ? 2 : 1;
+        if (length < headerSize)
+            return;
+        int payloadSize = length - headerSize;
+        if (!ensureCapacity(headerSize + 8 + payloadSize))
+            return;
+        temporalUnit[temporalUnitLength++] = (byte) (header | 0x02);
+        if (headerSize == 2)
+            temporalUnit[temporalUnitLength++] = data[offset + 1];
+        int value = payloadSize;
+        do {
+            int b = value & 0x7F;
+            value >>>= 7;
+            temporalUnit[temporalUnitLength++] = (byte) (value != 0 ? b | 0x80 : b);
+        } while (value != 0);
+        System.arraycopy(data, offset + headerSize, temporalUnit, temporalUnitLength, payloadSize);
+        temporalUnitLength += payloadSize;
+    }
+
+    private void append(@NonNull byte[] data, int offset, int length) {
+        if (!ensureCapacity(length))
+            return;
+        System.arraycopy(data, offset, temporalUnit, temporalUnitLength, length);
+        temporalUnitLength += length;
+    }
+
+    private boolean ensureCapacity(int length) {
+        if (temporalUnitLength + length <= temporalUnit.length)
+            return true;
+        if (temporalUnitLength + length > MAX_BUFFER_SIZE) {
+            Log.w(TAG, "Temporal unit larger than " + MAX_BUFFER_SIZE + " bytes dropped");
+            onPacketLoss();
+            return false;
+        }
+        byte[] newBuffer = new byte[Math.min(MAX_BUFFER_SIZE, Math.max(temporalUnit.length * 2, temporalUnitLength + length))];
+        System.arraycopy(temporalUnit, 0, newBuffer, 0, temporalUnitLength);
+        temporalUnit = newBuffer;
+        return true;
+    }
+
+    private void appendFragment(@NonNull byte[] data, int offset, int length) {
+        if (fragmentLength + length > fragment.length) {
+            if (fragmentLength + length > MAX_BUFFER_SIZE) {
+                if (DEBUG)
+                    Log.d(TAG, "OBU fragment too large, dropped");
+                fragmentInProgress = false;
+                return;
+            }
+            byte[] newBuffer = new byte[Math.min(MAX_BUFFER_SIZE, Math.max(fragment.length * 2, fragmentLength + length))];
+            System.arraycopy(fragment, 0, newBuffer, 0, fragmentLength);
+            fragment = newBuffer;
+        }
+        System.arraycopy(data, offset, fragment, fragmentLength, length);
+        fragmentLength += length;
+    }
+
+    private boolean readLeb128(@NonNull byte[] data, int offset, int end) {
+        lebValue = 0;
+        for (int i = 0; i < 8 && offset + i < end; i++) {
+            int b = data[offset + i] & 0xFF;
+            lebValue |= (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                lebSize = i + 1;
+                return lebValue >= 0;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,29 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Turns the RTP payloads of one track into media frames (access units, temporal units, audio
+ * frames). One instance per track, created by a factory registered for the rtpmap encoding name.
+ * <p>
+ * Frames are written to buffers owned by the depacketizer and reused for the next frame,
+ * so the data is only valid during the {@link Output} call.
+ */
+public interface RtpDepacketizer {
+
+    interface Output {
+        // flags are AccessUnitAssembler.FLAG_*
+        void onFrame(@NonNull byte[] data, int offset, int length, long timestampUs, int flags);
+    }
+
+    // Packets are delivered in sequence order, payload at offset/length
+    void processRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length, @NonNull Output output);
+
+    // Packets missing between the previous and the next processRtpPacket() call
+    void onPacketLoss(int lostPackets);
+
+    // True while output is broken until the next key frame, the server is asked for one
+    default boolean isWaitingForKeyFrame() {
+        return false;
+    }
+}
@@ -1,90 +1,100 @@
 package com.pradeep.rtspplayer.parser;
 
 
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
 import com.pradeep.rtspplayer.utils.VideoCodecUtils;
 
 public class RtpH264Parser extends RtpParser {
 
+    private static final String TAG = RtpH264Parser.class.getSimpleName();
+
     @Override
-    public byte[] processRtpPacketAndGetNalUnit(byte[] data, int length, boolean marker) {
-        byte nalType = (byte) (data[0] & 0x1F);
-        int packFlag = data[1] & 0xC0;
-        byte[] nalUnit = null;
+    public void processRtpPacket(byte[] data, int offset, int length, boolean marker, @NonNull NalUnitListener listener) {
+        if (length < 2)
+            return;
+        byte nalType = (byte) (data[offset] & 0x1F);
         switch (nalType) {
             case VideoCodecUtils.NAL_STAP_A:
+                processAggregationPacket(data, offset + 1, offset + length, 0, listener);
+                break;
             case VideoCodecUtils.NAL_STAP_B:
+                // DON is skipped, NAL units are passed on in transmission order
+                processAggregationPacket(data, offset + 3, offset + length, 0, listener);
+                break;
             case VideoCodecUtils.NAL_MTAP16:
+                // DONB, then DOND and 16-bit timestamp offset per NAL unit
+                processAggregationPacket(data, offset + 3, offset + length, 3, listener);
+                break;
             case VideoCodecUtils.NAL_MTAP24:
+                processAggregationPacket(data, offset + 3, offset + length, 4, listener);
                 break;
             case VideoCodecUtils.NAL_FU_A:
-                switch (packFlag) {
-                    case 0x80:
-                        addStartFragmentedPacket(data, length);
-                        break;
-                    case 0x00:
-                        if (marker) {
-                            nalUnit = addEndFragmentedPacketAndCombine(data, length);
-                        } else {
-                            addMiddleFragmentedPacket(data, length);
-                        }
-                        break;
-                    case 0x40:
-                        nalUnit = addEndFragmentedPacketAndCombine(data, length);
-                        break;
-                }
+                processFragmentationUnitPacket(data, offset, length, 0, marker, listener);
                 break;
 
             case VideoCodecUtils.NAL_FU_B:
+                // Only used for the first fragment, DON follows the FU header
+                processFragmentationUnitPacket(data, offset, length, 2, marker, listener);
                 break;
 
             default:
-                nalUnit = processSingleFramePacket(data, length);
                 clearFragmentedBuffer();
+                processSingleFramePacket(data, offset, length, listener);
                 break;
         }
-        return nalUnit;
     }
 
-    private void addStartFragmentedPacket(byte[] data, int length) {
-        fragmentedPackets = 0;
-        fragmentedBufferLength = length - 1;
-        fragmentedBuffer[0] = new byte[fragmentedBufferLength];
-        fragmentedBuffer[0][0] = (byte) ((data[0] & 0xE0) | (data[1] & 0x1F));
-        System.arraycopy(data, 2, fragmentedBuffer[0], 1, length - 2);
+    @Override
+    protected boolean isSlice(byte nalHeader) {
+        int type = nalHeader & 0x1F;
+        return type >= 1 && type <= VideoCodecUtils.NAL_IDR_SLICE;
     }
 
-    private void addMiddleFragmentedPacket(byte[] data, int length) {
-        fragmentedPackets++;
-        if (fragmentedPackets >= fragmentedBuffer.length) {
-            fragmentedBuffer[0] = null;
-        } else {
-            fragmentedBufferLength += length - 2;
-            fragmentedBuffer[fragmentedPackets] = new byte[length - 2];
-            System.arraycopy(data, 2, fragmentedBuffer[fragmentedPackets], 0, length - 2);
-        }
+    @Override
+    protected boolean isKeyFrameSlice(byte nalHeader) {
+        return (nalHeader & 0x1F) == VideoCodecUtils.NAL_IDR_SLICE;
+    }
+
+    // first_mb_in_slice is ue(v), 0 is coded as a single 1 bit
+    @Override
+    protected boolean isFirstSliceOfPicture(@NonNull byte[] data, int offset, int length) {
+        return length > 1 && (data[offset + 1] & 0x80) != 0;
     }
 
-    private byte[] addEndFragmentedPacketAndCombine(byte[] data, int length) {
-        byte[] nalUnit = null;
-        int tmpLen;
-        if (fragmentedBuffer[0] != null) {
-            nalUnit = new byte[fragmentedBufferLength + length + 2];
-            writeNalPrefix0001(nalUnit);
-            tmpLen = 4;
-            for (int i = 0; i <= fragmentedPackets; i++) {
-                System.arraycopy(fragmentedBuffer[i], 0, nalUnit, tmpLen, fragmentedBuffer[i].length);
-                tmpLen += fragmentedBuffer[i].length;
+    // STAP/MTAP (RFC 6184 5.7). Every aggregated NAL unit is emitted separately. Units after
+    // the size field carry unitHeaderSize bytes (DOND, timestamp offset) before the NAL unit.
+    private void processAggregationPacket(byte[] data, int position, int end, int unitHeaderSize, @NonNull NalUnitListener listener) {
+        clearFragmentedBuffer();
+        while (end - position >= 2) {
+            int size = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+            position += 2;
+            if (size > end - position || size <= unitHeaderSize) {
+                if (size != 0)
+                    Log.w(TAG, "Invalid aggregation unit size " + size);
+                return;
             }
-            System.arraycopy(data, 2, nalUnit, tmpLen, length - 2);
-            clearFragmentedBuffer();
+            processSingleFramePacket(data, position + unitHeaderSize, size - unitHeaderSize, listener);
+            position += size;
         }
-        return nalUnit;
     }
 
-    private void clearFragmentedBuffer() {
-        for (int i = 0; i <= fragmentedPackets; i++) {
-            fragmentedBuffer[i] = null;
+    private void processFragmentationUnitPacket(byte[] data, int offset, int length, int donSize, boolean marker, @NonNull NalUnitListener listener) {
+        if (length < 2 + donSize)
+            return;
+        int fuHeader = data[offset + 1] & 0xFF;
+        if ((fuHeader & 0x80) != 0) {
+            // Start fragment. NAL header is rebuilt from FU indicator (F, NRI) and FU header (type).
+            beginNalUnit();
+            appendNalUnit((byte) ((data[offset] & 0xE0) | (fuHeader & 0x1F)));
+            fragmentInProgress = true;
+        } else if (!fragmentInProgress) {
+            return;
         }
+        appendNalUnit(data, offset + 2 + donSize, length - 2 - donSize);
+        if ((fuHeader & 0x40) != 0 || marker)
+            emitNalUnit(listener);
     }
 }
-
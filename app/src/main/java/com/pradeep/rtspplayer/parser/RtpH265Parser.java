@@ -1,82 +1,142 @@
 package com.pradeep.rtspplayer.parser;
 
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
 public class RtpH265Parser extends RtpParser {
 
+    private static final String TAG = RtpH265Parser.class.getSimpleName();
+
+    private static final int PAYLOAD_HEADER_SIZE = 2;
+
+    // DONL/DOND fields are present when sprop-max-don-diff > 0 (RFC 7798 4.4)
+    private final boolean donPresent;
+
+    public RtpH265Parser() {
+        this(false);
+    }
+
+    public RtpH265Parser(boolean donPresent) {
+        this.donPresent = donPresent;
+    }
+
+    /**
+     * PACI packets are unwrapped by rewriting the payload header of the contained packet in place,
+     * so {@code data} may be modified.
+     */
     @Override
-    public byte[] processRtpPacketAndGetNalUnit(byte[] data, int length, boolean marker) {
-        byte nalType = (byte) ((data[0] >> 1) & 0x3F);
-        byte[] nalUnit = null;
+    public void processRtpPacket(byte[] data, int offset, int length, boolean marker, @NonNull NalUnitListener listener) {
+        if (length < 3)
+            return;
+        byte nalType = (byte) ((data[offset] >> 1) & 0x3F);
         if (nalType < RTP_PACKET_TYPE_AP) {
-            nalUnit = processSingleFramePacket(data, length);
             clearFragmentedBuffer();
+            processSingleNalUnitPacket(data, offset, length, listener);
+        } else if (nalType == RTP_PACKET_TYPE_AP) {
+            processAggregationPacket(data, offset, length, listener);
         } else if (nalType == RTP_PACKET_TYPE_FU) {
-            nalUnit = processFragmentationUnitPacket(data, length, marker);
+            processFragmentationUnitPacket(data, offset, length, marker, listener);
+        } else if (nalType == RTP_PACKET_TYPE_PACI) {
+            processPaciPacket(data, offset, length, marker, listener);
         }
-
-        return nalUnit;
     }
 
-    private byte[] processFragmentationUnitPacket(byte[] data, int length, boolean marker) {
-        int fuHeader = data[2] & 0xFF;
-        boolean isFirstFuPacket = (fuHeader & 0x80) > 0;
-        boolean isLastFuPacket = (fuHeader & 0x40) > 0;
-
-        if (isFirstFuPacket) {
-            addStartFragmentedPacket(data, length);
-        } else if (isLastFuPacket || marker) {
-            return addEndFragmentedPacketAndCombine(data, length);
-        } else {
-            addMiddleFragmentedPacket(data, length);
-        }
-        return null;
+    // VCL NAL unit types are 0-31, IRAP pictures (BLA, IDR, CRA) 16-23
+    @Override
+    protected boolean isSlice(byte nalHeader) {
+        return ((nalHeader >> 1) & 0x3F) < 32;
     }
 
-    private void addStartFragmentedPacket(byte[] data, int length) {
-        fragmentedPackets = 0;
-        fragmentedBufferLength = length - 1;
-        fragmentedBuffer[0] = new byte[fragmentedBufferLength];
-
-        int tid = data[1] & 0x7;
-        int fuHeader = data[2] & 0xFF;
-        int nalUnitType = fuHeader & 0x3F;
+    @Override
+    protected boolean isKeyFrameSlice(byte nalHeader) {
+        int type = (nalHeader >> 1) & 0x3F;
+        return type >= 16 && type <= 23;
+    }
 
-        fragmentedBuffer[0][0] = (byte) (((nalUnitType << 1) & 0x7F));
-        fragmentedBuffer[0][1] = (byte) tid;
-        System.arraycopy(data, 3, fragmentedBuffer[0], 2, length - 3);
+    // first_slice_segment_in_pic_flag follows the 2-byte NAL unit header
+    @Override
+    protected boolean isFirstSliceOfPicture(@NonNull byte[] data, int offset, int length) {
+        return length > 2 && (data[offset + 2] & 0x80) != 0;
     }
 
-    private void addMiddleFragmentedPacket(byte[] data, int length) {
-        fragmentedPackets++;
-        if (fragmentedPackets >= fragmentedBuffer.length) {
-            fragmentedBuffer[0] = null;
-        } else {
-            fragmentedBufferLength += length - 3;
-            fragmentedBuffer[fragmentedPackets] = new byte[length - 3];
-            System.arraycopy(data, 3, fragmentedBuffer[fragmentedPackets], 0, length - 3);
+    private void processSingleNalUnitPacket(byte[] data, int offset, int length, @NonNull NalUnitListener listener) {
+        if (!donPresent) {
+            processSingleFramePacket(data, offset, length, listener);
+            return;
         }
+        // Payload header, DONL, NAL unit payload
+        if (length < PAYLOAD_HEADER_SIZE + 2)
+            return;
+        beginNalUnit();
+        appendNalUnit(data, offset, PAYLOAD_HEADER_SIZE);
+        appendNalUnit(data, offset + PAYLOAD_HEADER_SIZE + 2, length - PAYLOAD_HEADER_SIZE - 2);
+        emitNalUnit(listener);
     }
 
-    private byte[] addEndFragmentedPacketAndCombine(byte[] data, int length) {
-        byte[] nalUnit = null;
-        if (fragmentedBuffer[0] != null) {
-            nalUnit = new byte[fragmentedBufferLength + length + 3];
-            writeNalPrefix0001(nalUnit);
-            int tmpLen = 4;
-            for (int i = 0; i <= fragmentedPackets; i++) {
-                System.arraycopy(fragmentedBuffer[i], 0, nalUnit, tmpLen, fragmentedBuffer[i].length);
-                tmpLen += fragmentedBuffer[i].length;
+    // AP (RFC 7798 4.4.2). Payload header, then [DONL] size NAL, ([DOND] size NAL)*
+    private void processAggregationPacket(byte[] data, int offset, int length, @NonNull NalUnitListener listener) {
+        clearFragmentedBuffer();
+        int end = offset + length;
+        int position = offset + PAYLOAD_HEADER_SIZE;
+        boolean first = true;
+        while (true) {
+            if (donPresent)
+                position += first ? 2 : 1;
+            first = false;
+            if (end - position < 2)
+                return;
+            int size = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+            position += 2;
+            if (size < PAYLOAD_HEADER_SIZE || size > end - position) {
+                Log.w(TAG, "Invalid aggregation unit size " + size);
+                return;
             }
-            System.arraycopy(data, 3, nalUnit, tmpLen, length - 3);
-            clearFragmentedBuffer();
+            processSingleFramePacket(data, position, size, listener);
+            position += size;
         }
-        return nalUnit;
     }
 
-    private void clearFragmentedBuffer() {
-        for (int i = 0; i <= fragmentedPackets; i++) {
-            fragmentedBuffer[i] = null;
+    private void processFragmentationUnitPacket(byte[] data, int offset, int length, boolean marker, @NonNull NalUnitListener listener) {
+        int fuHeader = data[offset + 2] & 0xFF;
+        int payloadOffset = offset + 3;
+        if ((fuHeader & 0x80) != 0) {
+            // DONL is only carried by the start fragment
+            if (donPresent)
+                payloadOffset += 2;
+            // Start fragment. NAL header is the payload header with the type from FU header.
+            beginNalUnit();
+            appendNalUnit((byte) ((data[offset] & 0x81) | ((fuHeader & 0x3F) << 1)));
+            appendNalUnit(data[offset + 1]);
+            fragmentInProgress = true;
+        } else if (!fragmentInProgress) {
+            return;
         }
+        appendNalUnit(data, payloadOffset, offset + length - payloadOffset);
+        if ((fuHeader & 0x40) != 0 || marker)
+            emitNalUnit(listener);
     }
+
+    // PACI (RFC 7798 4.4.4). The payload header extension is skipped and the payload header of
+    // the contained packet (A bit as F, cType as type) is written right before its payload.
+    private void processPaciPacket(byte[] data, int offset, int length, boolean marker, @NonNull NalUnitListener listener) {
+        if (length < 4)
+            return;
+        int paciFields = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        int a = (paciFields >> 15) & 0x1;
+        int cType = (paciFields >> 9) & 0x3F;
+        int phsSize = (paciFields >> 4) & 0x1F;
+        int payloadOffset = offset + 4 + phsSize;
+        if (cType == RTP_PACKET_TYPE_PACI || payloadOffset >= offset + length)
+            return;
+        byte layerIdTid = data[offset + 1];
+        int headerOffset = payloadOffset - PAYLOAD_HEADER_SIZE;
+        data[headerOffset] = (byte) ((a << 7) | (cType << 1) | (data[offset] & 0x1));
+        data[headerOffset + 1] = layerIdTid;
+        processRtpPacket(data, headerOffset, offset + length - headerOffset, marker, listener);
+    }
+
     private static final byte RTP_PACKET_TYPE_AP = 48;
     private static final byte RTP_PACKET_TYPE_FU = 49;
+    private static final byte RTP_PACKET_TYPE_PACI = 50;
 }
@@ -0,0 +1,338 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Demuxes RTSP interleaved binary frames ("$" + channel + 16-bit length + data, RFC 2326 10.12)
+ * from the RTSP socket.
+ * <p>
+ * Data is read in large chunks into a single buffer and every frame is returned in place as
+ * an offset and length within {@link #getBuffer()}. The frame stays valid until the next call
+ * to {@link #readFrame()}, so the steady-state ingest does not allocate anything.
+ * <p>
+ * RTSP responses interleaved with the media (e.g. keep-alive replies) are recognized in place,
+ * reported to {@link RtspResponseListener} and skipped without losing any following frame.
+ * <p>
+ * During the handshake {@link #readResponse(RtspResponse)} reads the responses through the same
+ * buffer, so media frames received right behind the PLAY response stay buffered for
+ * {@link #readFrame()}.
+ * <p>
+ * Without an input stream the demuxer is fed from a non-blocking channel with
+ * {@link #read(ReadableByteChannel)} and drained with {@link #nextFrame()}.
+ */
+public class RtpInterleavedDemuxer {
+
+    public interface RtspResponseListener {
+        void onRtspResponse(int statusCode, int cSeq, @NonNull byte[] data, int offset, int length);
+
+        // Called instead for a response which does not fit the buffer. It is skipped.
+        default void onRtspResponseTooLarge() {
+        }
+    }
+
+    private static final String TAG = RtpInterleavedDemuxer.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final byte INTERLEAVED_MAGIC = 0x24; // '$'
+    private static final int INTERLEAVED_HEADER_SIZE = 4;
+    private static final int MAX_FRAME_SIZE = INTERLEAVED_HEADER_SIZE + 0xFFFF;
+    private static final int DEFAULT_BUFFER_SIZE = 2 * MAX_FRAME_SIZE;
+    private static final byte[] RTSP_RESPONSE_MAGIC = "RTSP/1.0 ".getBytes(StandardCharsets.US_ASCII);
+    // compact() always keeps that much room behind the read position, so any response up to
+    // this size can be completed in the buffer
+    private static final int MAX_RESPONSE_SIZE = MAX_FRAME_SIZE;
+    private static final int RESPONSE_NEED_MORE_DATA = 0;
+    private static final int RESPONSE_NOT_FOUND = -1;
+
+    private final @Nullable InputStream inputStream;
+    private final @NonNull byte[] buffer;
+    private @Nullable ByteBuffer channelBuffer;
+    private int readPosition = 0;
+    private int writePosition = 0;
+
+    private int channel = -1;
+    private int frameOffset = 0;
+    private int frameLength = 0;
+
+    private @Nullable RtspResponseListener responseListener;
+    // Set while readResponse() waits for a response
+    private @Nullable RtspResponse pendingResponse;
+    private boolean responseFound = false;
+    private boolean responseTooLarge = false;
+
+    public RtpInterleavedDemuxer(@NonNull InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    public RtpInterleavedDemuxer() {
+        this.inputStream = null;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    public void setRtspResponseListener(@Nullable RtspResponseListener listener) {
+        responseListener = listener;
+    }
+
+    /**
+     * Blocks until the next interleaved frame is fully buffered.
+     * @return false on end of stream
+     */
+    public boolean readFrame() throws IOException {
+        while (!nextFrame()) {
+            if (!fill())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until the next RTSP response is fully buffered and parses it. Interleaved frames
+     * before the response are dropped, data following it stays in the buffer.
+     * @return false on end of stream
+     * @throws IOException also if the response is larger than the buffer can hold
+     */
+    public boolean readResponse(@NonNull RtspResponse response) throws IOException {
+        pendingResponse = response;
+        responseFound = false;
+        responseTooLarge = false;
+        try {
+            while (!responseFound) {
+                if (nextFrame()) {
+                    if (DEBUG)
+                        Log.d(TAG, "Dropped frame on channel " + channel + " while waiting for RTSP response");
+                } else if (!responseFound && !fill()) {
+                    return false;
+                }
+            }
+            if (responseTooLarge)
+                throw new IOException("RTSP response larger than " + MAX_RESPONSE_SIZE + " bytes");
+            return true;
+        } finally {
+            pendingResponse = null;
+            responseFound = false;
+            responseTooLarge = false;
+        }
+    }
+
+    /**
+     * Reads once from the stream, blocking at most for the socket read timeout. Frames completed
+     * by the data are then returned by {@link #nextFrame()}.
+     * @return false on end of stream
+     * @throws java.net.SocketTimeoutException if nothing arrived within the read timeout
+     */
+    public boolean read() throws IOException {
+        return fill();
+    }
+
+    /**
+     * Parses the next frame from already buffered data without doing any I/O.
+     * @return false if more data is needed
+     */
+    public boolean nextFrame() {
+        while (writePosition - readPosition >= INTERLEAVED_HEADER_SIZE) {
+            byte first = buffer[readPosition];
+            if (first == INTERLEAVED_MAGIC) {
+                int length = ((buffer[readPosition + 2] & 0xFF) << 8) | (buffer[readPosition + 3] & 0xFF);
+                int available = writePosition - readPosition;
+                // Both RTP and RTCP are version 2. Anything else is a false '$' match.
+                if (length > 0 && available > INTERLEAVED_HEADER_SIZE
+                        && (buffer[readPosition + INTERLEAVED_HEADER_SIZE] & 0xC0) != 0x80) {
+                    skipToNextSyncByte();
+                    continue;
+                }
+                if (available < INTERLEAVED_HEADER_SIZE + length)
+                    return false;
+
+                channel = buffer[readPosition + 1] & 0xFF;
+                frameOffset = readPosition + INTERLEAVED_HEADER_SIZE;
+                frameLength = length;
+                readPosition = frameOffset + length;
+                if (DEBUG)
+                    Log.v(TAG, "Frame channel: " + channel + ", size: " + length);
+                return true;
+            } else if (first == RTSP_RESPONSE_MAGIC[0]) {
+                int consumed = processResponse();
+                if (consumed == RESPONSE_NEED_MORE_DATA)
+                    return false;
+                if (consumed == RESPONSE_NOT_FOUND)
+                    skipToNextSyncByte();
+                else if (responseFound)
+                    return false;
+            } else {
+                skipToNextSyncByte();
+            }
+        }
+        return false;
+    }
+
+    // Bulk scan for the next byte which can start an interleaved frame or an RTSP response.
+    private void skipToNextSyncByte() {
+        int i = readPosition + 1;
+        while (i < writePosition && buffer[i] != INTERLEAVED_MAGIC && buffer[i] != RTSP_RESPONSE_MAGIC[0])
+            i++;
+        if (DEBUG)
+            Log.d(TAG, "Skipped " + (i - readPosition) + " bytes of non-interleaved data");
+        readPosition = i;
+    }
+
+    // Handles "RTSP/1.0 ..." response block at the read position.
+    // Returns number of bytes consumed, RESPONSE_NEED_MORE_DATA or RESPONSE_NOT_FOUND.
+    private int processResponse() {
+        int available = writePosition - readPosition;
+        int magicLength = Math.min(available, RTSP_RESPONSE_MAGIC.length);
+        for (int i = 0; i < magicLength; i++) {
+            if (buffer[readPosition + i] != RTSP_RESPONSE_MAGIC[i])
+                return RESPONSE_NOT_FOUND;
+        }
+        if (magicLength < RTSP_RESPONSE_MAGIC.length)
+            return RESPONSE_NEED_MORE_DATA;
+
+        // Search for the empty line. Some cameras use "\n" instead of "\r\n".
+        int headersEnd = -1;
+        int end = Math.min(writePosition, readPosition + MAX_RESPONSE_SIZE);
+        for (int i = readPosition + 1; i < end; i++) {
+            if (buffer[i] == '\n' && (buffer[i - 1] == '\n' || (buffer[i - 1] == '\r' && buffer[i - 2] == '\n'))) {
+                headersEnd = i + 1;
+                break;
+            }
+        }
+        if (headersEnd == -1)
+            return available < MAX_RESPONSE_SIZE ? RESPONSE_NEED_MORE_DATA : onResponseTooLarge();
+
+        int statusCode = parseInt(readPosition + RTSP_RESPONSE_MAGIC.length, headersEnd);
+        int cSeq = -1;
+        int contentLength = 0;
+        int lineStart = readPosition;
+        for (int i = readPosition; i < headersEnd; i++) {
+            if (buffer[i] != '\n')
+                continue;
+            if (startsWithIgnoreCase(lineStart, i, "CSeq:"))
+                cSeq = parseInt(lineStart + 5, i);
+            else if (startsWithIgnoreCase(lineStart, i, "Content-Length:"))
+                contentLength = Math.max(0, parseInt(lineStart + 15, i));
+            lineStart = i + 1;
+        }
+        int responseLength = headersEnd - readPosition + contentLength;
+        if (contentLength > MAX_RESPONSE_SIZE || responseLength > MAX_RESPONSE_SIZE)
+            return onResponseTooLarge();
+        if (available < responseLength)
+            return RESPONSE_NEED_MORE_DATA;
+
+        if (DEBUG)
+            Log.d(TAG, "Found RTSP response (status: " + statusCode + ", CSeq: " + cSeq + ")");
+        int responseOffset = readPosition;
+        readPosition += responseLength;
+        if (pendingResponse != null) {
+            pendingResponse.parse(buffer, responseOffset, responseLength);
+            responseFound = true;
+        } else if (responseListener != null) {
+            responseListener.onRtspResponse(statusCode, cSeq, buffer, responseOffset, responseLength);
+        }
+        return responseLength;
+    }
+
+    // Fails a pending readResponse(). Otherwise the listener is told, the block is skipped and
+    // the stream resyncs.
+    private int onResponseTooLarge() {
+        Log.w(TAG, "RTSP response larger than " + MAX_RESPONSE_SIZE + " bytes");
+        if (pendingResponse == null) {
+            if (responseListener != null)
+                responseListener.onRtspResponseTooLarge();
+            return RESPONSE_NOT_FOUND;
+        }
+        responseTooLarge = true;
+        responseFound = true;
+        return RESPONSE_NEED_MORE_DATA;
+    }
+
+    private boolean startsWithIgnoreCase(int offset, int end, @NonNull String prefix) {
+        if (end - offset < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) buffer[offset + i]) != Character.toLowerCase(prefix.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    // Parses the first decimal number in [offset, end). Returns -1 if not found.
+    private int parseInt(int offset, int end) {
+        int i = offset;
+        while (i < end && buffer[i] == ' ')
+            i++;
+        if (i >= end || buffer[i] < '0' || buffer[i] > '9')
+            return -1;
+        int value = 0;
+        while (i < end && buffer[i] >= '0' && buffer[i] <= '9')
+            value = value * 10 + (buffer[i++] - '0');
+        return value;
+    }
+
+    /**
+     * Reads whatever the non-blocking channel has into the buffer. Invalidates the last frame.
+     * @return number of bytes read, -1 on end of stream
+     */
+    public int read(@NonNull ReadableByteChannel channel) throws IOException {
+        compact();
+        if (channelBuffer == null)
+            channelBuffer = ByteBuffer.wrap(buffer);
+        channelBuffer.limit(buffer.length);
+        channelBuffer.position(writePosition);
+        int readBytes = channel.read(channelBuffer);
+        if (readBytes > 0)
+            writePosition += readBytes;
+        return readBytes;
+    }
+
+    // Reads as much as available into the buffer
+    private boolean fill() throws IOException {
+        if (inputStream == null)
+            throw new IllegalStateException("Demuxer is fed from a channel");
+        compact();
+        int readBytes = inputStream.read(buffer, writePosition, buffer.length - writePosition);
+        if (readBytes < 0)
+            return false;
+        writePosition += readBytes;
+        return true;
+    }
+
+    // Compacts the buffer if the tail is too short for the largest possible frame
+    private void compact() {
+        if (readPosition == writePosition) {
+            readPosition = 0;
+            writePosition = 0;
+        } else if (buffer.length - readPosition < MAX_FRAME_SIZE) {
+            int remaining = writePosition - readPosition;
+            System.arraycopy(buffer, readPosition, buffer, 0, remaining);
+            readPosition = 0;
+            writePosition = remaining;
+        }
+    }
+
+    @NonNull
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public int getFrameOffset() {
+        return frameOffset;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+}
@@ -0,0 +1,175 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fixed-capacity reorder buffer for one RTP track, keyed by the 16-bit sequence number.
+ * <p>
+ * Packets are released to the {@link Listener} strictly in sequence order. A missing packet is
+ * waited for at most {@code maxLatencyMs}; after that the gap is reported as a loss event and
+ * the following packets are released. With zero latency packets are passed through without
+ * copying and only gaps are detected.
+ * <p>
+ * Slot buffers are allocated on first use and reused afterwards.
+ */
+public class RtpJitterBuffer {
+
+    public interface Listener {
+        void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length);
+        void onRtpPacketLoss(int lostPackets);
+    }
+
+    private static final String TAG = RtpJitterBuffer.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    public static final int DEFAULT_CAPACITY = 512;
+    private static final int MAX_MISORDER = 100; // RFC 3550 A.1
+
+    private static final class Slot {
+        final RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+        byte[] data = new byte[0];
+        int length;
+        long arrivalTimeMs;
+        boolean used;
+    }
+
+    private final @NonNull Listener listener;
+    private final int maxLatencyMs;
+    private final Slot[] slots;
+    private final int mask;
+    private int bufferedPackets = 0;
+    private boolean hasExpectedSeqNum = false;
+    private int expectedSeqNum;
+
+    public RtpJitterBuffer(@NonNull Listener listener, int maxLatencyMs) {
+        this(listener, maxLatencyMs, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of packets which can be held, rounded up to a power of two
+     */
+    public RtpJitterBuffer(@NonNull Listener listener, int maxLatencyMs, int capacity) {
+        this.listener = listener;
+        this.maxLatencyMs = Math.max(0, maxLatencyMs);
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[maxLatencyMs > 0 ? size : 0];
+        mask = size - 1;
+    }
+
+    public void push(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, long nowMs) {
+        int seqNum = header.sequenceNumber;
+        if (!hasExpectedSeqNum) {
+            hasExpectedSeqNum = true;
+            expectedSeqNum = seqNum;
+        }
+        int distance = (short) (seqNum - expectedSeqNum);
+        if (distance < -MAX_MISORDER) {
+            // Sequence numbers restarted (e.g. camera restarted the stream)
+            Log.w(TAG, "RTP sequence jumped from " + expectedSeqNum + " to " + seqNum);
+            flush();
+            expectedSeqNum = seqNum;
+            distance = 0;
+        } else if (distance < 0) {
+            // Duplicate or arrived after its gap was already reported
+            if (DEBUG)
+                Log.d(TAG, "Dropped late packet " + seqNum + " (expected " + expectedSeqNum + ")");
+            return;
+        }
+
+        if (maxLatencyMs == 0) {
+            if (distance > 0)
+                listener.onRtpPacketLoss(distance);
+            expectedSeqNum = (seqNum + 1) & 0xFFFF;
+            listener.onRtpPacket(header, data, header.payloadOffset, header.payloadSize);
+            return;
+        }
+
+        if (distance >= slots.length) {
+            // Too far ahead to fit. Release everything held and restart from this packet.
+            flush();
+            distance = (short) (seqNum - expectedSeqNum);
+            if (distance > 0) {
+                listener.onRtpPacketLoss(distance);
+                expectedSeqNum = seqNum;
+            }
+        }
+
+        Slot slot = getSlot(seqNum);
+        if (slot.used) {
+            if (DEBUG)
+                Log.d(TAG, "Dropped duplicate packet " + seqNum);
+        } else {
+            if (slot.data.length < header.payloadSize)
+                slot.data = new byte[header.payloadSize];
+            System.arraycopy(data, header.payloadOffset, slot.data, 0, header.payloadSize);
+            slot.header.copyFrom(header);
+            slot.header.payloadOffset = 0;
+            slot.length = header.payloadSize;
+            slot.arrivalTimeMs = nowMs;
+            slot.used = true;
+            bufferedPackets++;
+        }
+        drain(nowMs);
+    }
+
+    /**
+     * Releases all in-order packets and skips gaps which waited longer than the latency budget.
+     */
+    public void drain(long nowMs) {
+        while (bufferedPackets > 0) {
+            Slot slot = getSlot(expectedSeqNum);
+            if (slot.used) {
+                release(slot);
+                continue;
+            }
+            // Gap. Wait for the missing packet as long as the oldest packet after it allows.
+            int lostPackets = 1;
+            Slot next = getSlot(expectedSeqNum + 1);
+            while (!next.used) {
+                lostPackets++;
+                next = getSlot(expectedSeqNum + lostPackets);
+            }
+            if (nowMs - next.arrivalTimeMs < maxLatencyMs)
+                return;
+            listener.onRtpPacketLoss(lostPackets);
+            expectedSeqNum = (expectedSeqNum + lostPackets) & 0xFFFF;
+        }
+    }
+
+    /**
+     * Releases all held packets regardless of their age, reporting gaps between them.
+     */
+    public void flush() {
+        while (bufferedPackets > 0)
+            drain(Long.MAX_VALUE);
+    }
+
+    public void reset() {
+        for (Slot slot : slots) {
+            if (slot != null)
+                slot.used = false;
+        }
+        bufferedPackets = 0;
+        hasExpectedSeqNum = false;
+    }
+
+    private void release(@NonNull Slot slot) {
+        slot.used = false;
+        bufferedPackets--;
+        expectedSeqNum = (expectedSeqNum + 1) & 0xFFFF;
+        listener.onRtpPacket(slot.header, slot.data, 0, slot.length);
+    }
+
+    @NonNull
+    private Slot getSlot(int seqNum) {
+        int index = seqNum & mask;
+        Slot slot = slots[index];
+        if (slot == null) {
+            slot = new Slot();
+            slots[index] = slot;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,381 @@
+package com.pradeep.rtspplayer.parser;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * RFC 2435 JPEG depacketizer. Rebuilds a complete JFIF image (headers, scan, EOI) per frame.
+ * <p>
+ * Quantization tables are computed once per Q value and the JPEG header is only rebuilt when
+ * Q, type, size or restart interval change. The frame buffer is reused, its data is only
+ * valid during the listener call.
+ */
+public class RtpJpegParser {
+
+    public interface JpegFrameListener {
+        void onJpegFrame(@NonNull byte[] data, int offset, int length);
+    }
+
+    private static final String TAG = RtpJpegParser.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int JPEG_HEADER_SIZE = 8;
+    private static final int RESTART_HEADER_SIZE = 4;
+    private static final int QUANT_HEADER_SIZE = 4;
+    private static final int INITIAL_FRAME_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_FRAME_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    // Q 128-255 carry the tables in band, Q 255 tables must not be cached (RFC 2435 3.1.8)
+    private static final int Q_DYNAMIC = 128;
+    private static final int Q_NOT_CACHED = 255;
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMA_QUANTIZER = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    private static final int[] CHROMA_QUANTIZER = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] LUMA_DC_CODE_LENS = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int[] LUMA_DC_SYMBOLS = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+    private static final int[] LUMA_AC_CODE_LENS = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+    private static final int[] LUMA_AC_SYMBOLS = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+            0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+            0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+            0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+            0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+            0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+            0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+            0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+            0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+            0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+            0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] CHROMA_DC_CODE_LENS = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+    private static final int[] CHROMA_DC_SYMBOLS = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+    private static final int[] CHROMA_AC_CODE_LENS = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+    private static final int[] CHROMA_AC_SYMBOLS = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21,
+            0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+            0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34,
+            0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+            0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+            0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78,
+            0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96,
+            0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+            0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2,
+            0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9,
+            0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    private static final byte[] EOI = { (byte) 0xFF, (byte) 0xD9 };
+
+    // The Huffman tables are the same for every frame (RFC 2435 3.1.3)
+    private static final byte[] HUFFMAN_TABLES = createHuffmanTables();
+
+    // Luma and chroma tables (zigzag order) per Q, computed or received once
+    private final byte[][] quantTables = new byte[Q_NOT_CACHED][];
+    private final byte[] dynamicQuantTable = new byte[128];
+
+    private byte[] header = new byte[0];
+    private int headerLength = 0;
+    private int headerQ = -1;
+    private int headerType = -1;
+    private int headerWidth = -1;
+    private int headerHeight = -1;
+    private int headerRestartInterval = -1;
+
+    private byte[] frameBuffer = new byte[INITIAL_FRAME_BUFFER_SIZE];
+    private int frameLength = 0;
+    private int scanLength = 0;
+    private boolean frameInProgress = false;
+
+    // Remaining packets of the frame are dropped
+    public void onPacketLoss() {
+        frameInProgress = false;
+    }
+
+    public void processRtpPacket(@NonNull byte[] data, int offset, int length, boolean marker, @NonNull JpegFrameListener listener) {
+        if (length < JPEG_HEADER_SIZE)
+            return;
+        int end = offset + length;
+        int fragmentOffset = ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        int type = data[offset + 4] & 0xFF;
+        int q = data[offset + 5] & 0xFF;
+        int width = (data[offset + 6] & 0xFF) * 8;
+        int height = (data[offset + 7] & 0xFF) * 8;
+        int position = offset + JPEG_HEADER_SIZE;
+
+        int restartInterval = 0;
+        if (type >= 64 && type <= 127) {
+            if (position + RESTART_HEADER_SIZE > end)
+                return;
+            restartInterval = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+            position += RESTART_HEADER_SIZE;
+            type -= 64;
+        }
+        if (type > 1) {
+            if (DEBUG)
+                Log.d(TAG, "Unsupported JPEG type " + type);
+            return;
+        }
+
+        if (fragmentOffset == 0) {
+            byte[] quantTable;
+            if (q >= Q_DYNAMIC) {
+                if (position + QUANT_HEADER_SIZE > end)
+                    return;
+                int precision = data[position + 1] & 0xFF;
+                int quantLength = ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+                position += QUANT_HEADER_SIZE;
+                if (position + quantLength > end)
+                    return;
+                quantTable = getDynamicQuantTable(q, precision, data, position, quantLength);
+                position += quantLength;
+                if (quantTable == null)
+                    return;
+            } else {
+                quantTable = getQuantTable(q);
+            }
+            if (width == 0 || height == 0) {
+                Log.w(TAG, "JPEG frames larger than 2040 pixels are not supported");
+                return;
+            }
+            updateHeader(quantTable, q, type, width, height, restartInterval);
+            frameLength = 0;
+            scanLength = 0;
+            frameInProgress = true;
+            append(header, 0, headerLength);
+        } else if (!frameInProgress || fragmentOffset != scanLength) {
+            // Missing fragment, wait for the next frame
+            frameInProgress = false;
+            return;
+        }
+
+        int scanDataLength = end - position;
+        append(data, position, scanDataLength);
+        scanLength += scanDataLength;
+
+        if (marker && frameInProgress) {
+            if (frameLength < 2 || (frameBuffer[frameLength - 2] & 0xFF) != 0xFF || (frameBuffer[frameLength - 1] & 0xFF) != 0xD9)
+                append(EOI, 0, EOI.length);
+            if (frameInProgress)
+                listener.onJpegFrame(frameBuffer, 0, frameLength);
+            frameInProgress = false;
+        }
+    }
+
+    @NonNull
+    private byte[] getQuantTable(int q) {
+        byte[] table = quantTables[q];
+        if (table == null) {
+            table = createQuantTable(q);
+            quantTables[q] = table;
+        }
+        return table;
+    }
+
+    // Tables are 64 bytes luma and 64 bytes chroma, sent once for Q < 255 (empty afterwards)
+    private byte[] getDynamicQuantTable(int q, int precision, @NonNull byte[] data, int offset, int length) {
+        if (length == 0) {
+            byte[] table = q < Q_NOT_CACHED ? quantTables[q] : null;
+            if (table == null && DEBUG)
+                Log.d(TAG, "No quantization tables for Q " + q + " received yet");
+            return table;
+        }
+        if (precision != 0 || (length != 64 && length != 128)) {
+            Log.w(TAG, "Unsupported quantization tables (precision " + precision + ", length " + length + ")");
+            return null;
+        }
+        byte[] table = q < Q_NOT_CACHED ? quantTables[q] : dynamicQuantTable;
+        if (table == null) {
+            table = new byte[128];
+            quantTables[q] = table;
+        }
+        System.arraycopy(data, offset, table, 0, 64);
+        System.arraycopy(data, offset + (length == 128 ? 64 : 0), table, 64, 64);
+        if (q == Q_NOT_CACHED)
+            headerQ = -1; // Tables may differ every frame
+        return table;
+    }
+
+    private void updateHeader(@NonNull byte[] quantTable, int q, int type, int width, int height, int restartInterval) {
+        if (q == headerQ && type == headerType && width == headerWidth && height == headerHeight && restartInterval == headerRestartInterval)
+            return;
+        int length = 2 + 2 * (4 + 1 + 64) + (restartInterval > 0 ? 6 : 0) + 19 + HUFFMAN_TABLES.length + 14;
+        if (header.length < length)
+            header = new byte[length];
+        int position = 0;
+        position = writeMarker(header, position, 0xD8);
+
+        for (int i = 0; i < 2; i++) {
+            position = writeMarker(header, position, 0xDB);
+            position = writeShort(header, position, 2 + 1 + 64);
+            header[position++] = (byte) i;
+            System.arraycopy(quantTable, i * 64, header, position, 64);
+            position += 64;
+        }
+
+        if (restartInterval > 0) {
+            position = writeMarker(header, position, 0xDD);
+            position = writeShort(header, position, 4);
+            position = writeShort(header, position, restartInterval);
+        }
+
+        // SOF0, 3 components, luma 2x1 (type 0) or 2x2 (type 1) subsampled chroma
+        position = writeMarker(header, position, 0xC0);
+        position = writeShort(header, position, 17);
+        header[position++] = 8;
+        position = writeShort(header, position, height);
+        position = writeShort(header, position, width);
+        header[position++] = 3;
+        header[position++] = 0;
+        header[position++] = (byte) (type == 0 ? 0x21 : 0x22);
+        header[position++] = 0;
+        header[position++] = 1;
+        header[position++] = 0x11;
+        header[position++] = 1;
+        header[position++] = 2;
+        header[position++] = 0x11;
+        header[position++] = 1;
+
+        System.arraycopy(HUFFMAN_TABLES, 0, header, position, HUFFMAN_TABLES.length);
+        position += HUFFMAN_TABLES.length;
+
+        position = writeMarker(header, position, 0xDA);
+        position = writeShort(header, position, 12);
+        header[position++] = 3;
+        header[position++] = 0;
+        header[position++] = 0;
+        header[position++] = 1;
+        header[position++] = 0x11;
+        header[position++] = 2;
+        header[position++] = 0x11;
+        header[position++] = 0;
+        header[position++] = 63;
+        header[position++] = 0;
+
+        headerLength = position;
+        headerQ = q;
+        headerType = type;
+        headerWidth = width;
+        headerHeight = height;
+        headerRestartInterval = restartInterval;
+        if (DEBUG)
+            Log.d(TAG, "JPEG header updated (Q " + q + ", type " + type + ", " + width + "x" + height + ")");
+    }
+
+    private void append(@NonNull byte[] data, int offset, int length) {
+        if (frameLength + length > frameBuffer.length) {
+            if (frameLength + length > MAX_FRAME_BUFFER_SIZE) {
+                Log.w(TAG, "JPEG frame larger than " + MAX_FRAME_BUFFER_SIZE + " bytes dropped");
+                frameInProgress = false;
+                return;
+            }
+            byte[] newBuffer = new byte[Math.min(MAX_FRAME_BUFFER_SIZE, Math.max(frameBuffer.length * 2, frameLength + length))];
+            System.arraycopy(frameBuffer, 0, newBuffer, 0, frameLength);
+            frameBuffer = newBuffer;
+        }
+        System.arraycopy(data, offset, frameBuffer, frameLength, length);
+        frameLength += length;
+    }
+
+    // RFC 2435 Appendix A
+    @NonNull
+    private static byte[] createQuantTable(int q) {
+        int factor = Math.max(1, Math.min(99, q));
+        int scale = q < 50 ? 5000 / factor : 200 - factor * 2;
+        byte[] table = new byte[128];
+        for (int i = 0; i < 64; i++) {
+            int luma = (LUMA_QUANTIZER[ZIGZAG[i]] * scale + 50) / 100;
+            int chroma = (CHROMA_QUANTIZER[ZIGZAG[i]] * scale + 50) / 100;
+            table[i] = (byte) Math.max(1, Math.min(255, luma));
+            table[64 + i] = (byte) Math.max(1, Math.min(255, chroma));
+        }
+        return table;
+    }
+
+    @NonNull
+    private static byte[] createHuffmanTables() {
+        int[][][] tables = {
+                { LUMA_DC_CODE_LENS, LUMA_DC_SYMBOLS },
+                { LUMA_AC_CODE_LENS, LUMA_AC_SYMBOLS },
+                { CHROMA_DC_CODE_LENS, CHROMA_DC_SYMBOLS },
+                { CHROMA_AC_CODE_LENS, CHROMA_AC_SYMBOLS },
+        };
+        int[] classIds = { 0x00, 0x10, 0x01, 0x11 };
+        int length = 0;
+        for (int[][] table : tables)
+            length += 2 + 2 + 1 + 16 + table[1].length;
+        byte[] out = new byte[length];
+        int position = 0;
+        for (int i = 0; i < tables.length; i++) {
+            int[] codeLens = tables[i][0];
+            int[] symbols = tables[i][1];
+            position = writeMarker(out, position, 0xC4);
+            position = writeShort(out, position, 2 + 1 + 16 + symbols.length);
+            out[position++] = (byte) classIds[i];
+            for (int codeLen : codeLens)
+                out[position++] = (byte) codeLen;
+            for (int symbol : symbols)
+                out[position++] = (byte) symbol;
+        }
+        return out;
+    }
+
+    private static int writeMarker(@NonNull byte[] out, int position, int marker) {
+        out[position] = (byte) 0xFF;
+        out[position + 1] = (byte) marker;
+        return position + 2;
+    }
+
+    private static int writeShort(@NonNull byte[] out, int position, int value) {
+        out[position] = (byte) (value >> 8);
+        out[position + 1] = (byte) value;
+        return position + 2;
+    }
+}
@@ -1,24 +1,126 @@
 package com.pradeep.rtspplayer.parser;
 
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
 public abstract class RtpParser {
 
-    public abstract byte[] processRtpPacketAndGetNalUnit(byte[] data, int length, boolean marker);
-    protected byte[][] fragmentedBuffer = new byte[1024][];
-    protected int fragmentedBufferLength = 0;
-    protected int fragmentedPackets = 0;
+    // Receives depacketized NAL units with a 00 00 00 01 start code. The data is only valid
+    // during the call, the buffer is reused for the next NAL unit.
+    public interface NalUnitListener {
+        void onNalUnit(@NonNull byte[] data, int offset, int length);
+    }
+
+    private static final String TAG = RtpParser.class.getSimpleName();
+
+    protected static final int NAL_PREFIX_SIZE = 4;
+    private static final int INITIAL_NAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_NAL_BUFFER_SIZE = 16 * 1024 * 1024;
+    // Streams without key frames (e.g. intra refresh) are resumed after that many dropped slices
+    private static final int MAX_SKIPPED_SLICES = 300;
+
+    public abstract void processRtpPacket(byte[] data, int offset, int length, boolean marker, @NonNull NalUnitListener listener);
+
+    protected abstract boolean isSlice(byte nalHeader);
 
-    protected void writeNalPrefix0001(byte[] buffer) {
-        buffer[0] = (byte) 0x00;
-        buffer[1] = (byte) 0x00;
-        buffer[2] = (byte) 0x00;
-        buffer[3] = (byte) 0x01;
+    protected abstract boolean isKeyFrameSlice(byte nalHeader);
+
+    // True if the slice starts a picture. Data begins with the NAL unit header.
+    protected abstract boolean isFirstSliceOfPicture(@NonNull byte[] data, int offset, int length);
+
+    // Single growable buffer for the NAL unit being built, start code at 0. Fragments are
+    // appended in place, so every payload byte is copied once.
+    private byte[] nalBuffer = new byte[INITIAL_NAL_BUFFER_SIZE];
+    private int nalLength = 0;
+    protected boolean fragmentInProgress = false;
+    private boolean waitingForKeyFrame = false;
+    private int skippedSlices = 0;
+
+    // Called by the jitter buffer when packets are missing before the next one.
+    // A NAL unit being reassembled from fragments cannot be completed anymore and the slices
+    // which follow reference a corrupt picture, so they are dropped until the next key frame.
+    public void onPacketLoss(int lostPackets) {
+        clearFragmentedBuffer();
+        if (!waitingForKeyFrame)
+            Log.i(TAG, lostPackets + " RTP packets lost. Waiting for key frame.");
+        waitingForKeyFrame = true;
+        skippedSlices = 0;
     }
 
-    protected byte[] processSingleFramePacket(byte[] data, int length) {
-        byte[] result = new byte[4 + length];
-        writeNalPrefix0001(result);
-        System.arraycopy(data, 0, result, 4, length);
-        return result;
+    public boolean isWaitingForKeyFrame() {
+        return waitingForKeyFrame;
     }
-}
 
+    protected void clearFragmentedBuffer() {
+        fragmentInProgress = false;
+        nalLength = 0;
+    }
+
+    protected void beginNalUnit() {
+        nalLength = NAL_PREFIX_SIZE;
+        nalBuffer[0] = (byte) 0x00;
+        nalBuffer[1] = (byte) 0x00;
+        nalBuffer[2] = (byte) 0x00;
+        nalBuffer[3] = (byte) 0x01;
+    }
+
+    protected void appendNalUnit(byte value) {
+        if (ensureCapacity(1))
+            nalBuffer[nalLength++] = value;
+    }
+
+    protected void appendNalUnit(byte[] data, int offset, int length) {
+        if (length <= 0 || !ensureCapacity(length))
+            return;
+        System.arraycopy(data, offset, nalBuffer, nalLength, length);
+        nalLength += length;
+    }
+
+    protected void emitNalUnit(@NonNull NalUnitListener listener) {
+        int length = nalLength;
+        clearFragmentedBuffer();
+        if (length > NAL_PREFIX_SIZE && (!waitingForKeyFrame || isAllowedWhileWaiting(length)))
+            listener.onNalUnit(nalBuffer, 0, length);
+    }
+
+    // Parameter sets and SEI pass, slices only from the start of the next key frame on. Key
+    // slices after the loss which belong to the picture the loss happened in are dropped too.
+    private boolean isAllowedWhileWaiting(int length) {
+        byte nalHeader = nalBuffer[NAL_PREFIX_SIZE];
+        if (!isSlice(nalHeader))
+            return true;
+        if (isKeyFrameSlice(nalHeader) && isFirstSliceOfPicture(nalBuffer, NAL_PREFIX_SIZE, length - NAL_PREFIX_SIZE)) {
+            Log.i(TAG, "Resynchronized on key frame after " + skippedSlices + " dropped slices");
+            waitingForKeyFrame = false;
+            return true;
+        }
+        if (++skippedSlices >= MAX_SKIPPED_SLICES) {
+            Log.w(TAG, "No key frame after " + skippedSlices + " slices. Resuming.");
+            waitingForKeyFrame = false;
+            return true;
+        }
+        return false;
+    }
+
+    protected void processSingleFramePacket(byte[] data, int offset, int length, @NonNull NalUnitListener listener) {
+        beginNalUnit();
+        appendNalUnit(data, offset, length);
+        emitNalUnit(listener);
+    }
+
+    private boolean ensureCapacity(int length) {
+        int required = nalLength + length;
+        if (required <= nalBuffer.length)
+            return true;
+        if (required > MAX_NAL_BUFFER_SIZE) {
+            Log.w(TAG, "NAL unit larger than " + MAX_NAL_BUFFER_SIZE + " bytes dropped");
+            clearFragmentedBuffer();
+            return false;
+        }
+        byte[] buffer = new byte[Math.min(MAX_NAL_BUFFER_SIZE, Math.max(required, nalBuffer.length * 2))];
+        System.arraycopy(nalBuffer, 0, buffer, 0, nalLength);
+        nalBuffer = buffer;
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+package com.pradeep.rtspplayer.parser;
+
+/**
+ * Converts 32-bit RTP timestamps of one track into 64-bit presentation times in microseconds.
+ * <p>
+ * Timestamps are unwrapped relative to the previous one, so 32-bit wraparound (every ~13 hours
+ * for 90 kHz video) and small backward steps (B-frames, reordering) keep a continuous timeline.
+ * The first timestamp seen maps to 0.
+ */
+public class RtpTimestampUnwrapper {
+
+    private final int clockRateHz;
+    private boolean hasTimestamp = false;
+    private long lastTimestamp;
+    private long lastExtendedTimestamp;
+
+    public RtpTimestampUnwrapper(int clockRateHz) {
+        if (clockRateHz <= 0)
+            throw new IllegalArgumentException("Invalid RTP clock rate " + clockRateHz);
+        this.clockRateHz = clockRateHz;
+    }
+
+    /**
+     * @param timestamp 32-bit RTP timestamp
+     * @return timestamp extended to 64 bits, with the first timestamp at 0
+     */
+    public long unwrap(long timestamp) {
+        if (!hasTimestamp) {
+            hasTimestamp = true;
+            lastTimestamp = timestamp;
+            lastExtendedTimestamp = 0;
+            return 0;
+        }
+        // Signed 32-bit distance handles both wraparound and slightly older timestamps
+        int delta = (int) (timestamp - lastTimestamp);
+        lastTimestamp = timestamp;
+        lastExtendedTimestamp += delta;
+        return lastExtendedTimestamp;
+    }
+
+    /**
+     * @param timestamp 32-bit RTP timestamp
+     * @return presentation time in microseconds since the first timestamp
+     */
+    public long getPresentationTimeUs(long timestamp) {
+        return unwrap(timestamp) * 1_000_000L / clockRateHz;
+    }
+
+    public int getClockRateHz() {
+        return clockRateHz;
+    }
+
+    public void reset() {
+        hasTimestamp = false;
+    }
+}
@@ -0,0 +1,148 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One parsed RTSP response: status code, headers and content. The instance is meant to be
+ * reused for every response of a connection, header arrays only grow.
+ * <p>
+ * Header lookup is case-insensitive. A header may occur more than once (e.g. WWW-Authenticate),
+ * {@link #getHeader(String)} returns the first one, the others are reached by index.
+ */
+public class RtspResponse {
+
+    private static final int INITIAL_HEADER_CAPACITY = 16;
+
+    private int statusCode = -1;
+    private int cSeq = -1;
+    private @NonNull String[] names = new String[INITIAL_HEADER_CAPACITY];
+    private @NonNull String[] values = new String[INITIAL_HEADER_CAPACITY];
+    private int headerCount = 0;
+    private @NonNull String content = "";
+
+    /**
+     * Parses a complete response, status line up to the end of the content.
+     * Some cameras end lines with "\n" instead of "\r\n".
+     */
+    public void parse(@NonNull byte[] data, int offset, int length) {
+        statusCode = -1;
+        cSeq = -1;
+        headerCount = 0;
+        content = "";
+        int end = offset + length;
+        int lineStart = offset;
+        boolean statusLine = true;
+        while (lineStart < end) {
+            int lineEnd = indexOf(data, lineStart, end, (byte) '\n');
+            int nextLine = lineEnd + 1;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r')
+                lineEnd--;
+            if (lineEnd == lineStart) {
+                // Empty line, content follows
+                if (nextLine < end)
+                    content = new String(data, nextLine, end - nextLine, StandardCharsets.UTF_8);
+                return;
+            }
+            if (statusLine) {
+                // "RTSP/1.0 200 OK"
+                int space = indexOf(data, lineStart, lineEnd, (byte) ' ');
+                statusCode = parseInt(data, space + 1, lineEnd);
+                statusLine = false;
+            } else {
+                int colon = indexOf(data, lineStart, lineEnd, (byte) ':');
+                if (colon < lineEnd)
+                    addHeader(data, lineStart, colon, lineEnd);
+            }
+            lineStart = nextLine;
+        }
+    }
+
+    private void addHeader(@NonNull byte[] data, int nameStart, int colon, int lineEnd) {
+        int nameEnd = trimEnd(data, nameStart, colon);
+        int valueStart = colon + 1;
+        while (valueStart < lineEnd && data[valueStart] == ' ')
+            valueStart++;
+        int valueEnd = trimEnd(data, valueStart, lineEnd);
+        if (headerCount == names.length) {
+            String[] newNames = new String[names.length * 2];
+            String[] newValues = new String[values.length * 2];
+            System.arraycopy(names, 0, newNames, 0, headerCount);
+            System.arraycopy(values, 0, newValues, 0, headerCount);
+            names = newNames;
+            values = newValues;
+        }
+        String name = new String(data, nameStart, nameEnd - nameStart, StandardCharsets.ISO_8859_1);
+        names[headerCount] = name;
+        values[headerCount] = new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+        if (name.equalsIgnoreCase("CSeq"))
+            cSeq = parseInt(data, valueStart, valueEnd);
+        headerCount++;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // -1 if missing
+    public int getCSeq() {
+        return cSeq;
+    }
+
+    @Nullable
+    public String getHeader(@NonNull String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (name.equalsIgnoreCase(names[i]))
+                return values[i];
+        }
+        return null;
+    }
+
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    @NonNull
+    public String getHeaderName(int index) {
+        return names[index];
+    }
+
+    @NonNull
+    public String getHeaderValue(int index) {
+        return values[index];
+    }
+
+    // Empty if the response has no content
+    @NonNull
+    public String getContent() {
+        return content;
+    }
+
+    private static int indexOf(@NonNull byte[] data, int offset, int end, byte value) {
+        int i = offset;
+        while (i < end && data[i] != value)
+            i++;
+        return i;
+    }
+
+    private static int trimEnd(@NonNull byte[] data, int start, int end) {
+        while (end > start && data[end - 1] == ' ')
+            end--;
+        return end;
+    }
+
+    // Parses the first decimal number in [offset, end). Returns -1 if not found.
+    private static int parseInt(@NonNull byte[] data, int offset, int end) {
+        int i = offset;
+        while (i < end && data[i] == ' ')
+            i++;
+        if (i >= end || data[i] < '0' || data[i] > '9')
+            return -1;
+        int value = 0;
+        while (i < end && data[i] >= '0' && data[i] <= '9')
+            value = value * 10 + (data[i++] - '0');
+        return value;
+    }
+}
@@ -0,0 +1,90 @@
+package com.pradeep.rtspplayer.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * G.711 A-law/mu-law to 16-bit PCM. Every code is looked up in a table built once per process,
+ * output goes to a buffer which is reused for the next packet.
+ */
+public class G711Decoder {
+
+    private static final short[] ULAW_TABLE = new short[256];
+    private static final short[] ALAW_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ULAW_TABLE[i] = ulawToLinear(i);
+            ALAW_TABLE[i] = alawToLinear(i);
+        }
+    }
+
+    private final @NonNull short[] table;
+    private short[] buffer = new short[1024];
+    private byte[] pcmBuffer = new byte[2048];
+
+    public G711Decoder(boolean aLaw) {
+        table = aLaw ? ALAW_TABLE : ULAW_TABLE;
+    }
+
+    /**
+     * @return PCM samples at index 0 to {@code length}, valid until the next call
+     */
+    @NonNull
+    public short[] decode(@NonNull byte[] data, int offset, int length) {
+        if (buffer.length < length)
+            buffer = new short[length];
+        decode(table, data, offset, length, buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Decodes to 16-bit little-endian PCM, the byte order AudioTrack expects.
+     * @return PCM data at index 0 to {@code 2 * length}, valid until the next call
+     */
+    @NonNull
+    public byte[] decodeToPcm16(@NonNull byte[] data, int offset, int length) {
+        if (pcmBuffer.length < length * 2)
+            pcmBuffer = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            short sample = table[data[offset + i] & 0xFF];
+            pcmBuffer[2 * i] = (byte) sample;
+            pcmBuffer[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcmBuffer;
+    }
+
+    public static void decode(boolean aLaw, @NonNull byte[] data, int offset, int length, @NonNull short[] out, int outOffset) {
+        decode(aLaw ? ALAW_TABLE : ULAW_TABLE, data, offset, length, out, outOffset);
+    }
+
+    private static void decode(@NonNull short[] table, @NonNull byte[] data, int offset, int length, @NonNull short[] out, int outOffset) {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = table[data[offset + i] & 0xFF];
+    }
+
+    // ITU-T G.711 reference conversions
+    private static short ulawToLinear(int code) {
+        code = ~code & 0xFF;
+        int t = ((code & 0x0F) << 3) + 0x84;
+        t <<= (code & 0x70) >> 4;
+        return (short) ((code & 0x80) != 0 ? 0x84 - t : t - 0x84);
+    }
+
+    private static short alawToLinear(int code) {
+        code ^= 0x55;
+        int t = (code & 0x0F) << 4;
+        int segment = (code & 0x70) >> 4;
+        switch (segment) {
+            case 0:
+                t += 8;
+                break;
+            case 1:
+                t += 0x108;
+                break;
+            default:
+                t += 0x108;
+                t <<= segment - 1;
+        }
+        return (short) ((code & 0x80) != 0 ? t : -t);
+    }
+}
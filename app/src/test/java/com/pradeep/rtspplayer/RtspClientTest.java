@@ -0,0 +1,111 @@
+package com.pradeep.rtspplayer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+// Robolectric for the SDP and header parsing, which uses TextUtils, Pair and Base64
+@RunWith(RobolectricTestRunner.class)
+public class RtspClientTest {
+
+    private RtspTestServer server;
+    private RtspClient client;
+    private Thread thread;
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null)
+            client.closeSocketConnect();
+        if (thread != null)
+            thread.join(5000);
+        if (server != null)
+            server.close();
+    }
+
+    private RtspTestServer.Listener play(int transport) throws IOException {
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        client = new RtspClient.Builder(socket, server.getUri(), listener)
+                .requestAudio(false)
+                .withTransport(transport)
+                .build();
+        thread = new Thread(client::execute, "RtspClientTest");
+        thread.start();
+        return listener;
+    }
+
+    private void skipToSetup() throws InterruptedException {
+        assertEquals("OPTIONS", RtspTestServer.getMethod(server.nextRequest()));
+        assertEquals("DESCRIBE", RtspTestServer.getMethod(server.nextRequest()));
+    }
+
+    @Test
+    public void tcp_playsInterleavedVideo() throws Exception {
+        server = new RtspTestServer();
+        RtspTestServer.Listener listener = play(RtspClient.TRANSPORT_TCP);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        skipToSetup();
+        String setup = server.nextRequest();
+        assertTrue(setup, setup.contains("Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n"));
+        assertEquals("PLAY", RtspTestServer.getMethod(server.nextRequest()));
+    }
+
+    @Test
+    public void udp_playsVideo() throws Exception {
+        server = new RtspTestServer();
+        RtspTestServer.Listener listener = play(RtspClient.TRANSPORT_UDP);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        skipToSetup();
+        String setup = server.nextRequest();
+        assertTrue(setup, setup.contains("Transport: RTP/AVP;unicast;client_port="));
+        assertEquals("PLAY", RtspTestServer.getMethod(server.nextRequest()));
+        assertEquals(1, listener.ended.getCount());
+    }
+
+    @Test
+    public void udpRejected_fallsBackToInterleaved() throws Exception {
+        server = new RtspTestServer();
+        server.rejectUdp = true;
+        RtspTestServer.Listener listener = play(RtspClient.TRANSPORT_UDP);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        skipToSetup();
+        assertTrue(server.nextRequest().contains("client_port="));
+        String setup = server.nextRequest();
+        assertEquals("SETUP", RtspTestServer.getMethod(setup));
+        assertTrue(setup, setup.contains("interleaved=0-1"));
+        assertEquals(1, listener.ended.getCount());
+    }
+
+    @Test
+    public void udp_serverCloseIsReported() throws Exception {
+        server = new RtspTestServer();
+        server.closeAfterFrames = true;
+        RtspTestServer.Listener listener = play(RtspClient.TRANSPORT_UDP);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        // No media arrives any more, only the closed RTSP connection tells
+        assertTrue(RtspTestServer.Listener.await(listener.ended));
+    }
+
+    @Test
+    public void udpRejected_serverCloseIsReported() throws Exception {
+        server = new RtspTestServer();
+        server.rejectUdp = true;
+        server.closeAfterFrames = true;
+        RtspTestServer.Listener listener = play(RtspClient.TRANSPORT_UDP);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        assertTrue(RtspTestServer.Listener.await(listener.ended));
+    }
+}
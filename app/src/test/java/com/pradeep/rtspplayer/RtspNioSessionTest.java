@@ -0,0 +1,132 @@
+package com.pradeep.rtspplayer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+// Robolectric for the SDP and header parsing, which uses TextUtils, Pair and Base64
+@RunWith(RobolectricTestRunner.class)
+public class RtspNioSessionTest {
+
+    private RtspTestServer server;
+    private RtspSessionEngine engine;
+
+    @After
+    public void tearDown() throws IOException {
+        if (engine != null)
+            engine.close();
+        if (server != null)
+            server.close();
+    }
+
+    @Test
+    public void handshake_playsInterleavedVideo() throws Exception {
+        server = new RtspTestServer();
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        RtspClient client = new RtspClient.Builder(server.getUri(), listener).requestAudio(false).build();
+        engine = new RtspSessionEngine(1);
+        engine.start(client);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        assertEquals(0, listener.connected.getCount());
+
+        String options = server.nextRequest();
+        assertTrue(options, options.startsWith("OPTIONS " + server.getUri() + " RTSP/1.0\r\n"));
+        assertTrue(options, options.contains("CSeq: 1\r\n"));
+        String describe = server.nextRequest();
+        assertTrue(describe, describe.startsWith("DESCRIBE "));
+        assertTrue(describe, describe.contains("Accept: application/sdp\r\n"));
+        String setup = server.nextRequest();
+        assertTrue(setup, setup.startsWith("SETUP " + server.getUri() + "/trackID=0 "));
+        assertTrue(setup, setup.contains("Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n"));
+        String play = server.nextRequest();
+        assertTrue(play, play.startsWith("PLAY "));
+        assertTrue(play, play.contains("Session: " + RtspTestServer.SESSION + "\r\n"));
+
+        client.closeSocketConnect();
+        assertTrue(RtspTestServer.Listener.await(listener.disconnected));
+        String teardown = server.nextRequest();
+        assertEquals("TEARDOWN", RtspTestServer.getMethod(teardown));
+        assertEquals(1, listener.failed.getCount());
+        assertEquals(RtspTestServer.FRAME_COUNT, listener.frameCount.get());
+    }
+
+    @Test
+    public void unauthorized_retriesWithCredentials() throws Exception {
+        server = new RtspTestServer();
+        server.requireAuthorization = true;
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        RtspClient client = new RtspClient.Builder(server.getUri(), listener)
+                .requestAudio(false)
+                .withCredentials("user", "pass")
+                .build();
+        engine = new RtspSessionEngine(1);
+        engine.start(client);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        assertFalse(server.nextRequest().contains("Authorization:"));
+        for (String method : new String[] {"OPTIONS", "DESCRIBE", "SETUP", "PLAY"}) {
+            String request = server.nextRequest();
+            assertEquals(method, RtspTestServer.getMethod(request));
+            assertTrue(request, request.contains("Authorization: " + RtspTestServer.BASIC_AUTHORIZATION + "\r\n"));
+        }
+    }
+
+    @Test
+    public void wrongCredentials_failUnauthorized() throws Exception {
+        server = new RtspTestServer();
+        server.requireAuthorization = true;
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        RtspClient client = new RtspClient.Builder(server.getUri(), listener)
+                .requestAudio(false)
+                .withCredentials("user", "wrong")
+                .build();
+        engine = new RtspSessionEngine(1);
+        engine.start(client);
+
+        assertTrue(RtspTestServer.Listener.await(listener.failed));
+        assertTrue(listener.unauthorized);
+        assertEquals(1, listener.connected.getCount());
+    }
+
+    @Test
+    public void oversizedDescribeResponse_failsRightAway() throws Exception {
+        server = new RtspTestServer();
+        server.describePadding = 70000;
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        RtspClient client = new RtspClient.Builder(server.getUri(), listener).requestAudio(false).build();
+        engine = new RtspSessionEngine(1);
+        long startMs = System.currentTimeMillis();
+        engine.start(client);
+
+        assertTrue(RtspTestServer.Listener.await(listener.failed));
+        // Well before the response timeout
+        assertTrue(System.currentTimeMillis() - startMs < 2000);
+        assertNotNull(listener.failure);
+        assertTrue(listener.failure, listener.failure.contains("larger"));
+        assertEquals(1, listener.connected.getCount());
+    }
+
+    @Test
+    public void serverDisconnect_failsSession() throws Exception {
+        server = new RtspTestServer();
+        server.closeAfterFrames = true;
+        server.start();
+        RtspTestServer.Listener listener = new RtspTestServer.Listener();
+        RtspClient client = new RtspClient.Builder(server.getUri(), listener).requestAudio(false).build();
+        engine = new RtspSessionEngine(1);
+        engine.start(client);
+
+        assertTrue(RtspTestServer.Listener.await(listener.frames));
+        assertTrue(RtspTestServer.Listener.await(listener.failed));
+    }
+}
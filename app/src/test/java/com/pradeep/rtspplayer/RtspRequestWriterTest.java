@@ -0,0 +1,86 @@
+package com.pradeep.rtspplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class RtspRequestWriterTest {
+
+    private static final String URI = "rtsp://10.0.0.1/stream";
+
+    private static String send(RtspRequestWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.send(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void describe_hasAcceptAndUserAgent() throws IOException {
+        RtspRequestWriter writer = new RtspRequestWriter("Player/1.0");
+        writer.describe(URI, 2, null);
+        assertEquals("DESCRIBE " + URI + " RTSP/1.0\r\n" +
+                "Accept: application/sdp\r\n" +
+                "CSeq: 2\r\n" +
+                "User-Agent: Player/1.0\r\n" +
+                "\r\n", send(writer));
+    }
+
+    @Test
+    public void session_isOnlyAddedWhereNeeded() throws IOException {
+        RtspRequestWriter writer = new RtspRequestWriter(null);
+        writer.setSession("1234");
+        writer.options(URI, 1, null);
+        writer.options(URI, 2, null, true);
+        writer.play(URI, 3, "Basic dXNlcjpwYXNz");
+        assertEquals("OPTIONS " + URI + " RTSP/1.0\r\n" +
+                "CSeq: 1\r\n" +
+                "\r\n" +
+                "OPTIONS " + URI + " RTSP/1.0\r\n" +
+                "CSeq: 2\r\n" +
+                "Session: 1234\r\n" +
+                "\r\n" +
+                "PLAY " + URI + " RTSP/1.0\r\n" +
+                "Range: npt=0.000-\r\n" +
+                "Authorization: Basic dXNlcjpwYXNz\r\n" +
+                "CSeq: 3\r\n" +
+                "Session: 1234\r\n" +
+                "\r\n", send(writer));
+    }
+
+    @Test
+    public void setup_hasTransport() throws IOException {
+        RtspRequestWriter writer = new RtspRequestWriter(null);
+        writer.setup(URI + "/trackID=1", 10, null, "RTP/AVP/TCP;unicast;interleaved=0-1");
+        writer.setSession(null);
+        assertEquals("SETUP " + URI + "/trackID=1 RTSP/1.0\r\n" +
+                "Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n" +
+                "CSeq: 10\r\n" +
+                "\r\n", send(writer));
+    }
+
+    @Test
+    public void send_writesNothingWhenEmptyAndClearsBuffer() throws IOException {
+        RtspRequestWriter writer = new RtspRequestWriter(null);
+        assertEquals("", send(writer));
+        writer.getParameter(URI, 123456789, null);
+        assertTrue(send(writer).contains("CSeq: 123456789\r\n"));
+        assertEquals("", send(writer));
+    }
+
+    @Test
+    public void longAndNonAsciiValues_growBuffer() throws IOException {
+        StringBuilder token = new StringBuilder("Digest ");
+        for (int i = 0; i < 300; i++)
+            token.append("abcdef");
+        RtspRequestWriter writer = new RtspRequestWriter("Pl\u00e4yer");
+        writer.teardown(URI + "/kamera_\u00fc", 4, token.toString());
+        String request = send(writer);
+        assertTrue(request.startsWith("TEARDOWN " + URI + "/kamera_\u00fc RTSP/1.0\r\n"));
+        assertTrue(request.contains("Authorization: " + token + "\r\n"));
+        assertTrue(request.endsWith("User-Agent: Pl\u00e4yer\r\n\r\n"));
+    }
+}
@@ -0,0 +1,298 @@
+package com.pradeep.rtspplayer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal RTSP server on the loopback interface for client tests. Answers a single connection
+ * with canned responses and sends {@link #FRAME_COUNT} H.264 frames after PLAY, interleaved or
+ * over UDP depending on the SETUP transport.
+ */
+final class RtspTestServer implements Closeable {
+
+    static final int FRAME_COUNT = 3;
+    static final String SESSION = "12345678";
+    static final String BASIC_AUTHORIZATION = "Basic dXNlcjpwYXNz"; // user:pass
+
+    private static final String SDP =
+            "v=0\r\n" +
+            "o=- 1 1 IN IP4 127.0.0.1\r\n" +
+            "s=Test\r\n" +
+            "t=0 0\r\n" +
+            "m=video 0 RTP/AVP 96\r\n" +
+            "a=rtpmap:96 H264/90000\r\n" +
+            "a=fmtp:96 packetization-mode=1;sprop-parameter-sets=Z0IAKeKQFAe2AtwEBAaQeJEV,aM48gA==\r\n" +
+            "a=control:trackID=0\r\n";
+    private static final int TIMEOUT_MS = 5000;
+
+    // Options, set before start()
+    boolean rejectUdp = false;
+    boolean requireAuthorization = false;
+    int describePadding = 0;
+    boolean closeAfterFrames = false;
+
+    private final @NonNull ServerSocket serverSocket;
+    private final @NonNull DatagramSocket rtpSocket;
+    private final @NonNull DatagramSocket rtcpSocket;
+    private final @NonNull LinkedBlockingQueue<String> requests = new LinkedBlockingQueue<>();
+    private final @NonNull Thread thread = new Thread(this::serve, "RtspTestServer");
+    private volatile @Nullable Socket socket;
+
+    RtspTestServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        // RTCP goes to the port after the RTP port, keep it bound so the client gets no ICMP errors
+        DatagramSocket rtp = null;
+        DatagramSocket rtcp = null;
+        for (int i = 0; i < 20 && rtcp == null; i++) {
+            rtp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try {
+                rtcp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), rtp.getLocalPort() + 1));
+            } catch (IOException e) {
+                rtp.close();
+            }
+        }
+        if (rtcp == null)
+            throw new IOException("No UDP port pair");
+        rtpSocket = rtp;
+        rtcpSocket = rtcp;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @NonNull
+    String getUri() {
+        return "rtsp://127.0.0.1:" + serverSocket.getLocalPort() + "/stream";
+    }
+
+    /**
+     * @return the next request (request line and headers), null if none within the timeout
+     */
+    @Nullable
+    String nextRequest() throws InterruptedException {
+        return requests.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    static String getMethod(@NonNull String request) {
+        return request.substring(0, request.indexOf(' '));
+    }
+
+    // Drops the RTSP connection like a crashed or rebooted camera
+    void disconnect() throws IOException {
+        Socket socket = this.socket;
+        if (socket != null)
+            socket.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        disconnect();
+        rtpSocket.close();
+        rtcpSocket.close();
+    }
+
+    private void serve() {
+        try (Socket socket = serverSocket.accept()) {
+            this.socket = socket;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            int clientPort = -1;
+            String line;
+            while (true) {
+                // Interleaved RTCP receiver reports of the client
+                in.mark(1);
+                if (in.read() == '$') {
+                    in.skipBytes(1);
+                    in.skipBytes(in.readUnsignedShort());
+                    continue;
+                }
+                in.reset();
+                if ((line = readLine(in)) == null)
+                    break;
+                if (line.isEmpty())
+                    continue;
+                StringBuilder request = new StringBuilder(line).append("\r\n");
+                String cSeq = "0";
+                String transport = "";
+                boolean authorized = false;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    request.append(line).append("\r\n");
+                    if (line.startsWith("CSeq:"))
+                        cSeq = line.substring(5).trim();
+                    else if (line.startsWith("Transport:"))
+                        transport = line.substring(10).trim();
+                    else if (line.equals("Authorization: " + BASIC_AUTHORIZATION))
+                        authorized = true;
+                }
+                requests.add(request.toString());
+                String method = getMethod(request.toString());
+
+                String response = "RTSP/1.0 200 OK\r\nCSeq: " + cSeq + "\r\n";
+                if (requireAuthorization && !authorized) {
+                    response = "RTSP/1.0 401 Unauthorized\r\nCSeq: " + cSeq + "\r\nWWW-Authenticate: Basic realm=\"test\"\r\n\r\n";
+                } else if (method.equals("OPTIONS")) {
+                    response += "Public: OPTIONS, DESCRIBE, SETUP, PLAY, GET_PARAMETER, TEARDOWN\r\n\r\n";
+                } else if (method.equals("DESCRIBE")) {
+                    StringBuilder content = new StringBuilder(SDP);
+                    for (int i = 0; i < describePadding; i++)
+                        content.append(i % 64 == 63 ? '\n' : 'a');
+                    response += "Content-Type: application/sdp\r\nContent-Length: " + content.length() + "\r\n\r\n" + content;
+                } else if (method.equals("SETUP")) {
+                    if (transport.contains("client_port=") && rejectUdp) {
+                        response = "RTSP/1.0 461 Unsupported Transport\r\nCSeq: " + cSeq + "\r\n\r\n";
+                    } else {
+                        if (transport.contains("client_port=")) {
+                            clientPort = Integer.parseInt(transport.replaceAll(".*client_port=(\\d+).*", "$1"));
+                            transport += ";server_port=" + rtpSocket.getLocalPort() + "-" + rtcpSocket.getLocalPort();
+                        }
+                        response += "Session: " + SESSION + ";timeout=60\r\nTransport: " + transport + "\r\n\r\n";
+                    }
+                } else if (method.equals("PLAY")) {
+                    response += "Session: " + SESSION + "\r\n\r\n";
+                } else {
+                    response += "\r\n";
+                }
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+
+                if (method.equals("PLAY") && response.startsWith("RTSP/1.0 200")) {
+                    sendFrames(out, clientPort);
+                    if (closeAfterFrames)
+                        return;
+                }
+            }
+        } catch (IOException e) {
+            // Closed by the test
+        }
+    }
+
+    @Nullable
+    private static String readLine(@NonNull InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return null;
+            if (b != '\r')
+                line.append((char) b);
+        }
+        return line.toString();
+    }
+
+    // One IDR and P slices, a single NAL unit packet with marker per frame
+    private void sendFrames(@NonNull OutputStream out, int clientPort) throws IOException {
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            byte[] packet = new byte[12 + 100];
+            packet[0] = (byte) 0x80;
+            packet[1] = (byte) (0x80 | 96);
+            packet[2] = (byte) (i >> 8);
+            packet[3] = (byte) i;
+            long timestamp = 90000 + i * 3000L;
+            packet[4] = (byte) (timestamp >> 24);
+            packet[5] = (byte) (timestamp >> 16);
+            packet[6] = (byte) (timestamp >> 8);
+            packet[7] = (byte) timestamp;
+            packet[11] = 1;
+            packet[12] = (byte) (i == 0 ? 0x65 : 0x41);
+            packet[13] = (byte) 0x88;
+            if (clientPort > 0) {
+                rtpSocket.send(new DatagramPacket(packet, packet.length, InetAddress.getLoopbackAddress(), clientPort));
+            } else {
+                out.write(new byte[] {'$', 0, (byte) (packet.length >> 8), (byte) packet.length});
+                out.write(packet);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Counts the listener callbacks of a client under test.
+     */
+    static final class Listener implements RtspClient.RtspClientListener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch frames = new CountDownLatch(FRAME_COUNT);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        // Disconnected or failed
+        final CountDownLatch ended = new CountDownLatch(1);
+        final AtomicInteger frameCount = new AtomicInteger();
+        volatile boolean unauthorized = false;
+        volatile @Nullable String failure;
+
+        @Override
+        public void onRtspConnecting() {
+        }
+
+        @Override
+        public void onRtspConnected(@NonNull RtspClient.SdpInfo sdpInfo) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onRtspVideoNalUnitReceived(@NonNull byte[] data, int offset, int length, long timestampUs, int flags) {
+            frameCount.incrementAndGet();
+            frames.countDown();
+        }
+
+        @Override
+        public void onRtspAudioSampleReceived(@NonNull byte[] data, int offset, int length, long timestampUs) {
+        }
+
+        @Override
+        public void onRtspApplicationDataReceived(@NonNull byte[] data, int offset, int length, long timestampUs) {
+        }
+
+        @Override
+        public void onRtspDisconnecting() {
+        }
+
+        @Override
+        public void onRtspDisconnected() {
+            disconnected.countDown();
+            ended.countDown();
+        }
+
+        @Override
+        public void onRtspFailedUnauthorized() {
+            unauthorized = true;
+            failed.countDown();
+            ended.countDown();
+        }
+
+        @Override
+        public void onRtspFailed(@Nullable String message) {
+            failure = message;
+            failed.countDown();
+            ended.countDown();
+        }
+
+        static boolean await(@NonNull CountDownLatch latch) throws InterruptedException {
+            return latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
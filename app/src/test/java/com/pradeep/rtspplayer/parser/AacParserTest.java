@@ -0,0 +1,127 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AacParserTest {
+
+    private final ArrayList<byte[]> frames = new ArrayList<>();
+    private final ArrayList<Integer> indexes = new ArrayList<>();
+    private final AacParser.AacFrameListener listener = (data, offset, length, index) -> {
+        frames.add(Arrays.copyOfRange(data, offset, offset + length));
+        indexes.add(index);
+    };
+
+    private void process(AacParser parser, boolean marker, int... payload) {
+        byte[] data = new byte[payload.length + 2];
+        for (int i = 0; i < payload.length; i++)
+            data[i + 2] = (byte) payload[i];
+        parser.processRtpPacket(data, 2, payload.length, marker, listener);
+    }
+
+    private void assertFrame(int index, int auIndex, int... frame) {
+        byte[] expected = new byte[frame.length];
+        for (int i = 0; i < frame.length; i++)
+            expected[i] = (byte) frame[i];
+        assertArrayEquals(expected, frames.get(index));
+        assertEquals(auIndex, (int) indexes.get(index));
+    }
+
+    @Test
+    public void hbr_singleAu() {
+        // 16 bits of AU headers, size 3 (13 bits) and index 0 (3 bits)
+        process(new AacParser("AAC-hbr"), true, 0x00, 0x10, 0x00, 0x18, 0x21, 0x10, 0x04);
+        assertEquals(1, frames.size());
+        assertFrame(0, 0, 0x21, 0x10, 0x04);
+    }
+
+    @Test
+    public void hbr_multipleAus() {
+        process(new AacParser("AAC-hbr"), true, 0x00, 0x30,
+                0x00, 0x18, 0x00, 0x10, 0x00, 0x08,
+                0x01, 0x02, 0x03, 0x04, 0x05, 0x06);
+        assertEquals(3, frames.size());
+        assertFrame(0, 0, 0x01, 0x02, 0x03);
+        assertFrame(1, 1, 0x04, 0x05);
+        assertFrame(2, 2, 0x06);
+    }
+
+    @Test
+    public void hbr_indexDelta_addsToIndex() {
+        // Second AU with index delta 2, i.e. two AUs were left out
+        process(new AacParser("AAC-hbr"), true, 0x00, 0x20,
+                0x00, 0x08, 0x00, 0x0A,
+                0x01, 0x02);
+        assertEquals(2, frames.size());
+        assertFrame(0, 0, 0x01);
+        assertFrame(1, 3, 0x02);
+    }
+
+    @Test
+    public void lbr_multipleAus() {
+        // 8 bits per AU header, size (6 bits) and index (2 bits)
+        process(new AacParser("AAC-lbr"), true, 0x00, 0x10,
+                0x08, 0x04,
+                0x01, 0x02, 0x03);
+        assertEquals(2, frames.size());
+        assertFrame(0, 0, 0x01, 0x02);
+        assertFrame(1, 1, 0x03);
+    }
+
+    @Test
+    public void indexDeltaLength_differentFromIndexLength() {
+        // sizelength=13, indexlength=3, indexdeltalength=0. The second header is 13 bits only.
+        process(new AacParser("AAC-hbr", 13, 3, 0), true, 0x00, 0x1D,
+                0x00, 0x18, 0x00, 0x10,
+                0x01, 0x02, 0x03, 0x04, 0x05);
+        assertEquals(2, frames.size());
+        assertFrame(0, 0, 0x01, 0x02, 0x03);
+        assertFrame(1, 1, 0x04, 0x05);
+    }
+
+    @Test
+    public void fragmentedAu_isReassembled() {
+        AacParser parser = new AacParser("AAC-hbr");
+        // AU of 5 bytes over two packets, both carry the same AU header
+        process(parser, false, 0x00, 0x10, 0x00, 0x28, 0x01, 0x02, 0x03);
+        assertTrue(frames.isEmpty());
+        process(parser, true, 0x00, 0x10, 0x00, 0x28, 0x04, 0x05);
+        assertEquals(1, frames.size());
+        assertFrame(0, 0, 0x01, 0x02, 0x03, 0x04, 0x05);
+
+        process(parser, true, 0x00, 0x10, 0x00, 0x08, 0x06);
+        assertEquals(2, frames.size());
+        assertFrame(1, 0, 0x06);
+    }
+
+    @Test
+    public void fragmentedAu_incompleteAtMarker_isDropped() {
+        AacParser parser = new AacParser("AAC-hbr");
+        process(parser, false, 0x00, 0x10, 0x00, 0x28, 0x01, 0x02);
+        process(parser, true, 0x00, 0x10, 0x00, 0x28, 0x03, 0x04);
+        assertTrue(frames.isEmpty());
+        process(parser, true, 0x00, 0x10, 0x00, 0x08, 0x06);
+        assertEquals(1, frames.size());
+        assertFrame(0, 0, 0x06);
+    }
+
+    @Test
+    public void fragmentedAu_afterLoss_isDropped() {
+        AacParser parser = new AacParser("AAC-hbr");
+        process(parser, false, 0x00, 0x10, 0x00, 0x28, 0x01, 0x02, 0x03);
+        parser.onPacketLoss();
+        process(parser, true, 0x00, 0x10, 0x00, 0x10, 0x04, 0x05);
+        assertEquals(1, frames.size());
+        assertFrame(0, 0, 0x04, 0x05);
+    }
+
+    @Test
+    public void invalidHeadersLength_isIgnored() {
+        process(new AacParser("AAC-hbr"), true, 0x01, 0x00, 0x00, 0x18);
+        assertTrue(frames.isEmpty());
+    }
+}
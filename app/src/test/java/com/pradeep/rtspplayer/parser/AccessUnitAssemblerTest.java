@@ -0,0 +1,182 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AccessUnitAssemblerTest {
+
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, 0x00, 0x29};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, (byte) 0x88, 0x01};
+    private static final byte[] SLICE_1 = {0, 0, 0, 1, 0x41, (byte) 0x9A, 0x01};
+    private static final byte[] SLICE_2 = {0, 0, 0, 1, 0x41, 0x40, 0x02};
+
+    private static final byte[] H265_VPS = {0, 0, 0, 1, 0x40, 0x01, 0x0C};
+    private static final byte[] H265_SPS = {0, 0, 0, 1, 0x42, 0x01, 0x01};
+    private static final byte[] H265_PPS = {0, 0, 0, 1, 0x44, 0x01, (byte) 0xC1};
+    private static final byte[] H265_IDR = {0, 0, 0, 1, 0x26, 0x01, (byte) 0xAF};
+
+    private final ArrayList<byte[]> accessUnits = new ArrayList<>();
+    private final ArrayList<Long> timestamps = new ArrayList<>();
+    private final ArrayList<Integer> flags = new ArrayList<>();
+
+    private final AccessUnitAssembler.AccessUnitListener listener = (data, offset, length, timestampUs, flags) -> {
+        accessUnits.add(Arrays.copyOfRange(data, offset, offset + length));
+        timestamps.add(timestampUs);
+        this.flags.add(flags);
+    };
+
+    private static void add(AccessUnitAssembler assembler, byte[]... nalUnits) {
+        for (byte[] nalUnit : nalUnits)
+            assembler.addNalUnit(nalUnit, 0, nalUnit.length);
+    }
+
+    private static byte[] concat(byte[]... nalUnits) {
+        int length = 0;
+        for (byte[] nalUnit : nalUnits)
+            length += nalUnit.length;
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] nalUnit : nalUnits) {
+            System.arraycopy(nalUnit, 0, result, position, nalUnit.length);
+            position += nalUnit.length;
+        }
+        return result;
+    }
+
+    @Test
+    public void slicesOfOnePicture_areGrouped() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_1);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_2);
+        assertTrue(accessUnits.isEmpty());
+        assembler.onMarker();
+        assertEquals(1, accessUnits.size());
+        assertArrayEquals(concat(SLICE_1, SLICE_2), accessUnits.get(0));
+        assertEquals(100L, (long) timestamps.get(0));
+        assertEquals(0, (int) flags.get(0));
+    }
+
+    @Test
+    public void newTimestamp_completesPictureWithoutMarker() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_1);
+        assembler.onRtpPacket(6600, 140);
+        assertEquals(1, accessUnits.size());
+        assertEquals(100L, (long) timestamps.get(0));
+        add(assembler, SLICE_2);
+        assembler.onMarker();
+        assertEquals(2, accessUnits.size());
+        assertArrayEquals(SLICE_2, accessUnits.get(1));
+        assertEquals(140L, (long) timestamps.get(1));
+    }
+
+    @Test
+    public void keyFrame_getsCachedParameterSets() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, SPS, PPS, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, IDR);
+        assembler.onMarker();
+        assertArrayEquals(concat(SPS, PPS, IDR), accessUnits.get(0));
+        assertEquals(AccessUnitAssembler.FLAG_KEY_FRAME | AccessUnitAssembler.FLAG_CODEC_CONFIG, (int) flags.get(0));
+    }
+
+    @Test
+    public void keyFrame_withInBandPps_getsSpsBeforeIt() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, SPS, PPS, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, PPS, IDR);
+        assembler.onMarker();
+        assertArrayEquals(concat(SPS, PPS, IDR), accessUnits.get(0));
+    }
+
+    @Test
+    public void keyFrame_withAllParameterSets_isUnchanged() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SPS, PPS, IDR);
+        assembler.onMarker();
+        assertArrayEquals(concat(SPS, PPS, IDR), accessUnits.get(0));
+    }
+
+    @Test
+    public void parameterSetsInOwnPacket_areUsedForNextKeyFrame() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SPS, PPS);
+        assembler.onMarker();
+        assertTrue(accessUnits.isEmpty());
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, IDR);
+        assembler.onMarker();
+        assertArrayEquals(concat(SPS, PPS, IDR), accessUnits.get(0));
+    }
+
+    @Test
+    public void nonKeyFrame_getsNoParameterSets() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, SPS, PPS, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_1);
+        assembler.onMarker();
+        assertArrayEquals(SLICE_1, accessUnits.get(0));
+    }
+
+    @Test
+    public void h265KeyFrame_getsParameterSetsInOrder() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(true, H265_VPS, H265_SPS, H265_PPS, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, H265_SPS, H265_IDR);
+        assembler.onMarker();
+        assertArrayEquals(concat(H265_VPS, H265_SPS, H265_PPS, H265_IDR), accessUnits.get(0));
+    }
+
+    @Test
+    public void discard_dropsRestOfTimestamp() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_1);
+        assembler.discard();
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_2);
+        assembler.onMarker();
+        assertTrue(accessUnits.isEmpty());
+
+        assembler.onRtpPacket(6600, 140);
+        add(assembler, SLICE_1);
+        assembler.onMarker();
+        assertEquals(1, accessUnits.size());
+        assertArrayEquals(SLICE_1, accessUnits.get(0));
+    }
+
+    @Test
+    public void discard_endsOnNewTimestampWithoutMarker() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, SLICE_1);
+        assembler.discard();
+        assembler.onRtpPacket(6600, 140);
+        add(assembler, SLICE_2);
+        assembler.onMarker();
+        assertEquals(1, accessUnits.size());
+        assertArrayEquals(SLICE_2, accessUnits.get(0));
+    }
+
+    @Test
+    public void largeAccessUnit_growsBuffer() {
+        AccessUnitAssembler assembler = new AccessUnitAssembler(false, null, null, null, listener);
+        byte[] slice = new byte[200 * 1024];
+        slice[3] = 1;
+        slice[4] = 0x41;
+        assembler.onRtpPacket(3000, 100);
+        add(assembler, slice, slice);
+        assembler.onMarker();
+        assertEquals(2 * slice.length, accessUnits.get(0).length);
+    }
+}
@@ -0,0 +1,137 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class OnvifMetadataParserTest {
+
+    private static final String EVENT_DOCUMENT =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<tt:MetadataStream xmlns:tt=\"http://www.onvif.org/ver10/schema\">\n" +
+            "<!-- <tt:Event> inside a comment is skipped -->\n" +
+            "<tt:Event><wsnt:NotificationMessage>\n" +
+            "  <wsnt:Topic Dialect=\"http://www.onvif.org/ver10/tev/topicExpression/ConcreteSet\">\n" +
+            "    tns1:RuleEngine/CellMotionDetector/Motion\n" +
+            "  </wsnt:Topic>\n" +
+            "  <wsnt:Message><tt:Message UtcTime='2024-05-01T10:00:00Z' PropertyOperation=\"Changed\">\n" +
+            "    <tt:Source><tt:SimpleItem Name=\"VideoSourceConfigurationToken\" Value=\"1\"/>\n" +
+            "      <tt:SimpleItem Name=\"Rule\" Value=\"MyMotion\"/></tt:Source>\n" +
+            "    <tt:Data><tt:SimpleItem Name=\"IsMotion\" Value=\"true\"/></tt:Data>\n" +
+            "  </tt:Message></wsnt:Message>\n" +
+            "</wsnt:NotificationMessage></tt:Event>\n" +
+            "</tt:MetadataStream>";
+
+    private static final String OBJECT_DOCUMENT =
+            "<tt:MetadataStream><tt:VideoAnalytics>\n" +
+            "<tt:Frame UtcTime=\"2024-05-01T10:00:01Z\">\n" +
+            "  <tt:Object ObjectId=\"7\"><tt:Appearance>\n" +
+            "    <tt:Shape><tt:BoundingBox left=\"-0.5\" top=\"0.25\" right=\" 0.5\" bottom=\"-0.75\"/></tt:Shape>\n" +
+            "    <tt:Class><tt:Type Likelihood=\"0.9\">Human</tt:Type></tt:Class>\n" +
+            "  </tt:Appearance></tt:Object>\n" +
+            "  <tt:Object ObjectId=\"8\"><tt:Appearance><tt:Class>\n" +
+            "    <tt:Type><![CDATA[Vehicle & Bike]]></tt:Type><tt:Likelihood>0.4</tt:Likelihood>\n" +
+            "  </tt:Class></tt:Appearance></tt:Object>\n" +
+            "</tt:Frame></tt:VideoAnalytics></tt:MetadataStream>";
+
+    private final OnvifMetadataParser parser = new OnvifMetadataParser();
+    private final ArrayList<OnvifMetadataParser.Event> events = new ArrayList<>();
+    private final ArrayList<OnvifMetadataParser.AnalyticsObject> objects = new ArrayList<>();
+    private final OnvifMetadataParser.MetadataListener listener = new OnvifMetadataParser.MetadataListener() {
+        @Override
+        public void onOnvifEvent(@NonNull OnvifMetadataParser.Event event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onOnvifObject(@NonNull OnvifMetadataParser.AnalyticsObject object) {
+            objects.add(object);
+        }
+    };
+
+    private void process(String document, int packets) {
+        byte[] data = document.getBytes(StandardCharsets.UTF_8);
+        int packetSize = (data.length + packets - 1) / packets;
+        for (int offset = 0; offset < data.length; offset += packetSize) {
+            int size = Math.min(packetSize, data.length - offset);
+            parser.processRtpPacket(data, offset, size, offset + size == data.length, listener);
+        }
+    }
+
+    @Test
+    public void event_isExtracted() {
+        process(EVENT_DOCUMENT, 1);
+        assertEquals(1, events.size());
+        OnvifMetadataParser.Event event = events.get(0);
+        assertEquals("tns1:RuleEngine/CellMotionDetector/Motion", event.topic);
+        assertEquals("2024-05-01T10:00:00Z", event.utcTime);
+        assertEquals("Changed", event.propertyOperation);
+        assertEquals(2, event.source.size());
+        assertEquals(0, event.key.size());
+        assertEquals(1, event.data.size());
+        assertTrue(objects.isEmpty());
+    }
+
+    @Test
+    public void document_splitOverPackets() {
+        process(EVENT_DOCUMENT, 7);
+        assertEquals(1, events.size());
+        assertEquals("tns1:RuleEngine/CellMotionDetector/Motion", events.get(0).topic);
+    }
+
+    @Test
+    public void objects_areExtracted() {
+        process(OBJECT_DOCUMENT, 1);
+        assertEquals(2, objects.size());
+        OnvifMetadataParser.AnalyticsObject human = objects.get(0);
+        assertEquals("7", human.objectId);
+        assertEquals("2024-05-01T10:00:01Z", human.utcTime);
+        assertEquals(-0.5f, human.left, 0f);
+        assertEquals(0.25f, human.top, 0f);
+        assertEquals(0.5f, human.right, 0f);
+        assertEquals(-0.75f, human.bottom, 0f);
+        assertEquals("Human", human.type);
+        assertEquals(0.9f, human.likelihood, 0f);
+
+        OnvifMetadataParser.AnalyticsObject vehicle = objects.get(1);
+        assertEquals("8", vehicle.objectId);
+        assertEquals("Vehicle & Bike", vehicle.type);
+        assertEquals(0.4f, vehicle.likelihood, 0f);
+        assertTrue(Float.isNaN(vehicle.left));
+    }
+
+    @Test
+    public void entities_areDecoded() {
+        process("<tt:Event><wsnt:NotificationMessage><wsnt:Topic>a&lt;b&amp;c&gt;</wsnt:Topic>" +
+                "<tt:Message UtcTime=\"&quot;t&apos;\"/></wsnt:NotificationMessage></tt:Event>", 1);
+        assertEquals(1, events.size());
+        assertEquals("a<b&c>", events.get(0).topic);
+        assertEquals("\"t'", events.get(0).utcTime);
+    }
+
+    @Test
+    public void packetLoss_dropsDocument() {
+        byte[] data = EVENT_DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        int half = data.length / 2;
+        parser.processRtpPacket(data, 0, half, false, listener);
+        parser.onPacketLoss();
+        parser.processRtpPacket(data, half, data.length - half, true, listener);
+        assertTrue(events.isEmpty());
+
+        process(EVENT_DOCUMENT, 3);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void truncatedDocument_completeElementsAreReported() {
+        String document = OBJECT_DOCUMENT.substring(0, OBJECT_DOCUMENT.indexOf("<tt:Object ObjectId=\"8\">") + 20);
+        process(document, 1);
+        assertEquals(1, objects.size());
+        assertEquals("7", objects.get(0).objectId);
+    }
+}
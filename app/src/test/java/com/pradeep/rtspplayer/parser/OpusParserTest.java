@@ -0,0 +1,63 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class OpusParserTest {
+
+    private static int getSamples(int... packet) {
+        byte[] data = new byte[packet.length + 1];
+        for (int i = 0; i < packet.length; i++)
+            data[i + 1] = (byte) packet[i];
+        return OpusParser.getSamples(data, 1, packet.length);
+    }
+
+    @Test
+    public void singleFrame_durationFromConfig() {
+        assertEquals(480, getSamples(0x00, 0x01));      // SILK NB 10 ms
+        assertEquals(2880, getSamples(0x18, 0x01));     // SILK NB 60 ms
+        assertEquals(960, getSamples(0x78, 0x01));      // Hybrid FB 20 ms
+        assertEquals(120, getSamples(0x80, 0x01));      // CELT NB 2.5 ms
+        assertEquals(960, getSamples(0xF8, 0x01));      // CELT FB 20 ms
+    }
+
+    @Test
+    public void twoFrames_doubleTheDuration() {
+        assertEquals(1920, getSamples(0xF9, 0x01, 0x02));
+        assertEquals(1920, getSamples(0xFA, 0x01, 0x01, 0x02));
+    }
+
+    @Test
+    public void arbitraryFrameCount_readFromSecondByte() {
+        assertEquals(2880, getSamples(0xFB, 0x03, 0x01));
+        // VBR and padding flags are not part of the count
+        assertEquals(2880, getSamples(0xFB, 0xC3, 0x01));
+    }
+
+    @Test
+    public void malformedPackets_areRejected() {
+        assertEquals(-1, getSamples());
+        assertEquals(-1, getSamples(0xFB));
+        assertEquals(-1, getSamples(0xFB, 0x00));
+        // 3 frames of 60 ms exceed the 120 ms limit
+        assertEquals(-1, getSamples(0x1B, 0x03));
+    }
+
+    @Test
+    public void processRtpPacket_passesPacketInPlace() {
+        byte[] data = {0x55, (byte) 0xF8, 0x01, 0x02};
+        ArrayList<Integer> calls = new ArrayList<>();
+        new OpusParser().processRtpPacket(data, 1, 3, (packet, offset, length, samples) -> {
+            assertSame(data, packet);
+            assertEquals(1, offset);
+            assertEquals(3, length);
+            calls.add(samples);
+        });
+        new OpusParser().processRtpPacket(data, 1, 0, (packet, offset, length, samples) -> calls.add(samples));
+        assertEquals(1, calls.size());
+        assertEquals(960, (int) calls.get(0));
+    }
+}
@@ -0,0 +1,305 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RtcpSessionTest {
+
+    private static final long SSRC = 0x11223344L;
+    private static final long NTP_TO_UNIX_EPOCH_SEC = 2208988800L;
+
+    // Sender reports and BYEs as "sr SSRC" and "bye SSRC"
+    private final ArrayList<String> events = new ArrayList<>();
+
+    private final RtcpSession.Listener listener = new RtcpSession.Listener() {
+        @Override
+        public void onRtcpSenderReport(@NonNull RtcpSession.SourceStats source) {
+            events.add("sr " + source.getSsrc());
+        }
+
+        @Override
+        public void onRtcpBye(@NonNull RtcpSession.SourceStats source) {
+            events.add("bye " + source.getSsrc());
+        }
+    };
+
+    private static void rtp(RtcpSession session, int seqNum, long timestamp) {
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+        header.ssrc = SSRC;
+        header.sequenceNumber = seqNum;
+        header.timeStamp = timestamp;
+        session.onRtpPacket(header, System.nanoTime());
+    }
+
+    private static byte[] senderReport(long ssrc, long ntpTimestamp, long rtpTimestamp, long packets, long octets) {
+        byte[] data = new byte[28];
+        data[0] = (byte) 0x80;
+        data[1] = (byte) 200;
+        data[3] = 6;
+        writeInt(data, 4, ssrc);
+        writeInt(data, 8, ntpTimestamp >>> 32);
+        writeInt(data, 12, ntpTimestamp);
+        writeInt(data, 16, rtpTimestamp);
+        writeInt(data, 20, packets);
+        writeInt(data, 24, octets);
+        return data;
+    }
+
+    private static byte[] sourceDescription(long ssrc, String cname) {
+        byte[] text = cname.getBytes(StandardCharsets.UTF_8);
+        int length = (4 + 4 + 2 + text.length + 4) & ~3;
+        byte[] data = new byte[length];
+        data[0] = (byte) 0x81;
+        data[1] = (byte) 202;
+        data[3] = (byte) (length / 4 - 1);
+        writeInt(data, 4, ssrc);
+        data[8] = 1;
+        data[9] = (byte) text.length;
+        System.arraycopy(text, 0, data, 10, text.length);
+        return data;
+    }
+
+    private static byte[] bye(long ssrc) {
+        byte[] data = new byte[8];
+        data[0] = (byte) 0x81;
+        data[1] = (byte) 203;
+        data[3] = 1;
+        writeInt(data, 4, ssrc);
+        return data;
+    }
+
+    private static byte[] concat(byte[]... packets) {
+        int length = 0;
+        for (byte[] packet : packets)
+            length += packet.length;
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] packet : packets) {
+            System.arraycopy(packet, 0, data, offset, packet.length);
+            offset += packet.length;
+        }
+        return data;
+    }
+
+    private static void writeInt(byte[] data, int offset, long value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static long readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24) | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8) | (data[offset + 3] & 0xFFL);
+    }
+
+    // Length in bytes from the RTCP header at offset
+    private static int packetLength(byte[] data, int offset) {
+        return ((((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF)) + 1) * 4;
+    }
+
+    @Test
+    public void receiverReport_encodesReportBlockAndCname() {
+        RtcpSession session = new RtcpSession(90000, listener);
+        long ntp = (NTP_TO_UNIX_EPOCH_SEC + 1000) << 32 | 0x12340000L;
+        byte[] sr = senderReport(SSRC, ntp, 0, 0, 0);
+        session.onRtcpPacket(sr, 0, sr.length, 1000);
+        for (int seqNum = 100; seqNum < 110; seqNum++) {
+            if (seqNum != 105)
+                rtp(session, seqNum, seqNum * 3000L);
+        }
+
+        byte[] out = new byte[RtcpSession.MAX_REPORT_SIZE];
+        int length = session.writeReceiverReport(out, 0, 1500);
+
+        // RR with one report block
+        assertEquals(0x81, out[0] & 0xFF);
+        assertEquals(201, out[1] & 0xFF);
+        assertEquals(32, packetLength(out, 0));
+        long localSsrc = readInt(out, 4);
+        assertEquals(SSRC, readInt(out, 8));
+        assertEquals(25, out[12] & 0xFF); // 1 of 10 lost, 256 / 10
+        assertEquals(1, readInt(out, 12) & 0xFFFFFF);
+        assertEquals(109, readInt(out, 16));
+        assertEquals(session.getSource(0).getJitter(), readInt(out, 20));
+        assertEquals(ntp >>> 16 & 0xFFFFFFFFL, readInt(out, 24));
+        assertEquals(500 * 65536 / 1000, readInt(out, 28)); // 500 ms since the SR
+
+        // SDES with the CNAME, null padded to a 32-bit boundary
+        String cname = "rtspplayer-" + Long.toHexString(localSsrc);
+        int sdesLength = packetLength(out, 32);
+        assertEquals(0x81, out[32] & 0xFF);
+        assertEquals(202, out[33] & 0xFF);
+        assertEquals(localSsrc, readInt(out, 36));
+        assertEquals(1, out[40]);
+        assertEquals(cname.length(), out[41]);
+        assertEquals(cname, new String(out, 42, cname.length(), StandardCharsets.US_ASCII));
+        int padding = sdesLength - 10 - cname.length();
+        assertTrue(padding >= 1 && padding <= 4);
+        for (int i = 0; i < padding; i++)
+            assertEquals(0, out[42 + cname.length() + i]);
+        assertEquals(32 + sdesLength, length);
+        assertTrue(length <= RtcpSession.MAX_REPORT_SIZE);
+    }
+
+    @Test
+    public void receiverReport_emptyWithoutRtp() {
+        RtcpSession session = new RtcpSession(90000, listener);
+        assertTrue(session.isReportDue(0));
+        assertEquals(0, session.writeReceiverReport(new byte[RtcpSession.MAX_REPORT_SIZE], 0, 0));
+    }
+
+    @Test
+    public void senderReport_mapsRtpTimestampToWallClock() {
+        RtcpSession session = new RtcpSession(90000, listener);
+        long ntp = (NTP_TO_UNIX_EPOCH_SEC + 1_700_000_000L) << 32 | 0x80000000L; // + 0.5 s
+        byte[] sr = senderReport(SSRC, ntp, 90000, 1234, 567890);
+        session.onRtcpPacket(sr, 0, sr.length, 0);
+
+        assertEquals(1, session.getSourceCount());
+        RtcpSession.SourceStats source = session.getSource(0);
+        assertTrue(source.hasSenderReport());
+        assertEquals(1234, source.getSenderPacketCount());
+        assertEquals(567890, source.getSenderOctetCount());
+        assertEquals(1_700_000_000_500L, source.getWallClockTimeMs(90000));
+        assertEquals(1_700_000_001_500L, source.getWallClockTimeMs(180000));
+        assertEquals(1_699_999_999_500L, source.getWallClockTimeMs(0));
+        assertEquals("[sr " + SSRC + "]", events.toString());
+    }
+
+    @Test
+    public void senderReport_wallClockAcrossTimestampWrap() {
+        RtcpSession session = new RtcpSession(90000, null);
+        long ntp = (NTP_TO_UNIX_EPOCH_SEC + 1_700_000_000L) << 32;
+        byte[] sr = senderReport(SSRC, ntp, 0x100000000L - 45000, 0, 0);
+        session.onRtcpPacket(sr, 0, sr.length, 0);
+
+        assertEquals(1_700_000_001_000L, session.getSource(0).getWallClockTimeMs(45000));
+    }
+
+    @Test
+    public void wallClock_unknownBeforeSenderReport() {
+        RtcpSession session = new RtcpSession(90000, null);
+        rtp(session, 1, 0);
+        assertFalse(session.getSource(0).hasSenderReport());
+        assertEquals(-1, session.getSource(0).getWallClockTimeMs(0));
+    }
+
+    @Test
+    public void compoundPacket_parsesCnameAndBye() {
+        RtcpSession session = new RtcpSession(90000, listener);
+        byte[] compound = concat(
+                senderReport(SSRC, 0, 0, 0, 0),
+                sourceDescription(SSRC, "camera@host"),
+                sourceDescription(0x55667788L, "other@host"),
+                bye(SSRC));
+        session.onRtcpPacket(compound, 0, compound.length, 0);
+
+        assertEquals(1, session.getSourceCount());
+        RtcpSession.SourceStats source = session.getSource(0);
+        assertEquals("camera@host", source.getCname());
+        assertTrue(source.isBye());
+        assertEquals("[sr " + SSRC + ", bye " + SSRC + "]", events.toString());
+
+        // Repeated BYE is reported once, and the source is left out of reports
+        byte[] bye = bye(SSRC);
+        session.onRtcpPacket(bye, 0, bye.length, 0);
+        assertEquals(2, events.size());
+        rtp(session, 1, 0);
+        assertEquals(0, session.writeReceiverReport(new byte[RtcpSession.MAX_REPORT_SIZE], 0, 0));
+    }
+
+    @Test
+    public void truncatedPacket_isIgnored() {
+        RtcpSession session = new RtcpSession(90000, listener);
+        byte[] sr = senderReport(SSRC, 0, 0, 0, 0);
+        session.onRtcpPacket(sr, 0, sr.length - 4, 0);
+        assertEquals(0, session.getSourceCount());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void sequence_wrapsAcrossFfff() {
+        RtcpSession session = new RtcpSession(90000, null);
+        rtp(session, 0xFFFE, 0);
+        rtp(session, 0xFFFF, 0);
+        rtp(session, 0, 0);
+        rtp(session, 1, 0);
+
+        RtcpSession.SourceStats source = session.getSource(0);
+        assertEquals(0x10001, source.getExtendedHighestSequenceNumber());
+        assertEquals(4, source.getPacketsExpected());
+        assertEquals(4, source.getPacketsReceived());
+        assertEquals(0, source.getPacketsLost());
+    }
+
+    @Test
+    public void sequence_singleLargeJumpIsDropped() {
+        RtcpSession session = new RtcpSession(90000, null);
+        rtp(session, 1, 0);
+        rtp(session, 30000, 0);
+        rtp(session, 2, 0);
+
+        RtcpSession.SourceStats source = session.getSource(0);
+        assertEquals(2, source.getExtendedHighestSequenceNumber());
+        assertEquals(2, source.getPacketsReceived());
+        assertEquals(0, source.getPacketsLost());
+    }
+
+    @Test
+    public void sequence_restartsAfterTwoConsecutiveLargeJumps() {
+        RtcpSession session = new RtcpSession(90000, null);
+        rtp(session, 1, 0);
+        rtp(session, 2, 0);
+        rtp(session, 30000, 0);
+        rtp(session, 30001, 0);
+        rtp(session, 30002, 0);
+
+        // Statistics start over at the packet which confirmed the jump
+        RtcpSession.SourceStats source = session.getSource(0);
+        assertEquals(30002, source.getExtendedHighestSequenceNumber());
+        assertEquals(2, source.getPacketsExpected());
+        assertEquals(2, source.getPacketsReceived());
+        assertEquals(0, source.getPacketsLost());
+    }
+
+    @Test
+    public void keyFrameRequest_sendsPliAndFirAtMostOncePerSecond() {
+        RtcpSession session = new RtcpSession(90000, null);
+        rtp(session, 1, 0);
+        byte[] out = new byte[RtcpSession.MAX_REPORT_SIZE];
+        int reportLength = session.writeReceiverReport(out, 0, 0);
+
+        session.requestKeyFrame();
+        assertTrue(session.isReportDue(10000));
+        assertEquals(reportLength + 12 + 20, session.writeReceiverReport(out, 0, 10000));
+        long localSsrc = readInt(out, 4);
+        // PLI
+        assertEquals(0x81, out[reportLength] & 0xFF);
+        assertEquals(206, out[reportLength + 1] & 0xFF);
+        assertEquals(12, packetLength(out, reportLength));
+        assertEquals(localSsrc, readInt(out, reportLength + 4));
+        assertEquals(SSRC, readInt(out, reportLength + 8));
+        // FIR with sequence number 0
+        int fir = reportLength + 12;
+        assertEquals(0x84, out[fir] & 0xFF);
+        assertEquals(206, out[fir + 1] & 0xFF);
+        assertEquals(20, packetLength(out, fir));
+        assertEquals(SSRC, readInt(out, fir + 12));
+        assertEquals(0, out[fir + 16]);
+
+        // Second request within a second waits
+        session.requestKeyFrame();
+        assertFalse(session.isReportDue(10500));
+        assertEquals(reportLength, session.writeReceiverReport(out, 0, 10500));
+        assertTrue(session.isReportDue(11000));
+        assertEquals(reportLength + 12 + 20, session.writeReceiverReport(out, 0, 11000));
+        assertEquals(1, out[fir + 16]);
+    }
+}
@@ -0,0 +1,147 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtpAv1ParserTest {
+
+    private final RtpAv1Parser parser = new RtpAv1Parser();
+    private final ArrayList<byte[]> temporalUnits = new ArrayList<>();
+    private final ArrayList<Long> timestamps = new ArrayList<>();
+    private final ArrayList<Integer> flags = new ArrayList<>();
+    private final RtpAv1Parser.TemporalUnitListener listener = (data, offset, length, rtpTimestamp, flags) -> {
+        temporalUnits.add(Arrays.copyOfRange(data, offset, offset + length));
+        timestamps.add(rtpTimestamp);
+        this.flags.add(flags);
+    };
+
+    private void process(long rtpTimestamp, boolean marker, int... payload) {
+        byte[] data = new byte[payload.length + 1];
+        for (int i = 0; i < payload.length; i++)
+            data[i + 1] = (byte) payload[i];
+        parser.processRtpPacket(data, 1, payload.length, rtpTimestamp, marker, listener);
+    }
+
+    private void assertTemporalUnit(int index, int... temporalUnit) {
+        byte[] expected = new byte[temporalUnit.length];
+        for (int i = 0; i < temporalUnit.length; i++)
+            expected[i] = (byte) temporalUnit[i];
+        assertArrayEquals(expected, temporalUnits.get(index));
+    }
+
+    @Test
+    public void singleElement_getsSizeFieldAndTemporalDelimiter() {
+        // W=1, N=1. Sequence header OBU without obu_size
+        process(1000, true, 0x18, 0x08, 0xA1, 0xA2, 0xA3);
+        assertEquals(1, temporalUnits.size());
+        assertTemporalUnit(0, 0x12, 0x00, 0x0A, 0x03, 0xA1, 0xA2, 0xA3);
+        assertEquals(AccessUnitAssembler.FLAG_KEY_FRAME | AccessUnitAssembler.FLAG_CODEC_CONFIG, (int) flags.get(0));
+    }
+
+    @Test
+    public void elementsWithLengths_temporalDelimiterIsDropped() {
+        // W=0, every element has a LEB128 length
+        process(1000, true, 0x00,
+                0x01, 0x10,
+                0x03, 0x30, 0x01, 0x02);
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x02, 0x01, 0x02);
+        assertEquals(0, (int) flags.get(0));
+    }
+
+    @Test
+    public void lastElementOfW_hasNoLength() {
+        process(1000, true, 0x20,
+                0x02, 0x08, 0xA1,
+                0x30, 0x01);
+        assertTemporalUnit(0, 0x12, 0x00, 0x0A, 0x01, 0xA1, 0x32, 0x01, 0x01);
+    }
+
+    @Test
+    public void multiByteLeb128_isReadAndWritten() {
+        int[] payload = new int[3 + 200];
+        payload[0] = 0x00;
+        payload[1] = 0xC8; // 200
+        payload[2] = 0x01;
+        payload[3] = 0x30;
+        process(1000, true, payload);
+        byte[] temporalUnit = temporalUnits.get(0);
+        assertEquals(2 + 1 + 2 + 199, temporalUnit.length);
+        assertEquals(0x32, temporalUnit[2]);
+        assertEquals((byte) 0xC7, temporalUnit[3]); // 199
+        assertEquals(0x01, temporalUnit[4]);
+    }
+
+    @Test
+    public void obuWithSizeField_isCopied() {
+        process(1000, true, 0x10, 0x32, 0x02, 0x01, 0x02);
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x02, 0x01, 0x02);
+    }
+
+    @Test
+    public void obuWithExtension_keepsExtensionHeader() {
+        process(1000, true, 0x10, 0x34, 0x20, 0x01, 0x02);
+        assertTemporalUnit(0, 0x12, 0x00, 0x36, 0x20, 0x02, 0x01, 0x02);
+    }
+
+    @Test
+    public void fragmentedObu_isJoined() {
+        // Y=1, then Z=1 Y=1, then Z=1
+        process(1000, false, 0x50, 0x30, 0x01);
+        process(1000, false, 0xD0, 0x02);
+        process(1000, true, 0x90, 0x03);
+        assertEquals(1, temporalUnits.size());
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x03, 0x01, 0x02, 0x03);
+    }
+
+    @Test
+    public void fragmentedObu_followedByElement() {
+        process(1000, false, 0x50, 0x30, 0x01);
+        process(1000, true, 0xA0, 0x01, 0x02, 0x30, 0x05);
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x02, 0x01, 0x02, 0x32, 0x01, 0x05);
+    }
+
+    @Test
+    public void continuationWithoutStart_isDropped() {
+        process(1000, false, 0x50, 0x30, 0x01);
+        parser.onPacketLoss();
+        process(1000, true, 0xA0, 0x01, 0x02, 0x30, 0x05);
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x01, 0x05);
+    }
+
+    @Test
+    public void newTimestamp_flushesWithoutMarker() {
+        process(1000, false, 0x10, 0x30, 0x01);
+        process(4000, true, 0x10, 0x30, 0x02);
+        assertEquals(2, temporalUnits.size());
+        assertTemporalUnit(0, 0x12, 0x00, 0x32, 0x01, 0x01);
+        assertTemporalUnit(1, 0x12, 0x00, 0x32, 0x01, 0x02);
+    }
+
+    @Test
+    public void lostMarker_flushedUnitKeepsItsTimestamp() {
+        process(1000, false, 0x18, 0x30, 0x01); // N=1
+        process(4000, false, 0x10, 0x30, 0x02);
+        process(4000, true, 0x10, 0x30, 0x03);
+        assertEquals(Arrays.asList(1000L, 4000L), timestamps);
+        assertEquals(AccessUnitAssembler.FLAG_KEY_FRAME, (int) flags.get(0));
+        assertEquals(0, (int) flags.get(1));
+        assertTemporalUnit(1, 0x12, 0x00, 0x32, 0x01, 0x02, 0x32, 0x01, 0x03);
+    }
+
+    @Test
+    public void elementLengthBeyondPacket_dropsTemporalUnit() {
+        process(1000, false, 0x10, 0x30, 0x01);
+        process(1000, true, 0x00, 0x05, 0x30);
+        assertTrue(temporalUnits.isEmpty());
+    }
+
+    @Test
+    public void unterminatedLeb128_dropsTemporalUnit() {
+        process(1000, true, 0x00, 0x80, 0x80);
+        assertTrue(temporalUnits.isEmpty());
+    }
+}
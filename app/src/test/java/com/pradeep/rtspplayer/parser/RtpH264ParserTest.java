@@ -0,0 +1,185 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtpH264ParserTest {
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final RtpH264Parser parser = new RtpH264Parser();
+    private final ArrayList<byte[]> nalUnits = new ArrayList<>();
+    private final RtpParser.NalUnitListener listener =
+            (data, offset, length) -> nalUnits.add(Arrays.copyOfRange(data, offset, offset + length));
+
+    private void process(boolean marker, int... payload) {
+        byte[] data = new byte[payload.length + 3];
+        for (int i = 0; i < payload.length; i++)
+            data[i + 3] = (byte) payload[i];
+        parser.processRtpPacket(data, 3, payload.length, marker, listener);
+    }
+
+    private void assertNalUnit(int index, int... nalUnit) {
+        byte[] expected = new byte[START_CODE.length + nalUnit.length];
+        System.arraycopy(START_CODE, 0, expected, 0, START_CODE.length);
+        for (int i = 0; i < nalUnit.length; i++)
+            expected[START_CODE.length + i] = (byte) nalUnit[i];
+        assertArrayEquals(expected, nalUnits.get(index));
+    }
+
+    @Test
+    public void singleNalUnit_getsStartCode() {
+        process(true, 0x65, 0x88, 0x01, 0x02);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x65, 0x88, 0x01, 0x02);
+    }
+
+    @Test
+    public void fuA_isReassembled() {
+        // FU indicator NRI 3, type 28. FU header S/E bits with type 5
+        process(false, 0x7C, 0x85, 0x88, 0x01);
+        process(false, 0x7C, 0x05, 0x02, 0x03);
+        assertTrue(nalUnits.isEmpty());
+        process(true, 0x7C, 0x45, 0x04);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x65, 0x88, 0x01, 0x02, 0x03, 0x04);
+    }
+
+    @Test
+    public void fuA_withoutStart_isDropped() {
+        process(false, 0x7C, 0x05, 0x02, 0x03);
+        process(true, 0x7C, 0x45, 0x04);
+        assertTrue(nalUnits.isEmpty());
+    }
+
+    @Test
+    public void fuA_growsBeyondInitialBuffer() {
+        int fragmentSize = 1400;
+        int fragments = 60;
+        int[] payload = new int[2 + fragmentSize];
+        payload[0] = 0x7C;
+        for (int i = 0; i < fragments; i++) {
+            payload[1] = (i == 0 ? 0x80 : 0) | (i == fragments - 1 ? 0x40 : 0) | 0x05;
+            Arrays.fill(payload, 2, payload.length, i);
+            process(i == fragments - 1, payload);
+        }
+        assertEquals(1, nalUnits.size());
+        byte[] nalUnit = nalUnits.get(0);
+        assertEquals(START_CODE.length + 1 + fragments * fragmentSize, nalUnit.length);
+        assertEquals(0x65, nalUnit[4]);
+        assertEquals(fragments - 1, nalUnit[nalUnit.length - 1]);
+    }
+
+    @Test
+    public void stapA_emitsEachNalUnit() {
+        process(true, 0x78,
+                0x00, 0x03, 0x67, 0x42, 0x00,
+                0x00, 0x02, 0x68, 0xCE,
+                0x00, 0x02, 0x65, 0x88);
+        assertEquals(3, nalUnits.size());
+        assertNalUnit(0, 0x67, 0x42, 0x00);
+        assertNalUnit(1, 0x68, 0xCE);
+        assertNalUnit(2, 0x65, 0x88);
+    }
+
+    @Test
+    public void stapA_stopsAtTruncatedUnit() {
+        process(true, 0x78,
+                0x00, 0x02, 0x68, 0xCE,
+                0x00, 0x09, 0x65, 0x88);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x68, 0xCE);
+    }
+
+    @Test
+    public void stapB_skipsDon() {
+        process(true, 0x79, 0x12, 0x34,
+                0x00, 0x02, 0x68, 0xCE);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x68, 0xCE);
+    }
+
+    @Test
+    public void mtap16_skipsDondAndTimestampOffset() {
+        // DONB, then size, DOND, 16-bit TS offset and the NAL unit
+        process(true, 0x7A, 0x00, 0x01,
+                0x00, 0x05, 0x00, 0x00, 0x00, 0x68, 0xCE,
+                0x00, 0x05, 0x01, 0x0B, 0xB8, 0x65, 0x88);
+        assertEquals(2, nalUnits.size());
+        assertNalUnit(0, 0x68, 0xCE);
+        assertNalUnit(1, 0x65, 0x88);
+    }
+
+    @Test
+    public void mtap24_skipsDondAndTimestampOffset() {
+        process(true, 0x7B, 0x00, 0x01,
+                0x00, 0x06, 0x00, 0x00, 0x00, 0x00, 0x68, 0xCE);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x68, 0xCE);
+    }
+
+    @Test
+    public void fuB_skipsDonInFirstFragment() {
+        process(false, 0x7D, 0x85, 0x00, 0x07, 0x88, 0x01);
+        process(true, 0x7C, 0x45, 0x02);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x65, 0x88, 0x01, 0x02);
+    }
+
+    @Test
+    public void loss_dropsFragmentInProgress() {
+        process(false, 0x7C, 0x85, 0x88, 0x01);
+        parser.onPacketLoss(1);
+        process(true, 0x7C, 0x45, 0x04);
+        assertTrue(nalUnits.isEmpty());
+    }
+
+    @Test
+    public void loss_dropsSlicesUntilKeyFrame() {
+        parser.onPacketLoss(2);
+        assertTrue(parser.isWaitingForKeyFrame());
+        process(true, 0x41, 0x9A, 0x01);
+        process(true, 0x06, 0x05, 0x01);
+        process(true, 0x67, 0x42, 0x00);
+        assertEquals(2, nalUnits.size());
+        assertNalUnit(0, 0x06, 0x05, 0x01);
+        assertTrue(parser.isWaitingForKeyFrame());
+
+        process(true, 0x65, 0x88, 0x01);
+        assertFalse(parser.isWaitingForKeyFrame());
+        process(true, 0x41, 0x9A, 0x02);
+        assertEquals(4, nalUnits.size());
+        assertNalUnit(2, 0x65, 0x88, 0x01);
+        assertNalUnit(3, 0x41, 0x9A, 0x02);
+    }
+
+    @Test
+    public void loss_insideKeyFrame_waitsForNextPicture() {
+        // Second slice of the IDR picture, first_mb_in_slice is not 0
+        parser.onPacketLoss(1);
+        process(true, 0x65, 0x40, 0x01);
+        assertTrue(nalUnits.isEmpty());
+        assertTrue(parser.isWaitingForKeyFrame());
+
+        process(false, 0x7C, 0x85, 0x88, 0x01);
+        process(true, 0x7C, 0x45, 0x02);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x65, 0x88, 0x01, 0x02);
+        assertFalse(parser.isWaitingForKeyFrame());
+    }
+
+    @Test
+    public void loss_resumesWithoutKeyFrameEventually() {
+        parser.onPacketLoss(1);
+        for (int i = 0; i < 299; i++)
+            process(true, 0x41, 0x9A, i);
+        assertTrue(nalUnits.isEmpty());
+        process(true, 0x41, 0x9A, 0x00);
+        assertEquals(1, nalUnits.size());
+        assertFalse(parser.isWaitingForKeyFrame());
+    }
+}
@@ -0,0 +1,144 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtpH265ParserTest {
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final ArrayList<byte[]> nalUnits = new ArrayList<>();
+    private final RtpParser.NalUnitListener listener =
+            (data, offset, length) -> nalUnits.add(Arrays.copyOfRange(data, offset, offset + length));
+
+    private void process(RtpH265Parser parser, boolean marker, int... payload) {
+        byte[] data = new byte[payload.length + 3];
+        for (int i = 0; i < payload.length; i++)
+            data[i + 3] = (byte) payload[i];
+        parser.processRtpPacket(data, 3, payload.length, marker, listener);
+    }
+
+    private void assertNalUnit(int index, int... nalUnit) {
+        byte[] expected = new byte[START_CODE.length + nalUnit.length];
+        System.arraycopy(START_CODE, 0, expected, 0, START_CODE.length);
+        for (int i = 0; i < nalUnit.length; i++)
+            expected[START_CODE.length + i] = (byte) nalUnit[i];
+        assertArrayEquals(expected, nalUnits.get(index));
+    }
+
+    @Test
+    public void singleNalUnit_getsStartCode() {
+        process(new RtpH265Parser(), true, 0x26, 0x01, 0xAF, 0x01);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01);
+    }
+
+    @Test
+    public void singleNalUnit_withDonl_skipsDonl() {
+        process(new RtpH265Parser(true), true, 0x26, 0x01, 0x00, 0x05, 0xAF, 0x01);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01);
+    }
+
+    @Test
+    public void fu_isReassembled() {
+        RtpH265Parser parser = new RtpH265Parser();
+        // Payload header type 49, FU header S/E bits with type 19 (IDR_W_RADL)
+        process(parser, false, 0x62, 0x01, 0x93, 0xAF, 0x01);
+        process(parser, false, 0x62, 0x01, 0x13, 0x02);
+        assertTrue(nalUnits.isEmpty());
+        process(parser, true, 0x62, 0x01, 0x53, 0x03);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01, 0x02, 0x03);
+    }
+
+    @Test
+    public void fu_withDonl_skipsDonlOfStartFragment() {
+        RtpH265Parser parser = new RtpH265Parser(true);
+        process(parser, false, 0x62, 0x01, 0x93, 0x00, 0x05, 0xAF, 0x01);
+        process(parser, true, 0x62, 0x01, 0x53, 0x02);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01, 0x02);
+    }
+
+    @Test
+    public void fu_withoutStart_isDropped() {
+        process(new RtpH265Parser(), true, 0x62, 0x01, 0x53, 0x03);
+        assertTrue(nalUnits.isEmpty());
+    }
+
+    @Test
+    public void ap_emitsEachNalUnit() {
+        process(new RtpH265Parser(), true, 0x60, 0x01,
+                0x00, 0x03, 0x40, 0x01, 0x0C,
+                0x00, 0x03, 0x42, 0x01, 0x01,
+                0x00, 0x03, 0x44, 0x01, 0xC1);
+        assertEquals(3, nalUnits.size());
+        assertNalUnit(0, 0x40, 0x01, 0x0C);
+        assertNalUnit(1, 0x42, 0x01, 0x01);
+        assertNalUnit(2, 0x44, 0x01, 0xC1);
+    }
+
+    @Test
+    public void ap_withDon_skipsDonlAndDond() {
+        process(new RtpH265Parser(true), true, 0x60, 0x01,
+                0x00, 0x07, 0x00, 0x03, 0x40, 0x01, 0x0C,
+                0x01, 0x00, 0x03, 0x42, 0x01, 0x01);
+        assertEquals(2, nalUnits.size());
+        assertNalUnit(0, 0x40, 0x01, 0x0C);
+        assertNalUnit(1, 0x42, 0x01, 0x01);
+    }
+
+    @Test
+    public void ap_stopsAtInvalidUnit() {
+        process(new RtpH265Parser(), true, 0x60, 0x01,
+                0x00, 0x03, 0x40, 0x01, 0x0C,
+                0x00, 0x01, 0x42);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x40, 0x01, 0x0C);
+    }
+
+    @Test
+    public void paci_unwrapsSingleNalUnit() {
+        // A 0, cType 19, PHSsize 1, one byte header extension
+        process(new RtpH265Parser(), true, 0x64, 0x01, 0x26, 0x10, 0xEE, 0xAF, 0x01);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01);
+    }
+
+    @Test
+    public void paci_unwrapsFragmentationUnit() {
+        RtpH265Parser parser = new RtpH265Parser();
+        // cType 49, no header extension
+        process(parser, false, 0x64, 0x01, 0x62, 0x00, 0x93, 0xAF);
+        process(parser, true, 0x64, 0x01, 0x62, 0x00, 0x53, 0x01);
+        assertEquals(1, nalUnits.size());
+        assertNalUnit(0, 0x26, 0x01, 0xAF, 0x01);
+    }
+
+    @Test
+    public void paci_nestedPaci_isDropped() {
+        process(new RtpH265Parser(), true, 0x64, 0x01, 0x64, 0x00, 0x26, 0x01, 0xAF);
+        assertTrue(nalUnits.isEmpty());
+    }
+
+    @Test
+    public void loss_dropsSlicesUntilFirstSliceOfKeyFrame() {
+        RtpH265Parser parser = new RtpH265Parser();
+        parser.onPacketLoss(1);
+        // TRAIL_R, then an IDR slice segment which does not start the picture
+        process(parser, true, 0x02, 0x01, 0x80, 0x01);
+        process(parser, true, 0x26, 0x01, 0x40, 0x01);
+        process(parser, true, 0x40, 0x01, 0x0C);
+        assertEquals(1, nalUnits.size());
+        assertTrue(parser.isWaitingForKeyFrame());
+        process(parser, true, 0x26, 0x01, 0xAF, 0x01);
+        assertEquals(2, nalUnits.size());
+        assertNalUnit(1, 0x26, 0x01, 0xAF, 0x01);
+        assertFalse(parser.isWaitingForKeyFrame());
+    }
+}
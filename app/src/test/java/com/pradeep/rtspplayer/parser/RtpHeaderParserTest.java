@@ -0,0 +1,97 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RtpHeaderParserTest {
+
+    // 12-byte header with sequence number 0xABCD, timestamp 0xFFFFFFF0, SSRC 0x01020304
+    private static byte[] packet(int firstByte, boolean marker, int extraLength) {
+        byte[] data = new byte[12 + extraLength];
+        data[0] = (byte) firstByte;
+        data[1] = (byte) ((marker ? 0x80 : 0) | 96);
+        data[2] = (byte) 0xAB;
+        data[3] = (byte) 0xCD;
+        data[4] = (byte) 0xFF;
+        data[5] = (byte) 0xFF;
+        data[6] = (byte) 0xFF;
+        data[7] = (byte) 0xF0;
+        data[8] = 1;
+        data[9] = 2;
+        data[10] = 3;
+        data[11] = 4;
+        return data;
+    }
+
+    @Test
+    public void fixedHeader_isParsed() {
+        byte[] data = packet(0x80, true, 5);
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+
+        assertTrue(RtpHeaderParser.parseHeader(header, data, 0, data.length));
+        assertEquals(2, header.version);
+        assertEquals(1, header.marker);
+        assertEquals(96, header.payloadType);
+        assertEquals(0xABCD, header.sequenceNumber);
+        assertEquals(0xFFFFFFF0L, header.timeStamp);
+        assertEquals(0x01020304L, header.ssrc);
+        assertEquals(12, header.payloadOffset);
+        assertEquals(5, header.payloadSize);
+    }
+
+    @Test
+    public void csrcListAndExtension_areSkipped() {
+        // 2 CSRCs, extension of 2 words, 3 bytes of payload
+        byte[] data = packet(0x80 | 0x10 | 2, false, 8 + 4 + 8 + 3);
+        data[12 + 8 + 3] = 2;
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+
+        assertTrue(RtpHeaderParser.parseHeader(header, data, 0, data.length));
+        assertEquals(2, header.cc);
+        assertEquals(1, header.extension);
+        assertEquals(12 + 8 + 4 + 8, header.payloadOffset);
+        assertEquals(3, header.payloadSize);
+    }
+
+    @Test
+    public void padding_isExcludedFromPayload() {
+        byte[] data = packet(0x80 | 0x20, false, 10);
+        data[data.length - 1] = 4;
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+
+        assertTrue(RtpHeaderParser.parseHeader(header, data, 0, data.length));
+        assertEquals(12, header.payloadOffset);
+        assertEquals(6, header.payloadSize);
+    }
+
+    @Test
+    public void headerAtOffset_isParsedInPlace() {
+        byte[] packet = packet(0x80, false, 4);
+        byte[] data = new byte[packet.length + 4];
+        System.arraycopy(packet, 0, data, 4, packet.length);
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+
+        assertTrue(RtpHeaderParser.parseHeader(header, data, 4, packet.length));
+        assertEquals(16, header.payloadOffset);
+        assertEquals(4, header.payloadSize);
+    }
+
+    @Test
+    public void invalidPackets_areRejected() {
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+        // Too short
+        assertFalse(RtpHeaderParser.parseHeader(header, new byte[11], 0, 11));
+        // Version 1
+        byte[] version1 = packet(0x40, false, 4);
+        assertFalse(RtpHeaderParser.parseHeader(header, version1, 0, version1.length));
+        // Extension longer than the packet
+        byte[] extension = packet(0x80 | 0x10, false, 4);
+        extension[15] = 10;
+        assertFalse(RtpHeaderParser.parseHeader(header, extension, 0, extension.length));
+        // Padding longer than the payload
+        byte[] padding = packet(0x80 | 0x20, false, 4);
+        padding[padding.length - 1] = 20;
+        assertFalse(RtpHeaderParser.parseHeader(header, padding, 0, padding.length));
+    }
+}
@@ -0,0 +1,174 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtpInterleavedDemuxerTest {
+
+    private static byte[] frame(int channel, int length, int fill) {
+        byte[] frame = new byte[4 + length];
+        frame[0] = '$';
+        frame[1] = (byte) channel;
+        frame[2] = (byte) (length >> 8);
+        frame[3] = (byte) length;
+        for (int i = 4; i < frame.length; i++)
+            frame[i] = (byte) fill;
+        frame[4] = (byte) 0x80; // RTP version 2
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Returns at most chunkSize bytes per read, like a slow socket
+    private static InputStream chunked(byte[] data, int chunkSize) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+        };
+    }
+
+    @Test
+    public void frames_splitAcrossReads() throws IOException {
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(concat(frame(0, 1500, 1), frame(3, 20, 2)), 7));
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(0, demuxer.getChannel());
+        assertEquals(1500, demuxer.getFrameLength());
+        assertEquals(1, demuxer.getBuffer()[demuxer.getFrameOffset() + 1499]);
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(3, demuxer.getChannel());
+        assertEquals(20, demuxer.getFrameLength());
+        assertEquals(2, demuxer.getBuffer()[demuxer.getFrameOffset() + 19]);
+
+        assertFalse(demuxer.readFrame());
+    }
+
+    @Test
+    public void maxSizeFrames_surviveCompaction() throws IOException {
+        byte[] data = concat(frame(0, 0xFFFF, 1), frame(1, 0xFFFF, 2), frame(2, 0xFFFF, 3));
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(data, 10000));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(demuxer.readFrame());
+            assertEquals(i, demuxer.getChannel());
+            assertEquals(0xFFFF, demuxer.getFrameLength());
+            assertEquals(i + 1, demuxer.getBuffer()[demuxer.getFrameOffset() + 0xFFFE]);
+        }
+    }
+
+    @Test
+    public void garbageAndFalseMagic_areSkipped() throws IOException {
+        // '$' followed by a payload which is not RTP version 2
+        byte[] falseMagic = {'$', 0, 0, 2, 0x11, 0x22};
+        byte[] data = concat(ascii("junk"), falseMagic, frame(2, 10, 5));
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(new ByteArrayInputStream(data));
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(2, demuxer.getChannel());
+        assertEquals(10, demuxer.getFrameLength());
+        assertFalse(demuxer.readFrame());
+    }
+
+    @Test
+    public void interleavedResponse_isReportedAndSkipped() throws IOException {
+        byte[] response = ascii("RTSP/1.0 200 OK\r\nCSeq: 7\r\nContent-Length: 4\r\n\r\nbody");
+        byte[] data = concat(frame(0, 10, 1), response, frame(1, 10, 2));
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(data, 5));
+        ArrayList<int[]> responses = new ArrayList<>();
+        demuxer.setRtspResponseListener((statusCode, cSeq, buffer, offset, length) ->
+                responses.add(new int[] {statusCode, cSeq, length}));
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(0, demuxer.getChannel());
+        assertTrue(demuxer.readFrame());
+        assertEquals(1, demuxer.getChannel());
+
+        assertEquals(1, responses.size());
+        assertArrayEquals(new int[] {200, 7, response.length}, responses.get(0));
+    }
+
+    private static byte[] response(int cSeq, int contentLength) {
+        byte[] content = new byte[contentLength];
+        Arrays.fill(content, (byte) 'a');
+        return concat(ascii("RTSP/1.0 200 OK\r\nCSeq: " + cSeq + "\r\nContent-Length: " + contentLength + "\r\n\r\n"), content);
+    }
+
+    @Test
+    public void readResponse_keepsFollowingFrames() throws IOException {
+        byte[] data = concat(frame(0, 10, 1), response(3, 4), frame(1, 10, 2));
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(data, 3));
+        RtspResponse response = new RtspResponse();
+
+        assertTrue(demuxer.readResponse(response));
+        assertEquals(200, response.getStatusCode());
+        assertEquals(3, response.getCSeq());
+        assertEquals("aaaa", response.getContent());
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(1, demuxer.getChannel());
+        assertFalse(demuxer.readResponse(response));
+    }
+
+    @Test
+    public void readResponse_largeSdpIsAccepted() throws IOException {
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(response(2, 40000), 1500));
+        RtspResponse response = new RtspResponse();
+        assertTrue(demuxer.readResponse(response));
+        assertEquals(40000, response.getContent().length());
+    }
+
+    @Test(expected = IOException.class)
+    public void readResponse_beyondBuffer_fails() throws IOException {
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(response(2, 70000), 1500));
+        demuxer.readResponse(new RtspResponse());
+    }
+
+    @Test
+    public void oversizedInterleavedResponse_isSkipped() throws IOException {
+        byte[] data = concat(frame(0, 10, 1), response(9, 70000), frame(1, 10, 2));
+        RtpInterleavedDemuxer demuxer = new RtpInterleavedDemuxer(chunked(data, 1500));
+        ArrayList<Integer> responses = new ArrayList<>();
+        int[] tooLarge = {0};
+        demuxer.setRtspResponseListener(new RtpInterleavedDemuxer.RtspResponseListener() {
+            @Override
+            public void onRtspResponse(int statusCode, int cSeq, @NonNull byte[] buffer, int offset, int length) {
+                responses.add(cSeq);
+            }
+
+            @Override
+            public void onRtspResponseTooLarge() {
+                tooLarge[0]++;
+            }
+        });
+
+        assertTrue(demuxer.readFrame());
+        assertEquals(0, demuxer.getChannel());
+        assertTrue(demuxer.readFrame());
+        assertEquals(1, demuxer.getChannel());
+        assertTrue(responses.isEmpty());
+        assertEquals(1, tooLarge[0]);
+    }
+}
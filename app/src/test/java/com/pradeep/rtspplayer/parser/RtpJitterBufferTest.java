@@ -0,0 +1,141 @@
+package com.pradeep.rtspplayer.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RtpJitterBufferTest {
+
+    // Released packets as their sequence numbers, losses as "loss N"
+    private final ArrayList<String> events = new ArrayList<>();
+
+    private final RtpJitterBuffer.Listener listener = new RtpJitterBuffer.Listener() {
+        @Override
+        public void onRtpPacket(@NonNull RtpHeaderParser.RtpHeader header, @NonNull byte[] data, int offset, int length) {
+            assertEquals(2, length);
+            assertEquals((byte) header.sequenceNumber, data[offset]);
+            events.add(String.valueOf(header.sequenceNumber));
+        }
+
+        @Override
+        public void onRtpPacketLoss(int lostPackets) {
+            events.add("loss " + lostPackets);
+        }
+    };
+
+    private static void push(RtpJitterBuffer jitterBuffer, int seqNum, long nowMs) {
+        RtpHeaderParser.RtpHeader header = new RtpHeaderParser.RtpHeader();
+        header.sequenceNumber = seqNum;
+        header.payloadOffset = 12;
+        header.payloadSize = 2;
+        byte[] data = new byte[14];
+        data[12] = (byte) seqNum;
+        jitterBuffer.push(header, data, nowMs);
+    }
+
+    private void assertEvents(String... expected) {
+        assertEquals(Arrays.asList(expected), events);
+    }
+
+    @Test
+    public void reorderedPackets_areReleasedInOrder() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 1, 0);
+        push(jitterBuffer, 3, 0);
+        push(jitterBuffer, 4, 0);
+        assertEvents("1");
+        push(jitterBuffer, 2, 10);
+        assertEvents("1", "2", "3", "4");
+    }
+
+    @Test
+    public void sequenceWrap_isInOrder() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 65534, 0);
+        push(jitterBuffer, 0, 0);
+        push(jitterBuffer, 65535, 0);
+        push(jitterBuffer, 1, 0);
+        assertEvents("65534", "65535", "0", "1");
+    }
+
+    @Test
+    public void gap_isReportedAfterLatency() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 10, 0);
+        push(jitterBuffer, 13, 0);
+        push(jitterBuffer, 14, 50);
+        assertEvents("10");
+        push(jitterBuffer, 15, 99);
+        assertEvents("10");
+        push(jitterBuffer, 16, 100);
+        assertEvents("10", "loss 2", "13", "14", "15", "16");
+    }
+
+    @Test
+    public void gapAcrossWrap_isReportedAfterLatency() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 65535, 0);
+        push(jitterBuffer, 1, 0);
+        jitterBuffer.drain(100);
+        assertEvents("65535", "loss 1", "1");
+    }
+
+    @Test
+    public void drain_releasesHeldPacketsWithoutNewArrivals() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 1, 0);
+        push(jitterBuffer, 3, 20);
+        jitterBuffer.drain(119);
+        assertEvents("1");
+        jitterBuffer.drain(120);
+        assertEvents("1", "loss 1", "3");
+    }
+
+    @Test
+    public void latePacket_isDropped() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 1, 0);
+        push(jitterBuffer, 3, 0);
+        jitterBuffer.drain(100);
+        push(jitterBuffer, 2, 150);
+        push(jitterBuffer, 3, 150);
+        push(jitterBuffer, 4, 150);
+        assertEvents("1", "loss 1", "3", "4");
+    }
+
+    @Test
+    public void zeroLatency_passesThroughAndReportsGaps() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 0);
+        push(jitterBuffer, 65534, 0);
+        push(jitterBuffer, 1, 0);
+        push(jitterBuffer, 0, 0);
+        push(jitterBuffer, 2, 0);
+        assertEvents("65534", "loss 2", "1", "2");
+    }
+
+    @Test
+    public void sequenceRestart_flushesAndContinues() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100);
+        push(jitterBuffer, 5000, 0);
+        push(jitterBuffer, 5002, 0);
+        push(jitterBuffer, 100, 10);
+        push(jitterBuffer, 101, 10);
+        assertEvents("5000", "loss 1", "5002", "100", "101");
+    }
+
+    @Test
+    public void jumpBeyondCapacity_releasesHeldPackets() {
+        RtpJitterBuffer jitterBuffer = new RtpJitterBuffer(listener, 100, 16);
+        push(jitterBuffer, 1, 0);
+        push(jitterBuffer, 3, 0);
+        push(jitterBuffer, 40, 0);
+        List<String> expected = Arrays.asList("1", "loss 1", "3", "loss 36", "40");
+        assertEquals(expected, events);
+    }
+}
@@ -0,0 +1,171 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RtpJpegParserTest {
+
+    private final RtpJpegParser parser = new RtpJpegParser();
+    private final ArrayList<byte[]> frames = new ArrayList<>();
+    private final RtpJpegParser.JpegFrameListener listener =
+            (data, offset, length) -> frames.add(Arrays.copyOfRange(data, offset, offset + length));
+
+    // RFC 2435 main JPEG header followed by the given bytes
+    private void process(boolean marker, int fragmentOffset, int type, int q, int width, int height, int... rest) {
+        byte[] data = new byte[8 + rest.length];
+        data[1] = (byte) (fragmentOffset >> 16);
+        data[2] = (byte) (fragmentOffset >> 8);
+        data[3] = (byte) fragmentOffset;
+        data[4] = (byte) type;
+        data[5] = (byte) q;
+        data[6] = (byte) (width / 8);
+        data[7] = (byte) (height / 8);
+        for (int i = 0; i < rest.length; i++)
+            data[8 + i] = (byte) rest[i];
+        parser.processRtpPacket(data, 0, data.length, marker, listener);
+    }
+
+    // Position right after the first FF <marker>, -1 if not found
+    private static int findMarker(byte[] frame, int marker) {
+        for (int i = 0; i + 1 < frame.length; i++) {
+            if ((frame[i] & 0xFF) == 0xFF && (frame[i + 1] & 0xFF) == marker)
+                return i + 2;
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] data, int position) {
+        return ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+    }
+
+    private static int[] concat(int[] a, int... b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    @Test
+    public void fragments_areJoinedWithRebuiltHeaders() {
+        process(false, 0, 1, 50, 320, 240, 0x11, 0x22, 0x33);
+        process(true, 3, 1, 50, 320, 240, 0x44);
+        assertEquals(1, frames.size());
+        byte[] frame = frames.get(0);
+
+        assertEquals(0xFF, frame[0] & 0xFF);
+        assertEquals(0xD8, frame[1] & 0xFF);
+        int dqt = findMarker(frame, 0xDB);
+        assertEquals(2 + 1 + 64, readShort(frame, dqt));
+        assertEquals(0, frame[dqt + 2]);
+        // Q 50 uses the Annex K tables as they are, in zigzag order
+        assertEquals(16, frame[dqt + 3]);
+        assertEquals(11, frame[dqt + 4]);
+        assertEquals(12, frame[dqt + 5]);
+
+        int sof = findMarker(frame, 0xC0);
+        assertEquals(240, readShort(frame, sof + 3));
+        assertEquals(320, readShort(frame, sof + 5));
+        assertEquals(0x22, frame[sof + 9]);
+        assertEquals(-1, findMarker(frame, 0xDD));
+        assertTrue(findMarker(frame, 0xC4) > 0);
+
+        int sos = findMarker(frame, 0xDA);
+        int scan = sos + 12;
+        assertArrayEquals(new byte[] {0x11, 0x22, 0x33, 0x44, (byte) 0xFF, (byte) 0xD9},
+                Arrays.copyOfRange(frame, scan, frame.length));
+    }
+
+    @Test
+    public void type0_usesHorizontalSubsampling() {
+        process(true, 0, 0, 50, 64, 48, 0x11);
+        byte[] frame = frames.get(0);
+        assertEquals(0x21, frame[findMarker(frame, 0xC0) + 9]);
+    }
+
+    @Test
+    public void restartMarkerHeader_addsDri() {
+        // Type 65 is type 1 with a restart header, interval 4
+        process(true, 0, 65, 50, 64, 48, 0x00, 0x04, 0xFF, 0xFF, 0x11);
+        byte[] frame = frames.get(0);
+        int dri = findMarker(frame, 0xDD);
+        assertEquals(4, readShort(frame, dri));
+        assertEquals(4, readShort(frame, dri + 2));
+        assertEquals(0x11, frame[frame.length - 3]);
+    }
+
+    @Test
+    public void scanEndingWithEoi_isNotTerminatedTwice() {
+        process(true, 0, 1, 50, 64, 48, 0x11, 0xFF, 0xD9);
+        byte[] frame = frames.get(0);
+        assertEquals(0x11, frame[frame.length - 3]);
+        assertEquals(0xD9, frame[frame.length - 1] & 0xFF);
+    }
+
+    @Test
+    public void inBandTables_areUsedAndCached() {
+        int[] tables = new int[128];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = i + 1;
+        // MBZ, precision 0, length 128
+        process(true, 0, 1, 128, 64, 48, concat(new int[] {0x00, 0x00, 0x00, 0x80}, concat(tables, 0x11)));
+        byte[] frame = frames.get(0);
+        int dqt = findMarker(frame, 0xDB);
+        assertEquals(1, frame[dqt + 3]);
+        assertEquals(64, frame[dqt + 66]);
+        int chromaDqt = dqt + 67 + 2;
+        assertEquals(1, frame[chromaDqt + 2]);
+        assertEquals(65, frame[chromaDqt + 3]);
+
+        // Later frames may send a zero length table header
+        process(true, 0, 1, 128, 64, 48, 0x00, 0x00, 0x00, 0x00, 0x22);
+        assertEquals(2, frames.size());
+        frame = frames.get(1);
+        assertEquals(1, frame[findMarker(frame, 0xDB) + 3]);
+        assertEquals(0x22, frame[frame.length - 3]);
+    }
+
+    @Test
+    public void inBandTables_notReceivedYet_dropFrame() {
+        process(true, 0, 1, 130, 64, 48, 0x00, 0x00, 0x00, 0x00, 0x22);
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void q255Tables_rebuildHeaderEveryFrame() {
+        int[] tables = new int[64];
+        Arrays.fill(tables, 7);
+        process(true, 0, 1, 255, 64, 48, concat(new int[] {0x00, 0x00, 0x00, 0x40}, concat(tables, 0x11)));
+        Arrays.fill(tables, 9);
+        process(true, 0, 1, 255, 64, 48, concat(new int[] {0x00, 0x00, 0x00, 0x40}, concat(tables, 0x11)));
+        assertEquals(2, frames.size());
+        assertEquals(7, frames.get(0)[findMarker(frames.get(0), 0xDB) + 3]);
+        assertEquals(9, frames.get(1)[findMarker(frames.get(1), 0xDB) + 3]);
+    }
+
+    @Test
+    public void missingFragment_dropsFrame() {
+        process(false, 0, 1, 50, 64, 48, 0x11, 0x22);
+        process(true, 3, 1, 50, 64, 48, 0x44);
+        assertTrue(frames.isEmpty());
+
+        process(true, 0, 1, 50, 64, 48, 0x55);
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void packetLoss_dropsFrame() {
+        process(false, 0, 1, 50, 64, 48, 0x11, 0x22);
+        parser.onPacketLoss();
+        process(true, 2, 1, 50, 64, 48, 0x33);
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void unsupportedType_isIgnored() {
+        process(true, 0, 2, 50, 64, 48, 0x11);
+        assertTrue(frames.isEmpty());
+    }
+}
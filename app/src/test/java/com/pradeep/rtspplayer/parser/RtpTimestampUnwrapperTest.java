@@ -0,0 +1,48 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RtpTimestampUnwrapperTest {
+
+    @Test
+    public void firstTimestamp_mapsToZero() {
+        RtpTimestampUnwrapper unwrapper = new RtpTimestampUnwrapper(90000);
+        assertEquals(0, unwrapper.getPresentationTimeUs(123456789L));
+        assertEquals(1_000_000, unwrapper.getPresentationTimeUs(123456789L + 90000));
+    }
+
+    @Test
+    public void wraparound_keepsTimelineContinuous() {
+        RtpTimestampUnwrapper unwrapper = new RtpTimestampUnwrapper(90000);
+        assertEquals(0, unwrapper.unwrap(0xFFFFFFFFL - 1799));
+        assertEquals(1800, unwrapper.unwrap(0));
+        assertEquals(3600, unwrapper.unwrap(1800));
+        assertEquals(60_000, unwrapper.getPresentationTimeUs(3600)); // 5400 ticks
+    }
+
+    @Test
+    public void backwardStep_goesBackInTime() {
+        // B-frames are sent before the pictures they follow in presentation order
+        RtpTimestampUnwrapper unwrapper = new RtpTimestampUnwrapper(90000);
+        unwrapper.unwrap(10);
+        assertEquals(-5, unwrapper.unwrap(5));
+        // Backward across the wrap
+        unwrapper.reset();
+        unwrapper.unwrap(5);
+        assertEquals(-10, unwrapper.unwrap(0xFFFFFFFFL - 4));
+    }
+
+    @Test
+    public void audioClockRate_isUsed() {
+        RtpTimestampUnwrapper unwrapper = new RtpTimestampUnwrapper(8000);
+        unwrapper.unwrap(0);
+        assertEquals(20_000, unwrapper.getPresentationTimeUs(160));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroClockRate_isRejected() {
+        new RtpTimestampUnwrapper(0);
+    }
+}
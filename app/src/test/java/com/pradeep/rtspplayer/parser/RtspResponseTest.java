@@ -0,0 +1,91 @@
+package com.pradeep.rtspplayer.parser;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class RtspResponseTest {
+
+    private static RtspResponse parse(RtspResponse response, String text) {
+        byte[] data = ("xx" + text).getBytes(StandardCharsets.UTF_8);
+        response.parse(data, 2, data.length - 2);
+        return response;
+    }
+
+    @Test
+    public void statusHeadersAndContent_areParsed() {
+        RtspResponse response = parse(new RtspResponse(),
+                "RTSP/1.0 200 OK\r\n" +
+                "CSeq: 2\r\n" +
+                "Content-Type: application/sdp\r\n" +
+                "Content-Length: 9\r\n" +
+                "\r\n" +
+                "v=0\r\ns=x\r\n");
+        assertEquals(200, response.getStatusCode());
+        assertEquals(2, response.getCSeq());
+        assertEquals(3, response.getHeaderCount());
+        assertEquals("application/sdp", response.getHeader("content-type"));
+        assertEquals("Content-Length", response.getHeaderName(2));
+        assertEquals("9", response.getHeaderValue(2));
+        assertEquals("v=0\r\ns=x\r\n", response.getContent());
+    }
+
+    @Test
+    public void bareLineFeeds_areAccepted() {
+        RtspResponse response = parse(new RtspResponse(),
+                "RTSP/1.0 401 Unauthorized\nCSeq: 5\nWWW-Authenticate: Digest realm=\"cam\"\n\n");
+        assertEquals(401, response.getStatusCode());
+        assertEquals(5, response.getCSeq());
+        assertEquals("Digest realm=\"cam\"", response.getHeader("WWW-Authenticate"));
+        assertEquals("", response.getContent());
+    }
+
+    @Test
+    public void repeatedHeaders_firstIsReturned() {
+        RtspResponse response = parse(new RtspResponse(),
+                "RTSP/1.0 401 Unauthorized\r\n" +
+                "WWW-Authenticate: Digest realm=\"cam\"\r\n" +
+                "WWW-Authenticate: Basic realm=\"cam\"\r\n" +
+                "\r\n");
+        assertEquals("Digest realm=\"cam\"", response.getHeader("www-authenticate"));
+        assertEquals(2, response.getHeaderCount());
+        assertEquals("Basic realm=\"cam\"", response.getHeaderValue(1));
+    }
+
+    @Test
+    public void whitespace_isTrimmed() {
+        RtspResponse response = parse(new RtspResponse(),
+                "RTSP/1.0 200 OK\r\nSession :   1234;timeout=60  \r\nCSeq:7\r\n\r\n");
+        assertEquals("1234;timeout=60", response.getHeader("Session"));
+        assertEquals(7, response.getCSeq());
+    }
+
+    @Test
+    public void missingOrInvalidValues_areMinusOne() {
+        RtspResponse response = parse(new RtspResponse(), "RTSP/1.0 abc\r\nCSeq: x\r\nNo colon\r\n\r\n");
+        assertEquals(-1, response.getStatusCode());
+        assertEquals(-1, response.getCSeq());
+        assertEquals(1, response.getHeaderCount());
+        assertNull(response.getHeader("No colon"));
+    }
+
+    @Test
+    public void reuse_growsHeadersAndResetsState() {
+        StringBuilder text = new StringBuilder("RTSP/1.0 200 OK\r\n");
+        for (int i = 0; i < 40; i++)
+            text.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+        text.append("\r\nbody");
+        RtspResponse response = parse(new RtspResponse(), text.toString());
+        assertEquals(40, response.getHeaderCount());
+        assertEquals("39", response.getHeader("x-header-39"));
+
+        parse(response, "RTSP/1.0 404 Not Found\r\n\r\n");
+        assertEquals(404, response.getStatusCode());
+        assertEquals(-1, response.getCSeq());
+        assertEquals(0, response.getHeaderCount());
+        assertNull(response.getHeader("X-Header-0"));
+        assertEquals("", response.getContent());
+    }
+}
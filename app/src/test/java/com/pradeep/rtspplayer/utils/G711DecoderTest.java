@@ -0,0 +1,75 @@
+package com.pradeep.rtspplayer.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class G711DecoderTest {
+
+    private static short decode(boolean aLaw, int code) {
+        short[] out = new short[1];
+        G711Decoder.decode(aLaw, new byte[] {(byte) code}, 0, 1, out, 0);
+        return out[0];
+    }
+
+    @Test
+    public void aLaw_referenceValues() {
+        assertEquals(8, decode(true, 0xD5));
+        assertEquals(-8, decode(true, 0x55));
+        assertEquals(848, decode(true, 0xFF));
+        assertEquals(-5504, decode(true, 0x00));
+        assertEquals(5504, decode(true, 0x80));
+        assertEquals(32256, decode(true, 0xAA));
+        assertEquals(-32256, decode(true, 0x2A));
+    }
+
+    @Test
+    public void muLaw_referenceValues() {
+        assertEquals(0, decode(false, 0xFF));
+        assertEquals(0, decode(false, 0x7F));
+        assertEquals(32124, decode(false, 0x80));
+        assertEquals(-32124, decode(false, 0x00));
+        assertEquals(8, decode(false, 0xFE));
+        assertEquals(-8, decode(false, 0x7E));
+    }
+
+    @Test
+    public void tables_areSymmetric() {
+        for (int code = 0; code < 128; code++) {
+            assertEquals(-decode(true, code), decode(true, code | 0x80));
+            assertEquals(-decode(false, code), decode(false, code | 0x80));
+        }
+    }
+
+    @Test
+    public void decode_usesOffsetAndLength() {
+        G711Decoder decoder = new G711Decoder(false);
+        short[] samples = decoder.decode(new byte[] {0x00, (byte) 0x80, (byte) 0xFE, 0x00}, 1, 2);
+        assertEquals(32124, samples[0]);
+        assertEquals(8, samples[1]);
+    }
+
+    @Test
+    public void decodeToPcm16_isLittleEndian() {
+        G711Decoder decoder = new G711Decoder(true);
+        byte[] pcm = decoder.decodeToPcm16(new byte[] {0x00, (byte) 0xAA, 0x00}, 1, 2);
+        // 32256 = 0x7E00, -5504 = 0xEA80
+        assertEquals(0x00, pcm[0]);
+        assertEquals(0x7E, pcm[1]);
+        assertEquals((byte) 0x80, pcm[2]);
+        assertEquals((byte) 0xEA, pcm[3]);
+    }
+
+    @Test
+    public void decodeToPcm16_growsBuffer() {
+        G711Decoder decoder = new G711Decoder(false);
+        byte[] data = new byte[4000];
+        Arrays.fill(data, (byte) 0x80);
+        byte[] pcm = decoder.decodeToPcm16(data, 0, data.length);
+        assertTrue(pcm.length >= 2 * data.length);
+        assertEquals((byte) 0x7C, pcm[2 * data.length - 2]);
+        assertEquals((byte) 0x7D, pcm[2 * data.length - 1]);
+    }
+}